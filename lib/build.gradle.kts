@@ -30,6 +30,8 @@ dependencies {
     api("software.amazon.awssdk:s3:2.29.31")
     api("software.amazon.awssdk:netty-nio-client:2.29.31")
     api("org.bytedeco:javacv-platform:1.5.7")
+    // deprecated: the gifs are written by util.GifEncoder now, kept for consumers that use it transitively
+    // and to be removed in the next major version
     api("com.madgag:animated-gif-lib:1.4")
     testImplementation("junit:junit:4.13.2")
     implementation("org.projectlombok:lombok:1.18.20")
@@ -43,9 +45,28 @@ java {
     }
 }
 
+// the vector thumbnail resampler uses the incubating vector api.  It has its own source set so only its compile
+// adds the module, main loads it by name and the jar and the tests get its classes.
+val vector by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+}
+
+tasks.named<JavaCompile>("compileVectorJava") {
+    options.compilerArgs.add("--add-modules=jdk.incubator.vector")
+}
+
+tasks.jar {
+    from(vector.output)
+}
+
+sourceSets.test {
+    runtimeClasspath += vector.output
+}
+
 tasks.named<Test>("test") {
     // Use JUnit Platform for unit tests.
     useJUnitPlatform()
+    jvmArgs("--add-modules=jdk.incubator.vector")
 }
 
 publishing {
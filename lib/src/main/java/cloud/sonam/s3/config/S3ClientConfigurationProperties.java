@@ -7,6 +7,7 @@ import org.springframework.context.annotation.Configuration;
 import software.amazon.awssdk.regions.Region;
 
 import java.net.URI;
+import java.nio.file.Paths;
 
 @Configuration
 @ConfigurationProperties(prefix = "aws.s3")
@@ -41,6 +42,114 @@ public class S3ClientConfigurationProperties {
     // define a configuration property for that
     private int multipartMinPartSize = 5*1024*1024;
 
+    // uploads larger than this are sent as a multipart upload of multipartMinPartSize parts
+    private long multipartThreshold = 8*1024*1024;
+
+    // number of parts uploaded at the same time, each in-flight part holds one part in memory
+    private int multipartConcurrency = 4;
+
+    // a failed part is retried with a jittered exponential backoff, only that part is re-sent
+    private int partRetryAttempts = 3;
+    private long partRetryMinBackoffMillis = 200;
+    private long partRetryMaxBackoffMillis = 10000;
+
+    // journal files of resumable uploads, should be on a volume that survives a restart.  An upload that has not
+    // received a part for resumableUploadTtlMinutes is aborted by the sweep that runs every resumableUploadSweepMinutes
+    private String resumableUploadDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "s3-resumable-uploads").toString();
+    private int resumableUploadTtlMinutes = 24 * 60;
+    private int resumableUploadSweepMinutes = 60;
+
+    // photo uploads up to this size are kept in memory for the thumbnail, larger ones and videos go to a spill file
+    private long thumbnailSourceMemoryLimit = 32*1024*1024;
+    private String thumbnailSpillDirectory = System.getProperty("java.io.tmpdir");
+
+    // threads for the blocking thumbnail work and the number of jobs that may wait for a thread.  A job also waits on
+    // url reads and S3 puts, so there are twice as many threads as decode permits and the permits cap the cpu work
+    private int thumbnailPoolSize = 2 * Runtime.getRuntime().availableProcessors();
+    private int thumbnailQueueCapacity = 100;
+
+    // run thumbnail jobs on the platform thread pool above or on virtual threads
+    private ExecutionMode thumbnailExecutionMode = ExecutionMode.PLATFORM;
+    // jobs in flight in virtual thread mode
+    private int thumbnailMaxInFlight = 1000;
+    // concurrent ImageIO and FFmpeg decode/encode stages in either mode, less than thumbnailPoolSize to have an effect
+    private int thumbnailDecodeConcurrency = Runtime.getRuntime().availableProcessors();
+
+    // when true an upload returns the file key once it is stored and the thumbnail is created in the background
+    private boolean thumbnailAsync;
+    private String thumbnailJobDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "s3-thumbnail-jobs").toString();
+    private int thumbnailJobConcurrency = 4;
+    // how long a finished job is kept for the status endpoint
+    private long thumbnailJobRetentionMinutes = 24*60;
+
+    // block size and number of cached blocks for reading a video with range requests
+    private int thumbnailRangeBlockSize = 1024*1024;
+    private int thumbnailRangeCacheBlocks = 16;
+
+    // what is created for a video, an animated gif, a single jpeg poster frame or a short mp4 or webm clip
+    private VideoPreviewFormat videoPreviewFormat = VideoPreviewFormat.GIF;
+    // grab consecutive frames from the start or only keyframes near evenly spaced timestamps
+    private FrameSelection videoFrameSelection = FrameSelection.SEQUENTIAL;
+    // frames in a keyframe preview
+    private int videoPreviewFrameCount = 8;
+
+    // time segments of a keyframe preview grabbed in parallel, each with its own grabber, 1 grabs on the calling thread
+    private int videoSegmentConcurrency = Runtime.getRuntime().availableProcessors();
+
+    // length and bitrate of a mp4 or webm preview clip
+    private int videoPreviewSeconds = 3;
+    private int videoPreviewBitrate = 300_000;
+
+    // scales thumbnails, GRAPHICS2D for progressive bilinear, BOX for area averaging, VECTOR for area averaging with the vector api
+    private Resampler thumbnailResampler = Resampler.GRAPHICS2D;
+
+
+    // thumbnails keyed by a hash of the upload, its size and format, so the same upload is not decoded again
+    private boolean thumbnailCacheEnabled;
+    private long thumbnailCacheMemoryBytes = 32*1024*1024;
+    private String thumbnailCacheDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "s3-thumbnail-cache").toString();
+    private long thumbnailCacheDiskBytes = 512*1024*1024;
+
+
+    // false stores a photo without thumbnails, they are rendered on the first request to the rendition endpoint
+    private boolean eagerThumbnails = true;
+    // largest width or height the rendition endpoint renders
+    private int renditionMaxDimension = 4096;
+
+
+    // presigned urls are reused while at least presignCacheMinRemainingPercent of presignDurationInMinutes is left
+    private int presignCacheMaxSize = 10_000;
+    private int presignCacheMinRemainingPercent = 50;
+
+
+    // keys signed at the same time by a batch presign request and the most keys in one request
+    private int presignParallelism = Runtime.getRuntime().availableProcessors();
+    private int presignBatchMaxKeys = 1000;
+
+
+    // uploads sent straight to the bucket with presigned urls, kept until they are completed, aborted or swept
+    // after directUploadTtlMinutes.  The sweep runs every directUploadSweepMinutes.  Their urls are valid for
+    // directUploadUrlMinutes, long enough to send every part of a large file over a slow link
+    private String directUploadDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "s3-direct-uploads").toString();
+    private int directUploadTtlMinutes = 24 * 60;
+    private int directUploadSweepMinutes = 60;
+    private int directUploadUrlMinutes = 24 * 60;
+
+
+    // DeleteObjects requests of up to 1000 keys sent at the same time when deleting a prefix
+    private int deleteConcurrency = 8;
+
+
+    // background prefix deletes, one at a time, within a budget of list and DeleteObjects requests per second
+    private String deleteJobDirectory = Paths.get(System.getProperty("java.io.tmpdir"), "s3-delete-jobs").toString();
+    private int deleteJobRequestsPerSecond = 20;
+    private int deleteJobRetentionMinutes = 60;
+
+
+    // collect the single deletes sent within the window, up to 1000, into one DeleteObjects request
+    private boolean deleteCoalescing = false;
+    private int deleteCoalescingWindowMillis = 20;
+
     public Region getRegion() {
         if (this.region == null) {
             LOG.info("regionUrl: {}", regionUrl);
@@ -119,6 +228,390 @@ public class S3ClientConfigurationProperties {
         this.multipartMinPartSize = multipartMinPartSize;
     }
 
+    public long getMultipartThreshold() {
+        return multipartThreshold;
+    }
+
+    public void setMultipartThreshold(long multipartThreshold) {
+        this.multipartThreshold = multipartThreshold;
+    }
+
+    public int getMultipartConcurrency() {
+        return multipartConcurrency;
+    }
+
+    public void setMultipartConcurrency(int multipartConcurrency) {
+        this.multipartConcurrency = multipartConcurrency;
+    }
+
+    public int getPartRetryAttempts() {
+        return partRetryAttempts;
+    }
+
+    public void setPartRetryAttempts(int partRetryAttempts) {
+        this.partRetryAttempts = partRetryAttempts;
+    }
+
+    public long getPartRetryMinBackoffMillis() {
+        return partRetryMinBackoffMillis;
+    }
+
+    public void setPartRetryMinBackoffMillis(long partRetryMinBackoffMillis) {
+        this.partRetryMinBackoffMillis = partRetryMinBackoffMillis;
+    }
+
+    public long getPartRetryMaxBackoffMillis() {
+        return partRetryMaxBackoffMillis;
+    }
+
+    public void setPartRetryMaxBackoffMillis(long partRetryMaxBackoffMillis) {
+        this.partRetryMaxBackoffMillis = partRetryMaxBackoffMillis;
+    }
+
+    public String getResumableUploadDirectory() {
+        return resumableUploadDirectory;
+    }
+
+    public void setResumableUploadDirectory(String resumableUploadDirectory) {
+        this.resumableUploadDirectory = resumableUploadDirectory;
+    }
+
+    public int getResumableUploadTtlMinutes() {
+        return resumableUploadTtlMinutes;
+    }
+
+    public void setResumableUploadTtlMinutes(int resumableUploadTtlMinutes) {
+        this.resumableUploadTtlMinutes = resumableUploadTtlMinutes;
+    }
+
+    public int getResumableUploadSweepMinutes() {
+        return resumableUploadSweepMinutes;
+    }
+
+    public void setResumableUploadSweepMinutes(int resumableUploadSweepMinutes) {
+        this.resumableUploadSweepMinutes = resumableUploadSweepMinutes;
+    }
+
+    public long getThumbnailSourceMemoryLimit() {
+        return thumbnailSourceMemoryLimit;
+    }
+
+    public void setThumbnailSourceMemoryLimit(long thumbnailSourceMemoryLimit) {
+        this.thumbnailSourceMemoryLimit = thumbnailSourceMemoryLimit;
+    }
+
+    public String getThumbnailSpillDirectory() {
+        return thumbnailSpillDirectory;
+    }
+
+    public void setThumbnailSpillDirectory(String thumbnailSpillDirectory) {
+        this.thumbnailSpillDirectory = thumbnailSpillDirectory;
+    }
+
+    public int getThumbnailPoolSize() {
+        return thumbnailPoolSize;
+    }
+
+    public void setThumbnailPoolSize(int thumbnailPoolSize) {
+        this.thumbnailPoolSize = thumbnailPoolSize;
+    }
+
+    public int getThumbnailQueueCapacity() {
+        return thumbnailQueueCapacity;
+    }
+
+    public void setThumbnailQueueCapacity(int thumbnailQueueCapacity) {
+        this.thumbnailQueueCapacity = thumbnailQueueCapacity;
+    }
+
+    public ExecutionMode getThumbnailExecutionMode() {
+        return thumbnailExecutionMode;
+    }
+
+    public void setThumbnailExecutionMode(ExecutionMode thumbnailExecutionMode) {
+        this.thumbnailExecutionMode = thumbnailExecutionMode;
+    }
+
+    public int getThumbnailMaxInFlight() {
+        return thumbnailMaxInFlight;
+    }
+
+    public void setThumbnailMaxInFlight(int thumbnailMaxInFlight) {
+        this.thumbnailMaxInFlight = thumbnailMaxInFlight;
+    }
+
+    public int getThumbnailDecodeConcurrency() {
+        return thumbnailDecodeConcurrency;
+    }
+
+    public void setThumbnailDecodeConcurrency(int thumbnailDecodeConcurrency) {
+        this.thumbnailDecodeConcurrency = thumbnailDecodeConcurrency;
+    }
+
+    public boolean isThumbnailAsync() {
+        return thumbnailAsync;
+    }
+
+    public void setThumbnailAsync(boolean thumbnailAsync) {
+        this.thumbnailAsync = thumbnailAsync;
+    }
+
+    public String getThumbnailJobDirectory() {
+        return thumbnailJobDirectory;
+    }
+
+    public void setThumbnailJobDirectory(String thumbnailJobDirectory) {
+        this.thumbnailJobDirectory = thumbnailJobDirectory;
+    }
+
+    public int getThumbnailJobConcurrency() {
+        return thumbnailJobConcurrency;
+    }
+
+    public void setThumbnailJobConcurrency(int thumbnailJobConcurrency) {
+        this.thumbnailJobConcurrency = thumbnailJobConcurrency;
+    }
+
+    public long getThumbnailJobRetentionMinutes() {
+        return thumbnailJobRetentionMinutes;
+    }
+
+    public void setThumbnailJobRetentionMinutes(long thumbnailJobRetentionMinutes) {
+        this.thumbnailJobRetentionMinutes = thumbnailJobRetentionMinutes;
+    }
+
+    public int getThumbnailRangeBlockSize() {
+        return thumbnailRangeBlockSize;
+    }
+
+    public void setThumbnailRangeBlockSize(int thumbnailRangeBlockSize) {
+        this.thumbnailRangeBlockSize = thumbnailRangeBlockSize;
+    }
+
+    public int getThumbnailRangeCacheBlocks() {
+        return thumbnailRangeCacheBlocks;
+    }
+
+    public void setThumbnailRangeCacheBlocks(int thumbnailRangeCacheBlocks) {
+        this.thumbnailRangeCacheBlocks = thumbnailRangeCacheBlocks;
+    }
+
+    public VideoPreviewFormat getVideoPreviewFormat() {
+        return videoPreviewFormat;
+    }
+
+    public void setVideoPreviewFormat(VideoPreviewFormat videoPreviewFormat) {
+        this.videoPreviewFormat = videoPreviewFormat;
+    }
+
+    public FrameSelection getVideoFrameSelection() {
+        return videoFrameSelection;
+    }
+
+    public void setVideoFrameSelection(FrameSelection videoFrameSelection) {
+        this.videoFrameSelection = videoFrameSelection;
+    }
+
+    public int getVideoPreviewFrameCount() {
+        return videoPreviewFrameCount;
+    }
+
+    public void setVideoPreviewFrameCount(int videoPreviewFrameCount) {
+        this.videoPreviewFrameCount = videoPreviewFrameCount;
+    }
+
+    public int getVideoSegmentConcurrency() {
+        return videoSegmentConcurrency;
+    }
+
+    public void setVideoSegmentConcurrency(int videoSegmentConcurrency) {
+        this.videoSegmentConcurrency = videoSegmentConcurrency;
+    }
+
+    public int getVideoPreviewSeconds() {
+        return videoPreviewSeconds;
+    }
+
+    public void setVideoPreviewSeconds(int videoPreviewSeconds) {
+        this.videoPreviewSeconds = videoPreviewSeconds;
+    }
+
+    public int getVideoPreviewBitrate() {
+        return videoPreviewBitrate;
+    }
+
+    public void setVideoPreviewBitrate(int videoPreviewBitrate) {
+        this.videoPreviewBitrate = videoPreviewBitrate;
+    }
+
+    public Resampler getThumbnailResampler() {
+        return thumbnailResampler;
+    }
+
+    public void setThumbnailResampler(Resampler thumbnailResampler) {
+        this.thumbnailResampler = thumbnailResampler;
+    }
+
+    public boolean isThumbnailCacheEnabled() {
+        return thumbnailCacheEnabled;
+    }
+
+    public void setThumbnailCacheEnabled(boolean thumbnailCacheEnabled) {
+        this.thumbnailCacheEnabled = thumbnailCacheEnabled;
+    }
+
+    public long getThumbnailCacheMemoryBytes() {
+        return thumbnailCacheMemoryBytes;
+    }
+
+    public void setThumbnailCacheMemoryBytes(long thumbnailCacheMemoryBytes) {
+        this.thumbnailCacheMemoryBytes = thumbnailCacheMemoryBytes;
+    }
+
+    public String getThumbnailCacheDirectory() {
+        return thumbnailCacheDirectory;
+    }
+
+    public void setThumbnailCacheDirectory(String thumbnailCacheDirectory) {
+        this.thumbnailCacheDirectory = thumbnailCacheDirectory;
+    }
+
+    public long getThumbnailCacheDiskBytes() {
+        return thumbnailCacheDiskBytes;
+    }
+
+    public void setThumbnailCacheDiskBytes(long thumbnailCacheDiskBytes) {
+        this.thumbnailCacheDiskBytes = thumbnailCacheDiskBytes;
+    }
+
+    public boolean isEagerThumbnails() {
+        return eagerThumbnails;
+    }
+
+    public void setEagerThumbnails(boolean eagerThumbnails) {
+        this.eagerThumbnails = eagerThumbnails;
+    }
+
+    public int getRenditionMaxDimension() {
+        return renditionMaxDimension;
+    }
+
+    public void setRenditionMaxDimension(int renditionMaxDimension) {
+        this.renditionMaxDimension = renditionMaxDimension;
+    }
+
+    public int getPresignCacheMaxSize() {
+        return presignCacheMaxSize;
+    }
+
+    public void setPresignCacheMaxSize(int presignCacheMaxSize) {
+        this.presignCacheMaxSize = presignCacheMaxSize;
+    }
+
+    public int getPresignCacheMinRemainingPercent() {
+        return presignCacheMinRemainingPercent;
+    }
+
+    public void setPresignCacheMinRemainingPercent(int presignCacheMinRemainingPercent) {
+        this.presignCacheMinRemainingPercent = presignCacheMinRemainingPercent;
+    }
+
+    public int getPresignParallelism() {
+        return presignParallelism;
+    }
+
+    public void setPresignParallelism(int presignParallelism) {
+        this.presignParallelism = presignParallelism;
+    }
+
+    public int getPresignBatchMaxKeys() {
+        return presignBatchMaxKeys;
+    }
+
+    public void setPresignBatchMaxKeys(int presignBatchMaxKeys) {
+        this.presignBatchMaxKeys = presignBatchMaxKeys;
+    }
+
+    public String getDirectUploadDirectory() {
+        return directUploadDirectory;
+    }
+
+    public void setDirectUploadDirectory(String directUploadDirectory) {
+        this.directUploadDirectory = directUploadDirectory;
+    }
+
+    public int getDirectUploadTtlMinutes() {
+        return directUploadTtlMinutes;
+    }
+
+    public void setDirectUploadTtlMinutes(int directUploadTtlMinutes) {
+        this.directUploadTtlMinutes = directUploadTtlMinutes;
+    }
+
+    public int getDirectUploadSweepMinutes() {
+        return directUploadSweepMinutes;
+    }
+
+    public void setDirectUploadSweepMinutes(int directUploadSweepMinutes) {
+        this.directUploadSweepMinutes = directUploadSweepMinutes;
+    }
+
+    public int getDirectUploadUrlMinutes() {
+        return directUploadUrlMinutes;
+    }
+
+    public void setDirectUploadUrlMinutes(int directUploadUrlMinutes) {
+        this.directUploadUrlMinutes = directUploadUrlMinutes;
+    }
+
+    public int getDeleteConcurrency() {
+        return deleteConcurrency;
+    }
+
+    public void setDeleteConcurrency(int deleteConcurrency) {
+        this.deleteConcurrency = deleteConcurrency;
+    }
+
+    public String getDeleteJobDirectory() {
+        return deleteJobDirectory;
+    }
+
+    public void setDeleteJobDirectory(String deleteJobDirectory) {
+        this.deleteJobDirectory = deleteJobDirectory;
+    }
+
+    public int getDeleteJobRequestsPerSecond() {
+        return deleteJobRequestsPerSecond;
+    }
+
+    public void setDeleteJobRequestsPerSecond(int deleteJobRequestsPerSecond) {
+        this.deleteJobRequestsPerSecond = deleteJobRequestsPerSecond;
+    }
+
+    public int getDeleteJobRetentionMinutes() {
+        return deleteJobRetentionMinutes;
+    }
+
+    public void setDeleteJobRetentionMinutes(int deleteJobRetentionMinutes) {
+        this.deleteJobRetentionMinutes = deleteJobRetentionMinutes;
+    }
+
+    public boolean isDeleteCoalescing() {
+        return deleteCoalescing;
+    }
+
+    public void setDeleteCoalescing(boolean deleteCoalescing) {
+        this.deleteCoalescing = deleteCoalescing;
+    }
+
+    public int getDeleteCoalescingWindowMillis() {
+        return deleteCoalescingWindowMillis;
+    }
+
+    public void setDeleteCoalescingWindowMillis(int deleteCoalescingWindowMillis) {
+        this.deleteCoalescingWindowMillis = deleteCoalescingWindowMillis;
+    }
+
     public String getFileAclHeader() {
         return fileAclHeader;
     }
@@ -195,6 +688,20 @@ public class S3ClientConfigurationProperties {
             this.height = height;
         }
     }
-}
 
+    public enum ExecutionMode {
+        PLATFORM, VIRTUAL
+    }
+
+    public enum VideoPreviewFormat {
+        GIF, POSTER, MP4, WEBM
+    }
 
+    public enum FrameSelection {
+        SEQUENTIAL, KEYFRAME
+    }
+
+    public enum Resampler {
+        GRAPHICS2D, BOX, VECTOR
+    }
+}
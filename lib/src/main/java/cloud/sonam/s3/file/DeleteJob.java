@@ -0,0 +1,114 @@
+package cloud.sonam.s3.file;
+
+import java.time.Instant;
+import java.util.Properties;
+
+/**
+ * A background delete of every object under a prefix.  The job is stored as a properties file by the
+ * {@link DeleteJobQueue} after every batch, so an unfinished job resumes after the last deleted key on restart.
+ */
+public class DeleteJob {
+    public enum State {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    private final String jobId;
+    private final String prefix;
+
+    private volatile State state = State.PENDING;
+    private volatile String lastKey;
+    private volatile long deleted;
+    private volatile long failed;
+    private volatile String error;
+    private volatile Instant updated = Instant.now();
+
+    public DeleteJob(String jobId, String prefix) {
+        this.jobId = jobId;
+        this.prefix = prefix;
+    }
+
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("jobId", jobId);
+        properties.setProperty("prefix", prefix);
+        properties.setProperty("state", state.name());
+        properties.setProperty("deleted", String.valueOf(deleted));
+        properties.setProperty("failed", String.valueOf(failed));
+        properties.setProperty("updated", updated.toString());
+        if (lastKey != null) {
+            properties.setProperty("lastKey", lastKey);
+        }
+        if (error != null) {
+            properties.setProperty("error", error);
+        }
+        return properties;
+    }
+
+    public static DeleteJob fromProperties(Properties properties) {
+        DeleteJob deleteJob = new DeleteJob(properties.getProperty("jobId"), properties.getProperty("prefix"));
+        deleteJob.state = State.valueOf(properties.getProperty("state"));
+        deleteJob.deleted = Long.parseLong(properties.getProperty("deleted"));
+        deleteJob.failed = Long.parseLong(properties.getProperty("failed"));
+        deleteJob.lastKey = properties.getProperty("lastKey");
+        deleteJob.error = properties.getProperty("error");
+        deleteJob.updated = Instant.parse(properties.getProperty("updated"));
+        return deleteJob;
+    }
+
+    public Status getStatus() {
+        return new Status(jobId, prefix, state, deleted, failed, lastKey, error);
+    }
+
+    void running() {
+        state = State.RUNNING;
+        updated = Instant.now();
+    }
+
+    /**
+     * the batches are applied in key order, so lastKey is always after every key the job has deleted.
+     */
+    void batchDone(S3BatchDeleter.Batch batch) {
+        deleted += batch.deleted();
+        failed += batch.failed();
+        lastKey = batch.lastKey();
+        updated = Instant.now();
+    }
+
+    void done() {
+        state = State.DONE;
+        updated = Instant.now();
+    }
+
+    void failed(String error) {
+        this.error = error;
+        state = State.FAILED;
+        updated = Instant.now();
+    }
+
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public String getLastKey() {
+        return lastKey;
+    }
+
+    public Instant getUpdated() {
+        return updated;
+    }
+
+    /**
+     * what the progress endpoint returns, deleted and failed are the objects handled so far.
+     */
+    public record Status(String jobId, String prefix, State state, long deleted, long failed, String lastKey,
+                         String error) {
+    }
+}
@@ -0,0 +1,201 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Deletes prefixes in the background so deleteByPrefix can answer with a job id at once.
+ * The jobs run one at a time within {@link S3ClientConfigurationProperties#getDeleteJobRequestsPerSecond()} so a
+ * large delete leaves request quota for the uploads.  Each job is written to a properties file in deleteJobDirectory
+ * after every batch and an unfinished job continues after its last deleted key on startup.
+ */
+@Component
+public class DeleteJobQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(DeleteJobQueue.class);
+
+    private final S3BatchDeleter s3BatchDeleter;
+
+    private final S3ClientConfigurationProperties s3config;
+
+    // jobs by jobId for the progress endpoint
+    private final Map<String, DeleteJob> jobs = new ConcurrentHashMap<>();
+
+    private final Sinks.Many<DeleteJob> queue = Sinks.many().unicast().onBackpressureBuffer();
+
+    private Disposable worker;
+
+    public DeleteJobQueue(S3BatchDeleter s3BatchDeleter, S3ClientConfigurationProperties s3config) {
+        this.s3BatchDeleter = s3BatchDeleter;
+        this.s3config = s3config;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        worker = queue.asFlux()
+                .concatMap(this::process)
+                .subscribe();
+
+        Path directory = getDirectory();
+        Files.createDirectories(directory);
+        final Instant expired = Instant.now().minus(Duration.ofMinutes(s3config.getDeleteJobRetentionMinutes()));
+
+        try (DirectoryStream<Path> jobFiles = Files.newDirectoryStream(directory, "*.job")) {
+            for (Path jobFile : jobFiles) {
+                try (InputStream inputStream = Files.newInputStream(jobFile)) {
+                    Properties properties = new Properties();
+                    properties.load(inputStream);
+                    DeleteJob deleteJob = DeleteJob.fromProperties(properties);
+
+                    if (deleteJob.isFinished()) {
+                        if (deleteJob.getUpdated().isBefore(expired)) {
+                            Files.deleteIfExists(jobFile);
+                        }
+                        else {
+                            jobs.put(deleteJob.getJobId(), deleteJob);
+                        }
+                    }
+                    else {
+                        LOG.info("resume delete job: {} for prefix: {} after key: {}", deleteJob.getJobId(),
+                                deleteJob.getPrefix(), deleteJob.getLastKey());
+                        jobs.put(deleteJob.getJobId(), deleteJob);
+                        emit(deleteJob);
+                    }
+                }
+                catch (IOException | RuntimeException e) {
+                    LOG.error("failed to load delete job {}", jobFile, e);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (worker != null) {
+            worker.dispose();
+        }
+    }
+
+    public Mono<DeleteJob.Status> enqueue(String prefix) {
+        return Mono.fromCallable(() -> {
+                    removeExpiredJobs();
+                    DeleteJob deleteJob = new DeleteJob(UUID.randomUUID().toString(), prefix);
+                    save(deleteJob);
+                    jobs.put(deleteJob.getJobId(), deleteJob);
+                    emit(deleteJob);
+                    LOG.info("queued delete job: {} for prefix: {}", deleteJob.getJobId(), prefix);
+                    return deleteJob.getStatus();
+                })
+                .subscribeOn(Schedulers.boundedElastic());
+    }
+
+    public Mono<DeleteJob.Status> getStatus(String jobId) {
+        DeleteJob deleteJob = jobs.get(jobId);
+        if (deleteJob == null) {
+            return Mono.error(new IllegalArgumentException("no delete job found with id: " + jobId));
+        }
+        return Mono.just(deleteJob.getStatus());
+    }
+
+    private Mono<Void> process(DeleteJob deleteJob) {
+        return Mono.fromCallable(() -> {
+                    deleteJob.running();
+                    save(deleteJob);
+                    return deleteJob;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(job -> s3BatchDeleter.deleteBatches(job.getPrefix(), job.getLastKey(),
+                        s3config.getDeleteJobRequestsPerSecond()))
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(batch -> {
+                    deleteJob.batchDone(batch);
+                    saveQuietly(deleteJob);
+                })
+                .then(Mono.fromRunnable(() -> {
+                    LOG.info("delete job: {} done for prefix: {}, deleted: {}, failed: {}", deleteJob.getJobId(),
+                            deleteJob.getPrefix(), deleteJob.getStatus().deleted(), deleteJob.getStatus().failed());
+                    deleteJob.done();
+                    saveQuietly(deleteJob);
+                }))
+                .onErrorResume(throwable -> {
+                    LOG.error("delete job: {} failed for prefix: {}", deleteJob.getJobId(), deleteJob.getPrefix(), throwable);
+                    deleteJob.failed(throwable.getMessage());
+                    saveQuietly(deleteJob);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private void emit(DeleteJob deleteJob) {
+        queue.emitNext(deleteJob, Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+    }
+
+    private void removeExpiredJobs() {
+        final Instant expired = Instant.now().minus(Duration.ofMinutes(s3config.getDeleteJobRetentionMinutes()));
+
+        jobs.values().removeIf(deleteJob -> {
+            if (deleteJob.isFinished() && deleteJob.getUpdated().isBefore(expired)) {
+                try {
+                    Files.deleteIfExists(getJobFile(deleteJob));
+                }
+                catch (IOException e) {
+                    LOG.error("failed to delete the file of delete job: {}", deleteJob.getJobId(), e);
+                }
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void saveQuietly(DeleteJob deleteJob) {
+        try {
+            save(deleteJob);
+        }
+        catch (IOException e) {
+            LOG.error("failed to save delete job: {}", deleteJob.getJobId(), e);
+        }
+    }
+
+    /**
+     * write to a temporary file first so a crash never leaves a half written job file.
+     */
+    private void save(DeleteJob deleteJob) throws IOException {
+        Path jobFile = getJobFile(deleteJob);
+        Path temporaryFile = jobFile.resolveSibling(jobFile.getFileName() + ".tmp");
+
+        try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+            deleteJob.toProperties().store(outputStream, null);
+        }
+        Files.move(temporaryFile, jobFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path getJobFile(DeleteJob deleteJob) {
+        return getDirectory().resolve(deleteJob.getJobId() + ".job");
+    }
+
+    private Path getDirectory() {
+        return Paths.get(s3config.getDeleteJobDirectory());
+    }
+}
@@ -0,0 +1,102 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import software.amazon.awssdk.services.s3.model.S3Error;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Coalesces single key deletes into DeleteObjects requests.  The deletes sent within
+ * {@link S3ClientConfigurationProperties#getDeleteCoalescingWindowMillis()}, or the first 1000 of them, go out as one
+ * request and each caller gets the result for its own key.  Used by deleteObject when deleteCoalescing is enabled.
+ */
+@Component
+public class DeleteObjectBatcher {
+    private static final Logger LOG = LoggerFactory.getLogger(DeleteObjectBatcher.class);
+
+    private final S3BatchDeleter s3BatchDeleter;
+
+    private final S3ClientConfigurationProperties s3config;
+
+    private final Sinks.Many<PendingDelete> queue = Sinks.many().unicast().onBackpressureBuffer();
+
+    private Disposable worker;
+
+    public DeleteObjectBatcher(S3BatchDeleter s3BatchDeleter, S3ClientConfigurationProperties s3config) {
+        this.s3BatchDeleter = s3BatchDeleter;
+        this.s3config = s3config;
+    }
+
+    @PostConstruct
+    public void start() {
+        worker = queue.asFlux()
+                // fair backpressure holds a full window back while deleteConcurrency requests are in flight
+                .bufferTimeout(S3BatchDeleter.MAX_BATCH_KEYS, Duration.ofMillis(s3config.getDeleteCoalescingWindowMillis()),
+                        true)
+                .flatMap(this::delete, s3config.getDeleteConcurrency())
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (worker != null) {
+            worker.dispose();
+        }
+    }
+
+    /**
+     * @return the key once it is deleted, or the failure message S3 gave for the key like deleteObject
+     */
+    public Mono<String> delete(String key) {
+        return Mono.defer(() -> {
+            PendingDelete pendingDelete = new PendingDelete(key, Sinks.one());
+            queue.emitNext(pendingDelete, Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+            return pendingDelete.result().asMono();
+        });
+    }
+
+    private Mono<Void> delete(List<PendingDelete> pendingDeletes) {
+        // the same key sent twice in a window is deleted once and both callers get its result
+        List<String> keys = pendingDeletes.stream().map(PendingDelete::key).distinct().toList();
+        LOG.debug("coalesced {} deletes into one request of {} keys", pendingDeletes.size(), keys.size());
+
+        return s3BatchDeleter.deleteObjects(keys)
+                .doOnNext(response -> {
+                    Map<String, S3Error> errors = response.errors().stream()
+                            .collect(Collectors.toMap(S3Error::key, Function.identity(), (first, second) -> first));
+
+                    for (PendingDelete pendingDelete : pendingDeletes) {
+                        S3Error error = errors.get(pendingDelete.key());
+                        if (error != null) {
+                            LOG.error("failed to delete object with key: {}, code: {}, message: {}", pendingDelete.key(),
+                                    error.code(), error.message());
+                            pendingDelete.result().tryEmitValue("Failed to delete object with key: " + pendingDelete.key());
+                        }
+                        else {
+                            pendingDelete.result().tryEmitValue(pendingDelete.key());
+                        }
+                    }
+                })
+                .doOnError(throwable -> {
+                    LOG.error("failed to delete {} coalesced keys", keys.size(), throwable);
+                    pendingDeletes.forEach(pendingDelete -> pendingDelete.result().tryEmitError(throwable));
+                })
+                .onErrorResume(throwable -> Mono.empty())
+                .then();
+    }
+
+    private record PendingDelete(String key, Sinks.One<String> result) {
+    }
+}
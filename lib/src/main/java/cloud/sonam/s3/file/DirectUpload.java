@@ -0,0 +1,52 @@
+package cloud.sonam.s3.file;
+
+import org.springframework.http.MediaType;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+
+import java.awt.Dimension;
+import java.time.LocalDateTime;
+import java.util.Properties;
+
+/**
+ * An upload that the client sends straight to the bucket with presigned urls.  It is stored as a properties
+ * file by the {@link DirectUploadService} until it is completed.
+ * @param s3UploadId the multipart upload id, null for an upload with a single presigned put
+ */
+public record DirectUpload(String uploadId, String s3UploadId, String fileKey, String uploadType, String prefixPath,
+                           String fileName, MediaType mediaType, ObjectCannedACL acl, Dimension thumbnail,
+                           LocalDateTime localDateTime, int partCount) {
+
+    public boolean isMultipart() {
+        return s3UploadId != null;
+    }
+
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("uploadId", uploadId);
+        if (s3UploadId != null) {
+            properties.setProperty("s3UploadId", s3UploadId);
+        }
+        properties.setProperty("fileKey", fileKey);
+        properties.setProperty("uploadType", uploadType);
+        properties.setProperty("prefixPath", prefixPath);
+        properties.setProperty("fileName", fileName);
+        properties.setProperty("mediaType", mediaType.toString());
+        properties.setProperty("acl", acl.toString());
+        properties.setProperty("width", String.valueOf(thumbnail.width));
+        properties.setProperty("height", String.valueOf(thumbnail.height));
+        properties.setProperty("localDateTime", localDateTime.toString());
+        properties.setProperty("partCount", String.valueOf(partCount));
+        return properties;
+    }
+
+    public static DirectUpload fromProperties(Properties properties) {
+        return new DirectUpload(properties.getProperty("uploadId"), properties.getProperty("s3UploadId"),
+                properties.getProperty("fileKey"), properties.getProperty("uploadType"),
+                properties.getProperty("prefixPath"), properties.getProperty("fileName"),
+                MediaType.valueOf(properties.getProperty("mediaType")),
+                ObjectCannedACL.fromValue(properties.getProperty("acl")),
+                new Dimension(Integer.parseInt(properties.getProperty("width")), Integer.parseInt(properties.getProperty("height"))),
+                LocalDateTime.parse(properties.getProperty("localDateTime")),
+                Integer.parseInt(properties.getProperty("partCount")));
+    }
+}
@@ -0,0 +1,384 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.util.ImageUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.HeadObjectRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedPutObjectRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedUploadPartRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PutObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.UploadPartPresignRequest;
+
+import java.awt.*;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.URL;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Uploads that the client sends straight to the bucket with presigned urls, so the bytes do not pass through
+ * this service.  An upload up to multipartThreshold is a single presigned put, a larger one is a multipart upload
+ * with a presigned url for each part.  Completing the upload finishes the multipart upload and queues the thumbnail,
+ * which reads the stored object.  The upload is kept as a properties file in directUploadDirectory, a local
+ * directory, so the instance that started the upload has to complete it unless all instances share the directory.
+ * An upload that is neither completed nor aborted is swept after directUploadTtlMinutes.
+ */
+@Service
+public class DirectUploadService {
+    private static final Logger LOG = LoggerFactory.getLogger(DirectUploadService.class);
+
+    // S3 allows at most 10000 parts for a multipart upload
+    private static final int MAX_PARTS = 10000;
+
+    private static final String SUFFIX = ".direct";
+
+    private final S3ClientConfigurationProperties s3config;
+
+    private final S3AsyncClient s3client;
+
+    private final S3Presigner s3Presigner;
+
+    private final S3MultipartUploader s3MultipartUploader;
+
+    private final ThumbnailJobQueue thumbnailJobQueue;
+
+    private Disposable sweeper;
+
+    public DirectUploadService(S3ClientConfigurationProperties s3config, S3AsyncClient s3client, S3Presigner s3Presigner,
+                               S3MultipartUploader s3MultipartUploader, ThumbnailJobQueue thumbnailJobQueue) {
+        this.s3config = s3config;
+        this.s3client = s3client;
+        this.s3Presigner = s3Presigner;
+        this.s3MultipartUploader = s3MultipartUploader;
+        this.thumbnailJobQueue = thumbnailJobQueue;
+    }
+
+    @PostConstruct
+    public void start() {
+        final Duration interval = Duration.ofMinutes(s3config.getDirectUploadSweepMinutes());
+        sweeper = Flux.interval(interval, interval, Schedulers.boundedElastic())
+                // skip a tick while the previous sweep is still running
+                .onBackpressureDrop()
+                .concatMap(tick -> sweep(), 1)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sweeper != null) {
+            sweeper.dispose();
+        }
+    }
+
+    /**
+     * @return the presigned put, or a presigned url for each part of a multipart upload
+     */
+    public Mono<PresignedUpload> start(String uploadType, String prefixPath, String fileName, MediaType mediaType,
+                                       long contentLength, ObjectCannedACL acl, Dimension thumbnail) {
+        if (contentLength <= 0) {
+            return Mono.error(new IllegalArgumentException("contentLength is required for a direct upload"));
+        }
+        final LocalDateTime localDateTime = LocalDateTime.now();
+        final String fileKey = ImageUtil.getFileKey(prefixPath, fileName, mediaType, localDateTime);
+        final String uploadId = UUID.randomUUID().toString();
+
+        if (contentLength <= s3config.getMultipartThreshold()) {
+            LOG.info("start direct upload: {} with a presigned put for fileKey: {}", uploadId, fileKey);
+
+            return Mono.fromCallable(() -> {
+                PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                        .bucket(s3config.getBucket())
+                        .key(fileKey)
+                        .contentType(mediaType.toString())
+                        .contentLength(contentLength)
+                        .acl(acl)
+                        .build();
+                PresignedPutObjectRequest presignedPutObjectRequest = s3Presigner.presignPutObject(PutObjectPresignRequest.builder()
+                        .signatureDuration(getSignatureDuration())
+                        .putObjectRequest(putObjectRequest)
+                        .build());
+
+                save(new DirectUpload(uploadId, null, fileKey, uploadType, prefixPath, fileName, mediaType, acl,
+                        thumbnail, localDateTime, 1));
+                return new PresignedUpload(uploadId, fileKey,
+                        List.of(new PresignedPart(1, 0, contentLength, presignedPutObjectRequest.url())),
+                        getHeaders(presignedPutObjectRequest.signedHeaders()));
+            }).subscribeOn(Schedulers.boundedElastic());
+        }
+
+        final long partSize = Math.max(s3config.getMultipartMinPartSize(), (contentLength + MAX_PARTS - 1) / MAX_PARTS);
+        final int partCount = (int) ((contentLength + partSize - 1) / partSize);
+        LOG.info("start direct upload: {} with {} presigned parts of {} bytes for fileKey: {}", uploadId, partCount,
+                partSize, fileKey);
+
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("Content-Length", "" + contentLength);
+        metadata.put("Content-Type", mediaType.toString());
+        metadata.put("x-amz-acl", acl.toString());
+
+        return s3MultipartUploader.createMultipartUpload(fileKey, mediaType, acl, metadata)
+                .publishOn(Schedulers.boundedElastic())
+                .map(s3UploadId -> {
+                    List<PresignedPart> parts = new ArrayList<>();
+                    for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                        final long offset = (partNumber - 1) * partSize;
+                        final long length = Math.min(partSize, contentLength - offset);
+
+                        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                                .bucket(s3config.getBucket())
+                                .key(fileKey)
+                                .uploadId(s3UploadId)
+                                .partNumber(partNumber)
+                                .contentLength(length)
+                                .build();
+                        PresignedUploadPartRequest presignedUploadPartRequest = s3Presigner.presignUploadPart(
+                                UploadPartPresignRequest.builder()
+                                        .signatureDuration(getSignatureDuration())
+                                        .uploadPartRequest(uploadPartRequest)
+                                        .build());
+                        parts.add(new PresignedPart(partNumber, offset, length, presignedUploadPartRequest.url()));
+                    }
+                    save(new DirectUpload(uploadId, s3UploadId, fileKey, uploadType, prefixPath, fileName, mediaType,
+                            acl, thumbnail, localDateTime, partCount));
+                    return new PresignedUpload(uploadId, fileKey, parts, Map.of());
+                });
+    }
+
+    /**
+     * finish the upload once the client has sent every part and queue its thumbnail.
+     * @return the fileKey of the stored object
+     */
+    public Mono<String> complete(String uploadId) {
+        return load(uploadId).flatMap(directUpload -> {
+            Mono<String> stored = directUpload.isMultipart()
+                    ? listParts(directUpload).flatMap(completedParts -> {
+                        if (completedParts.size() != directUpload.partCount()) {
+                            return Mono.error(new IllegalStateException("upload " + uploadId + " has " + completedParts.size()
+                                    + " of " + directUpload.partCount() + " parts"));
+                        }
+                        return s3MultipartUploader.completeMultipartUpload(directUpload.fileKey(), directUpload.s3UploadId(),
+                                completedParts);
+                    })
+                    : Mono.fromFuture(() -> s3client.headObject(HeadObjectRequest.builder()
+                                    .bucket(s3config.getBucket()).key(directUpload.fileKey()).build()))
+                            .onErrorMap(NoSuchKeyException.class, e -> new IllegalStateException("upload " + uploadId
+                                    + " was not sent to the presigned url"))
+                            .thenReturn(directUpload.fileKey());
+
+            return stored
+                    .doOnNext(fileKey -> LOG.info("direct upload: {} stored as fileKey: {}", uploadId, fileKey))
+                    .flatMap(fileKey -> queueThumbnail(directUpload).thenReturn(fileKey))
+                    .publishOn(Schedulers.boundedElastic())
+                    .doOnNext(fileKey -> delete(uploadId));
+        });
+    }
+
+    /**
+     * drop an upload that will not be completed, a multipart upload is aborted so S3 drops the parts it received.
+     * The presigned put of a single part upload can still be sent until the url expires.
+     * @return the fileKey of the upload
+     */
+    public Mono<String> abort(String uploadId) {
+        return load(uploadId).flatMap(this::abort);
+    }
+
+    private Mono<String> abort(DirectUpload directUpload) {
+        Mono<Void> aborted = directUpload.isMultipart()
+                ? s3MultipartUploader.abortMultipartUpload(directUpload.fileKey(), directUpload.s3UploadId())
+                : Mono.empty();
+
+        return aborted
+                .publishOn(Schedulers.boundedElastic())
+                .then(Mono.fromCallable(() -> {
+                    delete(directUpload.uploadId());
+                    LOG.info("aborted direct upload: {} for fileKey: {}", directUpload.uploadId(), directUpload.fileKey());
+                    return directUpload.fileKey();
+                }));
+    }
+
+    /**
+     * abort the uploads started more than directUploadTtlMinutes ago.
+     * @return the number of uploads swept
+     */
+    public Mono<Long> sweep() {
+        final LocalDateTime expired = LocalDateTime.now().minusMinutes(s3config.getDirectUploadTtlMinutes());
+
+        return Mono.fromCallable(this::getUploadIds)
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapIterable(uploadIds -> uploadIds)
+                .concatMap(uploadId -> load(uploadId)
+                        .filter(directUpload -> directUpload.localDateTime().isBefore(expired))
+                        .doOnNext(directUpload -> LOG.info("sweep direct upload: {} started at {}", uploadId,
+                                directUpload.localDateTime()))
+                        .flatMap(this::abort)
+                        .onErrorResume(throwable -> {
+                            LOG.error("failed to sweep direct upload: {}", uploadId, throwable);
+                            return Mono.empty();
+                        }))
+                .count()
+                .onErrorResume(throwable -> {
+                    LOG.error("failed to sweep direct uploads", throwable);
+                    return Mono.just(0L);
+                });
+    }
+
+    private List<String> getUploadIds() throws IOException {
+        Path directory = Paths.get(s3config.getDirectUploadDirectory());
+        List<String> uploadIds = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return uploadIds;
+        }
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : directoryStream) {
+                final String fileName = file.getFileName().toString();
+                uploadIds.add(fileName.substring(0, fileName.length() - SUFFIX.length()));
+            }
+        }
+        return uploadIds;
+    }
+
+    private Mono<Void> queueThumbnail(DirectUpload directUpload) {
+        final boolean video = directUpload.uploadType().equalsIgnoreCase("video");
+        final boolean photo = directUpload.uploadType().equalsIgnoreCase("photo");
+
+        if (!video && !(photo && s3config.isEagerThumbnails())) {
+            return Mono.empty();
+        }
+        // the thumbnail job reads the stored object with a presigned url as there is no local copy
+        return thumbnailJobQueue.enqueue(new ThumbnailJob(UUID.randomUUID().toString(), directUpload.fileKey(),
+                directUpload.uploadType(), directUpload.prefixPath(), directUpload.fileName(), directUpload.mediaType(),
+                directUpload.acl(), directUpload.thumbnail(), directUpload.localDateTime()), null).then();
+    }
+
+    /**
+     * the parts S3 received, a page holds at most 1000 parts.
+     */
+    private Mono<List<CompletedPart>> listParts(DirectUpload directUpload) {
+        return listParts(directUpload, null)
+                .expand(response -> Boolean.TRUE.equals(response.isTruncated())
+                        ? listParts(directUpload, response.nextPartNumberMarker()) : Mono.empty())
+                .flatMapIterable(ListPartsResponse::parts)
+                .map(part -> CompletedPart.builder().partNumber(part.partNumber()).eTag(part.eTag()).build())
+                .collectList();
+    }
+
+    private Mono<ListPartsResponse> listParts(DirectUpload directUpload, Integer partNumberMarker) {
+        return Mono.fromFuture(() -> s3client.listParts(ListPartsRequest.builder()
+                .bucket(s3config.getBucket())
+                .key(directUpload.fileKey())
+                .uploadId(directUpload.s3UploadId())
+                .partNumberMarker(partNumberMarker)
+                .build()));
+    }
+
+    /**
+     * every part url is signed when the upload starts, so they are valid for directUploadUrlMinutes instead of
+     * presignDurationInMinutes for the last part of a large upload to be sent in time.
+     */
+    private Duration getSignatureDuration() {
+        return Duration.ofMinutes(s3config.getDirectUploadUrlMinutes());
+    }
+
+    /**
+     * the signed headers the client has to send with the put, the host header is set by the client itself.
+     */
+    private Map<String, String> getHeaders(Map<String, List<String>> signedHeaders) {
+        Map<String, String> headers = new HashMap<>();
+        signedHeaders.forEach((name, values) -> {
+            if (!name.equalsIgnoreCase("host")) {
+                headers.put(name, String.join(",", values));
+            }
+        });
+        return headers;
+    }
+
+    /**
+     * write to a temporary file first so a crash never leaves a half written upload file.
+     */
+    private void save(DirectUpload directUpload) {
+        try {
+            Path file = getFile(directUpload.uploadId());
+            Files.createDirectories(file.getParent());
+            Path temporaryFile = file.resolveSibling(file.getFileName() + ".tmp");
+
+            try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+                directUpload.toProperties().store(outputStream, null);
+            }
+            Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("failed to save direct upload", e);
+        }
+    }
+
+    private Mono<DirectUpload> load(String uploadId) {
+        return Mono.fromCallable(() -> {
+            Path file = getFile(uploadId);
+            if (!Files.exists(file)) {
+                throw new IllegalArgumentException("no direct upload found with id: " + uploadId);
+            }
+            try (InputStream inputStream = Files.newInputStream(file)) {
+                Properties properties = new Properties();
+                properties.load(inputStream);
+                return DirectUpload.fromProperties(properties);
+            }
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private void delete(String uploadId) {
+        try {
+            Files.deleteIfExists(getFile(uploadId));
+        }
+        catch (IOException e) {
+            LOG.error("failed to delete direct upload: {}", uploadId, e);
+        }
+    }
+
+    private Path getFile(String uploadId) {
+        // only accept our own ids so a request can't point outside of the upload directory
+        UUID uuid = UUID.fromString(uploadId);
+        return Paths.get(s3config.getDirectUploadDirectory()).resolve(uuid + SUFFIX);
+    }
+
+    /**
+     * what the client needs to send the upload, each part is sent with a put of its byte range to its url.
+     * @param headers to send with a single presigned put
+     */
+    public record PresignedUpload(String uploadId, String fileKey, List<PresignedPart> parts, Map<String, String> headers) {
+    }
+
+    public record PresignedPart(int partNumber, long offset, long length, URL url) {
+    }
+}
@@ -1,8 +1,12 @@
 package cloud.sonam.s3.file;
 
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
 import cloud.sonam.s3.file.util.ImageUtil;
-import com.madgag.gif.fmsware.AnimatedGifEncoder;
+import cloud.sonam.s3.file.util.RangeInputStream;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
 import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
 import org.bytedeco.javacv.Frame;
 import org.bytedeco.javacv.Java2DFrameConverter;
 import org.slf4j.Logger;
@@ -11,41 +15,334 @@ import org.springframework.http.MediaType;
 import org.springframework.stereotype.Service;
 import reactor.core.publisher.Mono;
 
+import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
 import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
+import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.Callable;
 
 @Service
 public class GifThumbnail implements Thumbnail {
     private static final Logger LOG = LoggerFactory.getLogger(GifThumbnail.class);
 
+    private final ThumbnailExecutor thumbnailExecutor;
+
+    private final S3ClientConfigurationProperties s3config;
+
+    public GifThumbnail(ThumbnailExecutor thumbnailExecutor, S3ClientConfigurationProperties s3config) {
+        this.thumbnailExecutor = thumbnailExecutor;
+        this.s3config = s3config;
+    }
+
     @Override
     public Mono<ByteArrayOutputStream> getByteArrayOutputStream(URL presignedUrl, Dimension dimension, MediaType mediaType) {
-        try {
-            LOG.info("open pre-signed url stream");
-            InputStream inputStream = presignedUrl.openStream();
+        return grab(() -> openFrameGrabber(presignedUrl), (frameGrabber, frameGrabberCallable, outputStream) ->
+                        writeGif(frameGrabber, frameGrabberCallable, outputStream, dimension))
+                .doOnNext(byteArrayOutputStream -> LOG.info("returning byteArrayOutputStream for gif"));
+    }
+
+    @Override
+    public Mono<ByteArrayOutputStream> getByteArrayOutputStream(ThumbnailSource thumbnailSource, Dimension dimension, MediaType mediaType) {
+        return grab(() -> openFrameGrabber(thumbnailSource), (frameGrabber, frameGrabberCallable, outputStream) ->
+                        writeGif(frameGrabber, frameGrabberCallable, outputStream, dimension))
+                .doOnNext(byteArrayOutputStream -> LOG.info("returning byteArrayOutputStream for gif"));
+    }
+
+    /**
+     * a single jpeg poster frame from the keyframe nearest to the middle of the video.
+     */
+    public Mono<ByteArrayOutputStream> getPoster(URL presignedUrl, Dimension dimension) {
+        return grab(() -> openFrameGrabber(presignedUrl), (frameGrabber, frameGrabberCallable, outputStream) ->
+                writePoster(frameGrabber, outputStream, dimension));
+    }
+
+    public Mono<ByteArrayOutputStream> getPoster(ThumbnailSource thumbnailSource, Dimension dimension) {
+        return grab(() -> openFrameGrabber(thumbnailSource), (frameGrabber, frameGrabberCallable, outputStream) ->
+                writePoster(frameGrabber, outputStream, dimension));
+    }
+
+    /**
+     * a short low bitrate clip of videoPreviewSeconds from a fifth into the video.
+     * @param previewFormat MP4 for H.264 or WEBM for VP9
+     */
+    public Mono<ByteArrayOutputStream> getClip(URL presignedUrl, Dimension dimension,
+                                               S3ClientConfigurationProperties.VideoPreviewFormat previewFormat) {
+        return grab(() -> openFrameGrabber(presignedUrl), (frameGrabber, frameGrabberCallable, outputStream) ->
+                writeClip(frameGrabber, outputStream, dimension, previewFormat));
+    }
+
+    public Mono<ByteArrayOutputStream> getClip(ThumbnailSource thumbnailSource, Dimension dimension,
+                                               S3ClientConfigurationProperties.VideoPreviewFormat previewFormat) {
+        return grab(() -> openFrameGrabber(thumbnailSource), (frameGrabber, frameGrabberCallable, outputStream) ->
+                writeClip(frameGrabber, outputStream, dimension, previewFormat));
+    }
+
+    private FFmpegFrameGrabber openFrameGrabber(URL presignedUrl) throws IOException {
+        LOG.info("open pre-signed url stream");
+        // a seekable range stream lets ffmpeg jump to the moov atom and the grabbed frames
+        // instead of reading the whole video
+        return new FFmpegFrameGrabber(RangeInputStream.open(presignedUrl, s3config.getThumbnailRangeBlockSize(),
+                s3config.getThumbnailRangeCacheBlocks()));
+    }
+
+    private FFmpegFrameGrabber openFrameGrabber(ThumbnailSource thumbnailSource) throws IOException {
+        // a spilled file lets ffmpeg seek instead of reading the stream from the start
+        Optional<Path> file = thumbnailSource.getFile();
+        return file.isPresent() ? new FFmpegFrameGrabber(file.get().toFile())
+                : new FFmpegFrameGrabber(thumbnailSource.openStream());
+    }
+
+    /**
+     * open the grabber on a thumbnail thread and write the preview while holding a decode permit,
+     * the grabber reads the url stream while it decodes so the whole grab holds the permit.
+     * The writer can call the grabber callable again for more grabbers over the same video.
+     */
+    private Mono<ByteArrayOutputStream> grab(Callable<FFmpegFrameGrabber> frameGrabberCallable, FrameWriter frameWriter) {
+        return thumbnailExecutor.execute(() -> {
+            FFmpegFrameGrabber frameGrabber = frameGrabberCallable.call();
             ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
 
-            getGifBytes(inputStream, 0, 2, 2, 2, byteArrayOutputStream, dimension);//);
-            LOG.info("returning byteArrayOutputStream for gif");
-            return Mono.just(byteArrayOutputStream);
+            thumbnailExecutor.decode(() -> {
+                frameWriter.write(frameGrabber, frameGrabberCallable, byteArrayOutputStream);
+                return byteArrayOutputStream;
+            });
+            return byteArrayOutputStream;
+        }).doOnError(throwable -> LOG.error("exception occurred", throwable));
+    }
+
+    /**
+     * a failed gif is thrown so the caller never uploads or caches an empty or partial preview.
+     */
+    private void writeGif(FFmpegFrameGrabber frameGrabber, Callable<FFmpegFrameGrabber> frameGrabberCallable,
+                          OutputStream outputStream, Dimension thumbnail) throws Exception {
+        if (s3config.getVideoFrameSelection() == S3ClientConfigurationProperties.FrameSelection.KEYFRAME) {
+            getKeyFrameGifBytes(frameGrabber, frameGrabberCallable, s3config.getVideoPreviewFrameCount(), 2,
+                    outputStream, thumbnail);
+        }
+        else {
+            getGifBytes(frameGrabber, 0, 2, 2, 2, outputStream, thumbnail);
+        }
+    }
+
+    private void writePoster(FFmpegFrameGrabber frameGrabber, OutputStream outputStream, Dimension thumbnail) throws Exception {
+        try {
+            LOG.info("create poster frame");
+            List<KeyFrame> keyFrames = grabKeyFrames(frameGrabber, 0, 1, 1, thumbnail);
+            if (keyFrames.isEmpty()) {
+                throw new IOException("no keyframe found for poster");
+            }
+            ImageIO.write(keyFrames.getFirst().image(), "jpeg", outputStream);
+        }
+        finally {
+            closeQuietly(frameGrabber);
+        }
+    }
+
+    /**
+     * record the clip into a temporary file, the mp4 muxer has to seek back to write its index.
+     */
+    private void writeClip(FFmpegFrameGrabber frameGrabber, OutputStream outputStream, Dimension thumbnail,
+                           S3ClientConfigurationProperties.VideoPreviewFormat previewFormat) throws Exception {
+        final boolean webm = previewFormat == S3ClientConfigurationProperties.VideoPreviewFormat.WEBM;
+        Path directory = Paths.get(s3config.getThumbnailSpillDirectory());
+        Files.createDirectories(directory);
+        Path clipFile = Files.createTempFile(directory, "preview-", webm ? ".webm" : ".mp4");
+
+        try {
+            LOG.info("create {} preview clip", previewFormat);
+            frameGrabber.start();
+
+            Dimension dimension = ImageUtil.getScaledDimension(new Dimension(frameGrabber.getImageWidth(),
+                    frameGrabber.getImageHeight()), thumbnail);
+            // yuv420p needs an even width and height
+            final int width = Math.max(2, dimension.width & ~1);
+            final int height = Math.max(2, dimension.height & ~1);
+            frameGrabber.setImageWidth(width);
+            frameGrabber.setImageHeight(height);
+
+            final double frameRate = frameGrabber.getFrameRate() > 0 ? frameGrabber.getFrameRate() : 25;
+            final long clipLength = s3config.getVideoPreviewSeconds() * 1_000_000L;
+            final long lengthInTime = frameGrabber.getLengthInTime();
+            final long start = lengthInTime > clipLength ? Math.min(lengthInTime / 5, lengthInTime - clipLength) : 0;
+
+            try (FFmpegFrameRecorder frameRecorder = new FFmpegFrameRecorder(clipFile.toFile(), width, height, 0)) {
+                frameRecorder.setFormat(webm ? "webm" : "mp4");
+                frameRecorder.setVideoCodec(webm ? avcodec.AV_CODEC_ID_VP9 : avcodec.AV_CODEC_ID_H264);
+                frameRecorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+                frameRecorder.setFrameRate(frameRate);
+                frameRecorder.setVideoBitrate(s3config.getVideoPreviewBitrate());
+                if (webm) {
+                    frameRecorder.setVideoOption("deadline", "realtime");
+                    frameRecorder.setVideoOption("cpu-used", "8");
+                    frameRecorder.setVideoOption("row-mt", "1");
+                }
+                else {
+                    frameRecorder.setVideoOption("preset", "veryfast");
+                    // the index at the start lets a browser play the clip before it is fully downloaded
+                    frameRecorder.setOption("movflags", "+faststart");
+                }
+                frameRecorder.start();
+
+                if (start > 0) {
+                    frameGrabber.setTimestamp(start);
+                }
+                int frames = 0;
+                Frame frame;
+                while ((frame = frameGrabber.grabImage()) != null && frame.timestamp < start + clipLength) {
+                    frameRecorder.record(frame);
+                    frames++;
+                }
+                frameRecorder.stop();
+                LOG.info("recorded {} frames of {}x{} from {}us", frames, width, height, start);
+            }
+            Files.copy(clipFile, outputStream);
+        }
+        finally {
+            closeQuietly(frameGrabber);
+            Files.deleteIfExists(clipFile);
+        }
+    }
+
+    private void getKeyFrameGifBytes(FFmpegFrameGrabber frameGrabber, Callable<FFmpegFrameGrabber> frameGrabberCallable,
+                                     int frameCount, int frameRate, OutputStream outputStream, Dimension thumbnail) throws Exception {
+        try {
+            LOG.info("create gif from {} keyframes", frameCount);
+            List<KeyFrame> keyFrames = grabKeyFrames(frameGrabber, frameGrabberCallable, frameCount, thumbnail);
+            if (keyFrames.isEmpty()) {
+                throw new IOException("no keyframe found for gif");
+            }
+
+            thumbnailExecutor.createGifEncoder(frameRate).encode(keyFrames.stream().map(KeyFrame::image).toList(), outputStream);
+        }
+        finally {
+            closeQuietly(frameGrabber);
+        }
+    }
+
+    /**
+     * grab the keyframes in videoSegmentConcurrency time segments, each segment with its own grabber on a
+     * segment thread and with its own decode permit.  The first segment uses the given grabber, the others open one with the callable.
+     * @return the keyframes of all segments in timestamp order
+     */
+    private List<KeyFrame> grabKeyFrames(FFmpegFrameGrabber frameGrabber, Callable<FFmpegFrameGrabber> frameGrabberCallable,
+                                         int frameCount, Dimension thumbnail) throws Exception {
+        final int segments = Math.min(frameCount, s3config.getVideoSegmentConcurrency());
+        if (segments <= 1) {
+            return grabKeyFrames(frameGrabber, 0, frameCount, frameCount, thumbnail);
+        }
+        LOG.info("grab {} keyframes in {} segments", frameCount, segments);
+
+        List<Callable<List<KeyFrame>>> segmentTasks = new ArrayList<>();
+        for (int segment = 0; segment < segments; segment++) {
+            final int from = frameCount * segment / segments;
+            final int to = frameCount * (segment + 1) / segments;
+
+            if (segment == 0) {
+                segmentTasks.add(() -> grabKeyFrames(frameGrabber, from, to, frameCount, thumbnail));
+            }
+            else {
+                segmentTasks.add(() -> {
+                    FFmpegFrameGrabber segmentFrameGrabber = frameGrabberCallable.call();
+                    try {
+                        return grabKeyFrames(segmentFrameGrabber, from, to, frameCount, thumbnail);
+                    }
+                    finally {
+                        closeQuietly(segmentFrameGrabber);
+                    }
+                });
+            }
+        }
+
+        return mergeSegments(thumbnailExecutor.invokeSegments(segmentTasks));
+    }
 
+    /**
+     * join the keyframes of the segments in segment order.  The last keyframe of a segment can be the first
+     * of the next one in a video with a long gop, a keyframe not after the previous one is dropped.
+     */
+    public static List<KeyFrame> mergeSegments(List<List<KeyFrame>> segments) {
+        List<KeyFrame> keyFrames = new ArrayList<>();
+        for (List<KeyFrame> segmentKeyFrames : segments) {
+            for (KeyFrame keyFrame : segmentKeyFrames) {
+                if (keyFrames.isEmpty() || keyFrames.getLast().timestamp() < keyFrame.timestamp()) {
+                    keyFrames.add(keyFrame);
+                }
+            }
+        }
+        return keyFrames;
+    }
+
+    /**
+     * seek to evenly spaced timestamps and grab the next keyframe at each of them.  The decoder skips every
+     * non key frame so the decode work depends on the frame count only, not on the video length or gop size.
+     * @param from index of the first timestamp to grab
+     * @param to index after the last timestamp to grab
+     * @param frameCount number of timestamps over the whole video
+     * @return copies of the scaled frames, the frame converter reuses its image for every frame
+     */
+    private List<KeyFrame> grabKeyFrames(FFmpegFrameGrabber frameGrabber, int from, int to, int frameCount,
+                                         Dimension thumbnail) throws Exception {
+        frameGrabber.setVideoOption("skip_frame", "nokey");
+        frameGrabber.start();
+
+        Dimension dimension = ImageUtil.getScaledDimension(new Dimension(frameGrabber.getImageWidth(),
+                frameGrabber.getImageHeight()), thumbnail);
+        frameGrabber.setImageWidth(dimension.width);
+        frameGrabber.setImageHeight(dimension.height);
+
+        final long lengthInTime = frameGrabber.getLengthInTime();
+        LOG.debug("lengthInTime: {}, width: {}, height: {}", lengthInTime, dimension.width, dimension.height);
+
+        Java2DFrameConverter fc = new Java2DFrameConverter();
+        List<KeyFrame> keyFrames = new ArrayList<>();
+        long lastTimestamp = -1;
+
+        for (int i = from; i < to; i++) {
+            if (lengthInTime > 0) {
+                frameGrabber.setTimestamp(lengthInTime * (i + 1) / (frameCount + 1));
+            }
+            Frame frame = frameGrabber.grabKeyFrame();
+            if (frame == null) {
+                break;
+            }
+            // a short video can have fewer keyframes than the frame count
+            if (frame.timestamp == lastTimestamp) {
+                continue;
+            }
+            lastTimestamp = frame.timestamp;
+
+            BufferedImage bufferedImage = fc.convert(frame);
+            if (bufferedImage != null) {
+                keyFrames.add(new KeyFrame(frame.timestamp, Java2DFrameConverter.cloneBufferedImage(bufferedImage)));
+            }
+        }
+        LOG.info("grabbed {} keyframes", keyFrames.size());
+        return keyFrames;
+    }
+
+    private void closeQuietly(FFmpegFrameGrabber frameGrabber) {
+        try {
+            frameGrabber.close();
         }
         catch (Exception e) {
-            LOG.error("exception occurred", e);
-            return Mono.error(e);
+            LOG.error("failed to close frame grabber", e);
         }
     }
 
-    private void getGifBytes(InputStream inputStream, int startFrame, int frameCount, Integer frameRate, Integer margin,
-                             OutputStream outputStream, Dimension thumbnail) {
+    private void getGifBytes(FFmpegFrameGrabber frameGrabber, int startFrame, int frameCount, Integer frameRate, Integer margin,
+                             OutputStream outputStream, Dimension thumbnail) throws Exception {
         try {
             LOG.info("create gif");
 
-            FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(inputStream);
             frameGrabber.start();
             Java2DFrameConverter fc = new Java2DFrameConverter();
 
@@ -70,9 +367,7 @@ public class GifThumbnail implements Thumbnail {
             frameGrabber.setImageWidth(width);
 
             LOG.info("thumbnail.height: {}, thumbnail.width: {}", thumbnail.getHeight(), thumbnail.getWidth());
-            AnimatedGifEncoder en = new AnimatedGifEncoder();
-            en.setFrameRate(frameRate);
-            en.start(outputStream);
+            List<BufferedImage> frames = new ArrayList<>();
 
             for (int i = 0; i < frameCount; i++) {
                 Frame frame = frameGrabber.grabFrame(false, true, true, false);
@@ -82,18 +377,27 @@ public class GifThumbnail implements Thumbnail {
                 LOG.info("bufferedImage: {}", bufferedImage);
 
                 if (bufferedImage != null) {
-                    en.addFrame(bufferedImage);
+                    // the converter reuses its image for the next frame
+                    frames.add(Java2DFrameConverter.cloneBufferedImage(bufferedImage));
                     frameGrabber.setFrameNumber(frameGrabber.getFrameNumber() + margin);
 
                 }
             }
-            en.finish();
-
-            frameGrabber.stop();
-            frameGrabber.close();
-        } catch (Exception e) {
-            LOG.error("failed to create gif for video", e);
+            if (frames.isEmpty()) {
+                throw new IOException("no frame found for gif");
+            }
+            thumbnailExecutor.createGifEncoder(frameRate).encode(frames, outputStream);
+        }
+        finally {
+            closeQuietly(frameGrabber);
         }
     }
 
+    private interface FrameWriter {
+        void write(FFmpegFrameGrabber frameGrabber, Callable<FFmpegFrameGrabber> frameGrabberCallable,
+                   OutputStream outputStream) throws Exception;
+    }
+
+    public record KeyFrame(long timestamp, BufferedImage image) {
+    }
 }
@@ -1,5 +1,7 @@
 package cloud.sonam.s3.file;
 
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.util.ImageResampler;
 import cloud.sonam.s3.file.util.ImageUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -14,54 +16,103 @@ import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
 
 @Service
 public class PhotoThumbnail implements Thumbnail {
     private static final Logger LOG = LoggerFactory.getLogger(PhotoThumbnail.class);
 
+    private final ThumbnailExecutor thumbnailExecutor;
+
+    private final S3ClientConfigurationProperties s3config;
+
+    private final ImageResampler imageResampler;
+
+    public PhotoThumbnail(ThumbnailExecutor thumbnailExecutor, S3ClientConfigurationProperties s3config) {
+        this.thumbnailExecutor = thumbnailExecutor;
+        this.s3config = s3config;
+        this.imageResampler = ImageResampler.create(s3config.getThumbnailResampler());
+    }
+
     @Override
     public Mono<ByteArrayOutputStream> getByteArrayOutputStream(final URL presignedUrl, Dimension thumbnail, final MediaType format) {
-        try {
+        return getByteArrayOutputStreams(presignedUrl, List.of(thumbnail), format).map(List::getFirst);
+    }
+
+    @Override
+    public Mono<ByteArrayOutputStream> getByteArrayOutputStream(final ThumbnailSource thumbnailSource, Dimension thumbnail, final MediaType format) {
+        return getByteArrayOutputStreams(thumbnailSource, List.of(thumbnail), format).map(List::getFirst);
+    }
 
-            InputStream inputStream = presignedUrl.openStream();
+    /**
+     * create a thumbnail for each size from a single decode of the photo.
+     * @return the thumbnails in the same order as the sizes
+     */
+    public Mono<List<ByteArrayOutputStream>> getByteArrayOutputStreams(final URL presignedUrl, List<Dimension> thumbnails,
+                                                                       final MediaType format) {
+        return thumbnailExecutor.execute(() -> {
+            // read the photo first so the decode permit is not held while waiting on the network
+            try (InputStream inputStream = presignedUrl.openStream();
+                 ThumbnailSource thumbnailSource = ThumbnailSource.copyOf(inputStream, s3config.getThumbnailSourceMemoryLimit(),
+                         Paths.get(s3config.getThumbnailSpillDirectory()))) {
+                return createThumbnails(thumbnailSource, thumbnails, format);
+            }
+        }).doOnError(throwable -> LOG.error("failed to create thumbnail for photo", throwable));
+    }
 
-            // Load the original image
-            BufferedImage originalImage = ImageIO.read(inputStream);
+    public Mono<List<ByteArrayOutputStream>> getByteArrayOutputStreams(final ThumbnailSource thumbnailSource,
+                                                                       List<Dimension> thumbnails, final MediaType format) {
+        return thumbnailExecutor.execute(() -> createThumbnails(thumbnailSource, thumbnails, format))
+                .doOnError(throwable -> LOG.error("failed to create thumbnail for photo", throwable));
+    }
 
-            Dimension dimension = ImageUtil.getScaledDimension(new Dimension(originalImage.getWidth(), originalImage.getHeight()),
-                    thumbnail);
+    private List<ByteArrayOutputStream> createThumbnails(ThumbnailSource thumbnailSource, List<Dimension> thumbnails,
+                                                         final MediaType format) throws Exception {
+        return thumbnailExecutor.decode(() -> {
+            try (InputStream inputStream = thumbnailSource.openStream()) {
+                return createThumbnails(inputStream, thumbnails, format);
+            }
+        });
+    }
 
-            int width = (int) dimension.getWidth();
-            int height = (int) dimension.getHeight();
-            LOG.info("scaled width: {} height: {}", width, height);
+    private List<ByteArrayOutputStream> createThumbnails(InputStream inputStream, List<Dimension> thumbnails,
+                                                         final MediaType format) throws IOException {
+        // Load the original image, subsampled close to the largest thumbnail size to keep the heap per job small
+        BufferedImage originalImage = ImageUtil.readSubsampled(inputStream, ImageUtil.getLargest(thumbnails));
+        final Dimension originalDimension = new Dimension(originalImage.getWidth(), originalImage.getHeight());
 
-            // Create a new image for the thumbnail
-            BufferedImage thumbnailImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        // scale the largest size first so each smaller one is scaled from the previous thumbnail
+        List<Integer> largestFirst = new ArrayList<>();
+        for (int i = 0; i < thumbnails.size(); i++) {
+            largestFirst.add(i);
+        }
+        largestFirst.sort(Comparator.comparingInt((Integer i) -> thumbnails.get(i).width * thumbnails.get(i).height).reversed());
 
-            // Get the graphics context of the thumbnail image
-            Graphics2D graphics = thumbnailImage.createGraphics();
+        ByteArrayOutputStream[] byteArrayOutputStreams = new ByteArrayOutputStream[thumbnails.size()];
+        BufferedImage previousImage = originalImage;
 
-            // Set rendering hints for better quality
-            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-            graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-            graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        for (int index : largestFirst) {
+            Dimension dimension = ImageUtil.getScaledDimension(originalDimension, thumbnails.get(index));
+            LOG.info("scaled width: {} height: {}", dimension.width, dimension.height);
 
-            // Draw the original image onto the thumbnail image, scaling it to fit
-            graphics.drawImage(originalImage, 0, 0, width, height, null);
-            graphics.dispose();
+            BufferedImage sourceImage = previousImage.getWidth() >= dimension.width && previousImage.getHeight() >= dimension.height
+                    ? previousImage : originalImage;
+            BufferedImage thumbnailImage = imageResampler.resample(sourceImage, dimension);
 
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
             LOG.info("format.subType: {}", format.getSubtype());
             ImageIO.write(thumbnailImage, format.getSubtype(), baos);
 
-            LOG.info("Thumbnail created successfully.");
-
-            return Mono.just(baos);
-
-        } catch (IOException e) {
-            LOG.error("failed to create thumbnail for photo", e);
-            return Mono.error(e);
+            byteArrayOutputStreams[index] = baos;
+            previousImage = thumbnailImage;
         }
+
+        LOG.info("{} thumbnails created successfully.", thumbnails.size());
+        return Arrays.asList(byteArrayOutputStreams);
     }
 
 }
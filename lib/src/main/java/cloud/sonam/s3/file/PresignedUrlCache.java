@@ -0,0 +1,85 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Presigned get urls by file key, so a hot key is a map lookup instead of signing again.
+ * A url is returned while it is valid for at least presignCacheMinRemainingPercent of presignDurationInMinutes,
+ * a caller always gets a url that is valid for a useful time.  Expired urls and the least recently used ones over
+ * presignCacheMaxSize are evicted.
+ */
+@Component
+public class PresignedUrlCache {
+    private static final Logger LOG = LoggerFactory.getLogger(PresignedUrlCache.class);
+
+    private final S3ClientConfigurationProperties s3config;
+
+    private final Map<String, CachedUrl> urls = new LinkedHashMap<>(16, 0.75f, true);
+
+    public PresignedUrlCache(S3ClientConfigurationProperties s3config) {
+        this.s3config = s3config;
+    }
+
+    public synchronized Optional<URL> get(String fileKey) {
+        CachedUrl cachedUrl = urls.get(fileKey);
+        if (cachedUrl == null) {
+            return Optional.empty();
+        }
+        if (!Instant.now().isBefore(cachedUrl.refreshAt())) {
+            urls.remove(fileKey);
+            return Optional.empty();
+        }
+        return Optional.of(cachedUrl.url());
+    }
+
+    /**
+     * @param expiration of the presigned url
+     */
+    public synchronized void put(String fileKey, URL url, Instant expiration) {
+        final Duration minRemaining = Duration.ofMinutes(s3config.getPresignDurationInMinutes())
+                .multipliedBy(s3config.getPresignCacheMinRemainingPercent()).dividedBy(100);
+        final Instant refreshAt = expiration.minus(minRemaining);
+
+        if (!Instant.now().isBefore(refreshAt)) {
+            return;
+        }
+        urls.put(fileKey, new CachedUrl(url, refreshAt));
+
+        if (urls.size() > s3config.getPresignCacheMaxSize()) {
+            evict();
+        }
+    }
+
+    public synchronized int size() {
+        return urls.size();
+    }
+
+    /**
+     * remove the expired urls first, then the least recently used until the cache is within its size.
+     */
+    private void evict() {
+        final Instant now = Instant.now();
+        urls.values().removeIf(cachedUrl -> !now.isBefore(cachedUrl.refreshAt()));
+
+        Iterator<CachedUrl> iterator = urls.values().iterator();
+        while (urls.size() > s3config.getPresignCacheMaxSize() && iterator.hasNext()) {
+            iterator.next();
+            iterator.remove();
+        }
+        LOG.debug("evicted presigned urls, size: {}", urls.size());
+    }
+
+    private record CachedUrl(URL url, Instant refreshAt) {
+    }
+}
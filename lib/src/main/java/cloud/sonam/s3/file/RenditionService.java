@@ -0,0 +1,145 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resized renditions of a stored photo, created on the first request instead of at upload.
+ * A rendition is stored next to the photo under thumbnail/<width>x<height>/, the key an eager thumbnail of that
+ * size gets, and later requests read it from there.  Concurrent requests for the same rendition share one
+ * read or render.  A rendition is always stored private, it is only served through this service so it never
+ * becomes readable where the photo is not.
+ */
+@Component
+public class RenditionService {
+    private static final Logger LOG = LoggerFactory.getLogger(RenditionService.class);
+
+    private final S3AsyncClient s3client;
+
+    private final S3ClientConfigurationProperties s3config;
+
+    private final PhotoThumbnail photoThumbnail;
+
+    // renditions being read or rendered by rendition key
+    private final Map<String, Mono<Rendition>> inFlight = new ConcurrentHashMap<>();
+
+    public RenditionService(S3AsyncClient s3client, S3ClientConfigurationProperties s3config, PhotoThumbnail photoThumbnail) {
+        this.s3client = s3client;
+        this.s3config = s3config;
+        this.photoThumbnail = photoThumbnail;
+    }
+
+    /**
+     * @param key of the stored photo
+     * @param dimension bounding box of the rendition, the aspect ratio of the photo is kept
+     * @param format image format of the rendition
+     */
+    public Mono<Rendition> getRendition(String key, Dimension dimension, MediaType format) {
+        final int maxDimension = s3config.getRenditionMaxDimension();
+        if (dimension.width < 1 || dimension.height < 1 || dimension.width > maxDimension || dimension.height > maxDimension) {
+            return Mono.error(new IllegalArgumentException("width and height must be between 1 and " + maxDimension));
+        }
+        final String renditionKey = getRenditionKey(key, dimension, format);
+
+        // removed once done so a later request reads the stored rendition
+        return inFlight.computeIfAbsent(renditionKey, k -> getStoredRendition(renditionKey, format)
+                .switchIfEmpty(Mono.defer(() -> render(key, renditionKey, dimension, format)))
+                .doFinally(signalType -> inFlight.remove(renditionKey))
+                .cache());
+    }
+
+    /**
+     * prefixPath/name.jpeg is rendered to prefixPath/thumbnail/<width>x<height>/name.<format>
+     */
+    public static String getRenditionKey(String key, Dimension dimension, MediaType format) {
+        final int slash = key.lastIndexOf('/');
+        final String name = key.substring(slash + 1);
+        final int dot = name.lastIndexOf('.');
+
+        return key.substring(0, slash + 1) + "thumbnail/" + dimension.width + "x" + dimension.height + "/"
+                + (dot > 0 ? name.substring(0, dot) : name) + "." + format.getSubtype();
+    }
+
+    private Mono<Rendition> getStoredRendition(String renditionKey, MediaType format) {
+        return Mono.fromFuture(() -> s3client.getObject(GetObjectRequest.builder().bucket(s3config.getBucket()).key(renditionKey).build(),
+                        AsyncResponseTransformer.toBytes()))
+                .map(responseBytes -> new Rendition(renditionKey, responseBytes.asByteArrayUnsafe(), format))
+                .doOnNext(rendition -> LOG.info("serve stored rendition {}", renditionKey))
+                .onErrorResume(this::isNotFound, throwable -> {
+                    LOG.info("no rendition stored at key: {}", renditionKey);
+                    return Mono.empty();
+                });
+    }
+
+    /**
+     * stream the photo into a thumbnail source, it spills to a file when it is large, and resize it.
+     */
+    private Mono<Rendition> render(String key, String renditionKey, Dimension dimension, MediaType format) {
+        LOG.info("render {} from key: {}", renditionKey, key);
+
+        return Mono.using(() -> ThumbnailSource.create(s3config.getThumbnailSourceMemoryLimit(),
+                                Paths.get(s3config.getThumbnailSpillDirectory())),
+                        thumbnailSource -> Mono.fromFuture(s3client.getObject(GetObjectRequest.builder()
+                                                .bucket(s3config.getBucket()).key(key).build(),
+                                        AsyncResponseTransformer.toPublisher()))
+                                .flatMapMany(responsePublisher -> Flux.from(responsePublisher))
+                                .doOnNext(thumbnailSource::write)
+                                .then(Mono.defer(() -> photoThumbnail.getByteArrayOutputStream(thumbnailSource, dimension, format))),
+                        ThumbnailSource::close)
+                .map(ByteArrayOutputStream::toByteArray)
+                .flatMap(bytes -> store(renditionKey, bytes, format)
+                        .thenReturn(new Rendition(renditionKey, bytes, format)));
+    }
+
+    /**
+     * a failed put only means the next request renders again, so the rendition is still served.
+     */
+    private Mono<Void> store(String renditionKey, byte[] bytes, MediaType format) {
+        return Mono.fromFuture(() -> s3client.putObject(PutObjectRequest.builder()
+                                .bucket(s3config.getBucket())
+                                .key(renditionKey)
+                                .contentLength((long) bytes.length)
+                                .contentType(format.toString())
+                                .acl(ObjectCannedACL.PRIVATE)
+                                .build(),
+                        AsyncRequestBody.fromBytes(bytes)))
+                .doOnNext(response -> {
+                    if (response.sdkHttpResponse() != null && !response.sdkHttpResponse().isSuccessful()) {
+                        throw new RuntimeException("put failed with status: " + response.sdkHttpResponse().statusCode());
+                    }
+                    LOG.info("stored rendition {} of {} bytes", renditionKey, bytes.length);
+                })
+                .onErrorResume(throwable -> {
+                    LOG.error("failed to store rendition {}", renditionKey, throwable);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private boolean isNotFound(Throwable throwable) {
+        return throwable instanceof NoSuchKeyException
+                || (throwable instanceof S3Exception s3Exception && s3Exception.statusCode() == 404);
+    }
+
+    public record Rendition(String key, byte[] bytes, MediaType mediaType) {
+    }
+}
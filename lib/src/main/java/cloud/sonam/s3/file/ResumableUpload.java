@@ -0,0 +1,186 @@
+package cloud.sonam.s3.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * State of a resumable upload.  Each acknowledged part is appended to a small tab separated journal file
+ * so that a client can resume after a disconnect and a restarted instance can pick the upload up.
+ * <pre>
+ * upload  uploadId  s3UploadId  fileKey  contentLength  partSize  contentType  acl
+ * part    partNumber  offset  length  eTag
+ * </pre>
+ */
+public class ResumableUpload {
+    private static final Logger LOG = LoggerFactory.getLogger(ResumableUpload.class);
+
+    private static final String UPLOAD = "upload";
+    private static final String PART = "part";
+    private static final String SEPARATOR = "\t";
+
+    private final Path journal;
+    private final String uploadId;
+    private final String s3UploadId;
+    private final String fileKey;
+    private final long contentLength;
+    private final int partSize;
+    private final String contentType;
+    private final String acl;
+
+    private final SortedMap<Integer, UploadedPart> parts = new TreeMap<>();
+
+    private ResumableUpload(Path journal, String uploadId, String s3UploadId, String fileKey, long contentLength,
+                            int partSize, String contentType, String acl) {
+        this.journal = journal;
+        this.uploadId = uploadId;
+        this.s3UploadId = s3UploadId;
+        this.fileKey = fileKey;
+        this.contentLength = contentLength;
+        this.partSize = partSize;
+        this.contentType = contentType;
+        this.acl = acl;
+    }
+
+    public static ResumableUpload create(Path journal, String uploadId, String s3UploadId, String fileKey,
+                                         long contentLength, int partSize, String contentType, String acl) throws IOException {
+        ResumableUpload resumableUpload = new ResumableUpload(journal, uploadId, s3UploadId, fileKey, contentLength,
+                partSize, contentType, acl);
+        Files.createDirectories(journal.getParent());
+        Files.writeString(journal, String.join(SEPARATOR, UPLOAD, uploadId, s3UploadId, fileKey,
+                        String.valueOf(contentLength), String.valueOf(partSize), contentType, acl) + "\n",
+                StandardCharsets.UTF_8, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE, StandardOpenOption.SYNC);
+        return resumableUpload;
+    }
+
+    public static ResumableUpload load(Path journal) throws IOException {
+        List<String> lines = Files.readAllLines(journal, StandardCharsets.UTF_8);
+        if (lines.isEmpty()) {
+            throw new IOException("empty upload journal: " + journal);
+        }
+        String[] header = lines.getFirst().split(SEPARATOR);
+        if (header.length != 8 || !header[0].equals(UPLOAD)) {
+            throw new IOException("invalid upload journal header: " + journal);
+        }
+        ResumableUpload resumableUpload = new ResumableUpload(journal, header[1], header[2], header[3],
+                Long.parseLong(header[4]), Integer.parseInt(header[5]), header[6], header[7]);
+
+        for (String line : lines.subList(1, lines.size())) {
+            String[] fields = line.split(SEPARATOR);
+            // a torn last line from a crash is ignored, that part is simply uploaded again
+            if (fields.length == 5 && fields[0].equals(PART)) {
+                UploadedPart part = new UploadedPart(Integer.parseInt(fields[1]), Long.parseLong(fields[2]),
+                        Integer.parseInt(fields[3]), fields[4]);
+                resumableUpload.parts.put(part.partNumber(), part);
+            }
+            else {
+                LOG.warn("skip invalid journal line in {}: {}", journal, line);
+            }
+        }
+        LOG.info("loaded upload journal {} with {} parts", journal, resumableUpload.parts.size());
+        return resumableUpload;
+    }
+
+    public synchronized void addPart(UploadedPart part) throws IOException {
+        Files.writeString(journal, String.join(SEPARATOR, PART, String.valueOf(part.partNumber()),
+                        String.valueOf(part.offset()), String.valueOf(part.length()), part.eTag()) + "\n",
+                StandardCharsets.UTF_8, StandardOpenOption.APPEND, StandardOpenOption.SYNC);
+        parts.put(part.partNumber(), part);
+    }
+
+    public void deleteJournal() throws IOException {
+        Files.deleteIfExists(journal);
+    }
+
+    public int getPartCount() {
+        return (int) Math.max(1, (contentLength + partSize - 1) / partSize);
+    }
+
+    /**
+     * @return the part number for a range starting at this offset, parts are numbered from 1
+     */
+    public int getPartNumber(long offset) {
+        if (offset < 0 || offset % partSize != 0 || (offset >= contentLength && contentLength > 0)) {
+            throw new IllegalArgumentException("offset " + offset + " is not the start of a part of size " + partSize);
+        }
+        return (int) (offset / partSize) + 1;
+    }
+
+    public int getPartLength(int partNumber) {
+        long offset = (long) (partNumber - 1) * partSize;
+        return (int) Math.min(partSize, contentLength - offset);
+    }
+
+    public synchronized boolean isComplete() {
+        return parts.size() == getPartCount();
+    }
+
+    public synchronized List<CompletedPart> getCompletedParts() {
+        return parts.values().stream()
+                .map(part -> CompletedPart.builder().partNumber(part.partNumber()).eTag(part.eTag()).build())
+                .toList();
+    }
+
+    public synchronized Status getStatus() {
+        List<Long> missingOffsets = new ArrayList<>();
+        long receivedBytes = 0;
+        for (int partNumber = 1; partNumber <= getPartCount(); partNumber++) {
+            UploadedPart part = parts.get(partNumber);
+            if (part == null) {
+                missingOffsets.add((long) (partNumber - 1) * partSize);
+            }
+            else {
+                receivedBytes += part.length();
+            }
+        }
+        return new Status(uploadId, fileKey, contentLength, partSize, receivedBytes, missingOffsets);
+    }
+
+    public String getUploadId() {
+        return uploadId;
+    }
+
+    public String getS3UploadId() {
+        return s3UploadId;
+    }
+
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    public long getContentLength() {
+        return contentLength;
+    }
+
+    public int getPartSize() {
+        return partSize;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    public String getAcl() {
+        return acl;
+    }
+
+    public record UploadedPart(int partNumber, long offset, int length, String eTag) {
+    }
+
+    /**
+     * what a client needs to resume: the byte offsets of the parts that are still missing.
+     */
+    public record Status(String uploadId, String fileKey, long contentLength, int partSize,
+                         long receivedBytes, List<Long> missingOffsets) {
+    }
+}
@@ -0,0 +1,276 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.util.ImageUtil;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Service;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Resumable uploads on top of a S3 multipart upload.  A client starts an upload and gets an upload id,
+ * then sends the parts in any order as byte ranges starting at a part boundary.  Received parts are kept
+ * in a {@link ResumableUpload} journal so the client can ask which ranges are missing after a disconnect.
+ * The journal is kept in resumableUploadDirectory, a local directory, so the upload continues on the same instance
+ * or on that instance after a restart, another instance only finds it when all instances share the directory.
+ * An upload that has not received a part for resumableUploadTtlMinutes is swept, its multipart upload is aborted
+ * so S3 does not keep the parts.
+ */
+@Service
+public class ResumableUploadService {
+    private static final Logger LOG = LoggerFactory.getLogger(ResumableUploadService.class);
+
+    // S3 allows at most 10000 parts for a multipart upload
+    private static final int MAX_PARTS = 10000;
+
+    // the largest object S3 stores, 5 TiB
+    private static final long MAX_CONTENT_LENGTH = 5L * 1024 * 1024 * 1024 * 1024;
+
+    private static final String SUFFIX = ".journal";
+
+    private final S3ClientConfigurationProperties s3config;
+
+    private final S3MultipartUploader s3MultipartUploader;
+
+    private final Map<String, ResumableUpload> uploads = new ConcurrentHashMap<>();
+
+    private Disposable sweeper;
+
+    public ResumableUploadService(S3ClientConfigurationProperties s3config, S3MultipartUploader s3MultipartUploader) {
+        this.s3config = s3config;
+        this.s3MultipartUploader = s3MultipartUploader;
+    }
+
+    @PostConstruct
+    public void startSweeper() {
+        final Duration interval = Duration.ofMinutes(s3config.getResumableUploadSweepMinutes());
+        sweeper = Flux.interval(interval, interval, Schedulers.boundedElastic())
+                // skip a tick while the previous sweep is still running
+                .onBackpressureDrop()
+                .concatMap(tick -> sweep(), 1)
+                .subscribe();
+    }
+
+    @PreDestroy
+    public void stopSweeper() {
+        if (sweeper != null) {
+            sweeper.dispose();
+        }
+    }
+
+    public Mono<ResumableUpload.Status> start(String prefixPath, String fileName, MediaType mediaType,
+                                              long contentLength, ObjectCannedACL acl) {
+        if (contentLength < 0) {
+            return Mono.error(new IllegalArgumentException("contentLength is required for a resumable upload"));
+        }
+        if (contentLength > MAX_CONTENT_LENGTH) {
+            return Mono.error(new IllegalArgumentException("contentLength " + contentLength
+                    + " is larger than the S3 limit of " + MAX_CONTENT_LENGTH));
+        }
+        final String fileKey = ImageUtil.getFileKey(prefixPath, fileName, mediaType, LocalDateTime.now());
+        final int partSize = (int) Math.max(s3config.getMultipartMinPartSize(), (contentLength + MAX_PARTS - 1) / MAX_PARTS);
+        final String uploadId = UUID.randomUUID().toString();
+
+        Map<String, String> metadata = new HashMap<>();
+        metadata.put("Content-Length", "" + contentLength);
+        metadata.put("Content-Type", mediaType.toString());
+        metadata.put("x-amz-acl", acl.toString());
+
+        LOG.info("start resumable upload: {} for fileKey: {}, contentLength: {}, partSize: {}", uploadId, fileKey,
+                contentLength, partSize);
+
+        return s3MultipartUploader.createMultipartUpload(fileKey, mediaType, acl, metadata)
+                .publishOn(Schedulers.boundedElastic())
+                .map(s3UploadId -> {
+                    try {
+                        ResumableUpload resumableUpload = ResumableUpload.create(getJournal(uploadId), uploadId,
+                                s3UploadId, fileKey, contentLength, partSize, mediaType.toString(), acl.toString());
+                        uploads.put(uploadId, resumableUpload);
+                        return resumableUpload.getStatus();
+                    }
+                    catch (IOException e) {
+                        throw new UncheckedIOException("failed to create upload journal", e);
+                    }
+                });
+    }
+
+    /**
+     * upload the range starting at offset, the range must be a whole part.
+     * A part that was already received is replaced by the new one.  The range is streamed to S3 as it arrives,
+     * a range that turns out longer or shorter than the part fails the part upload.
+     */
+    public Mono<ResumableUpload.Status> uploadPart(String uploadId, long offset, Flux<ByteBuffer> body) {
+        return getUpload(uploadId).flatMap(resumableUpload -> {
+            final int partNumber = resumableUpload.getPartNumber(offset);
+            final int partLength = resumableUpload.getPartLength(partNumber);
+            LOG.info("upload part: {} at offset: {} for upload: {}", partNumber, offset, uploadId);
+
+            return s3MultipartUploader.uploadPart(resumableUpload.getFileKey(), resumableUpload.getS3UploadId(),
+                            partNumber, checkLength(body, offset, partLength), partLength)
+                    .publishOn(Schedulers.boundedElastic())
+                    .map(completedPart -> {
+                        try {
+                            resumableUpload.addPart(new ResumableUpload.UploadedPart(partNumber, offset, partLength,
+                                    completedPart.eTag()));
+                            return resumableUpload.getStatus();
+                        }
+                        catch (IOException e) {
+                            throw new UncheckedIOException("failed to write upload journal", e);
+                        }
+                    });
+        });
+    }
+
+    /**
+     * fail the body as soon as it is longer than the part, or at its end when it is shorter.
+     */
+    private Flux<ByteBuffer> checkLength(Flux<ByteBuffer> body, long offset, int partLength) {
+        return Flux.defer(() -> {
+            AtomicLong received = new AtomicLong();
+            return body.doOnNext(byteBuffer -> {
+                        if (received.addAndGet(byteBuffer.remaining()) > partLength) {
+                            throw new IllegalArgumentException("range at offset " + offset + " is longer than part length " + partLength);
+                        }
+                    })
+                    .concatWith(Mono.defer(() -> received.get() < partLength
+                            ? Mono.error(new IllegalArgumentException("range at offset " + offset
+                                    + " is shorter than part length " + partLength))
+                            : Mono.empty()));
+        });
+    }
+
+    public Mono<ResumableUpload.Status> getStatus(String uploadId) {
+        return getUpload(uploadId).map(ResumableUpload::getStatus);
+    }
+
+    /**
+     * @return the fileKey of the stored object once all parts are received
+     */
+    public Mono<String> complete(String uploadId) {
+        return getUpload(uploadId).flatMap(resumableUpload -> {
+            if (!resumableUpload.isComplete()) {
+                return Mono.error(new IllegalStateException("upload " + uploadId + " is missing parts at offsets "
+                        + resumableUpload.getStatus().missingOffsets()));
+            }
+            return s3MultipartUploader.completeMultipartUpload(resumableUpload.getFileKey(),
+                            resumableUpload.getS3UploadId(), resumableUpload.getCompletedParts())
+                    .publishOn(Schedulers.boundedElastic())
+                    .doOnNext(fileKey -> forget(resumableUpload));
+        });
+    }
+
+    public Mono<String> abort(String uploadId) {
+        return getUpload(uploadId).flatMap(resumableUpload ->
+                s3MultipartUploader.abortMultipartUpload(resumableUpload.getFileKey(), resumableUpload.getS3UploadId())
+                        .publishOn(Schedulers.boundedElastic())
+                        .then(Mono.fromCallable(() -> {
+                            forget(resumableUpload);
+                            return resumableUpload.getFileKey();
+                        })));
+    }
+
+    /**
+     * abort the uploads whose journal was last written, by the start or a part, more than resumableUploadTtlMinutes ago.
+     * @return the number of uploads swept
+     */
+    public Mono<Long> sweep() {
+        final Instant expired = Instant.now().minus(Duration.ofMinutes(s3config.getResumableUploadTtlMinutes()));
+
+        return Mono.fromCallable(this::getUploadIds)
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapIterable(uploadIds -> uploadIds)
+                .concatMap(uploadId -> Mono.fromCallable(() -> Files.getLastModifiedTime(getJournal(uploadId)).toInstant())
+                        .subscribeOn(Schedulers.boundedElastic())
+                        .filter(lastModified -> lastModified.isBefore(expired))
+                        .doOnNext(lastModified -> LOG.info("sweep resumable upload: {} last written at {}", uploadId,
+                                lastModified))
+                        .flatMap(lastModified -> abort(uploadId))
+                        .onErrorResume(throwable -> {
+                            LOG.error("failed to sweep resumable upload: {}", uploadId, throwable);
+                            return Mono.empty();
+                        }))
+                .count()
+                .onErrorResume(throwable -> {
+                    LOG.error("failed to sweep resumable uploads", throwable);
+                    return Mono.just(0L);
+                });
+    }
+
+    private List<String> getUploadIds() throws IOException {
+        Path directory = Paths.get(s3config.getResumableUploadDirectory());
+        List<String> uploadIds = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return uploadIds;
+        }
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : directoryStream) {
+                final String fileName = file.getFileName().toString();
+                uploadIds.add(fileName.substring(0, fileName.length() - SUFFIX.length()));
+            }
+        }
+        return uploadIds;
+    }
+
+    private void forget(ResumableUpload resumableUpload) {
+        uploads.remove(resumableUpload.getUploadId());
+        try {
+            resumableUpload.deleteJournal();
+        }
+        catch (IOException e) {
+            LOG.error("failed to delete journal for upload: {}", resumableUpload.getUploadId(), e);
+        }
+    }
+
+    private Mono<ResumableUpload> getUpload(String uploadId) {
+        return Mono.fromCallable(() -> {
+            ResumableUpload resumableUpload = uploads.get(uploadId);
+            if (resumableUpload != null) {
+                return resumableUpload;
+            }
+            // the upload may have been started before a restart
+            Path journal = getJournal(uploadId);
+            if (!Files.exists(journal)) {
+                throw new IllegalArgumentException("no upload found with id: " + uploadId);
+            }
+            return uploads.computeIfAbsent(uploadId, id -> {
+                try {
+                    return ResumableUpload.load(journal);
+                }
+                catch (IOException e) {
+                    throw new UncheckedIOException("failed to load upload journal", e);
+                }
+            });
+        }).subscribeOn(Schedulers.boundedElastic());
+    }
+
+    private Path getJournal(String uploadId) {
+        // only accept our own ids so a request can't point outside of the journal directory
+        UUID uuid = UUID.fromString(uploadId);
+        return Paths.get(s3config.getResumableUploadDirectory()).resolve(uuid + SUFFIX);
+    }
+}
@@ -0,0 +1,145 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.Delete;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsResponse;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
+import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Object;
+
+import java.time.Duration;
+import java.util.List;
+
+/**
+ * Deletes every object under a prefix.  The keys are listed with ListObjectsV2 a page of 1000 at a time and each page
+ * is deleted with one DeleteObjects request, up to {@link S3ClientConfigurationProperties#getDeleteConcurrency()}
+ * requests at the same time.  The listing only runs ahead of the deletes by a few pages, so a prefix with millions of
+ * objects is never held in memory.  A throttled or failed request is retried with the same backoff as a multipart part.
+ */
+@Component
+public class S3BatchDeleter {
+    private static final Logger LOG = LoggerFactory.getLogger(S3BatchDeleter.class);
+
+    // the most keys S3 accepts in one DeleteObjects request
+    static final int MAX_BATCH_KEYS = 1000;
+
+    private final S3AsyncClient s3client;
+
+    private final S3ClientConfigurationProperties s3config;
+
+    public S3BatchDeleter(S3AsyncClient s3client, S3ClientConfigurationProperties s3config) {
+        this.s3client = s3client;
+        this.s3config = s3config;
+    }
+
+    public Mono<S3Service.DeleteResult> delete(String prefix) {
+        return deleteBatches(prefix, null, 0)
+                .reduce(new S3Service.DeleteResult(prefix, 0, 0),
+                        (result, batch) -> new S3Service.DeleteResult(prefix, result.deleted() + batch.deleted(),
+                                result.failed() + batch.failed()))
+                .doOnNext(result -> LOG.info("deleted {} objects with prefix: {}, failed: {}", result.deleted(),
+                        prefix, result.failed()));
+    }
+
+    /**
+     * delete the objects under the prefix a batch at a time.  The batches run concurrently but are emitted in key
+     * order, so the lastKey of an emitted batch is a safe point to resume from.
+     * @param startAfter only delete the keys after this key, null to delete from the start of the prefix
+     * @param requestsPerSecond the most list and DeleteObjects requests to send in a second, 0 for no limit
+     */
+    public Flux<Batch> deleteBatches(String prefix, String startAfter, int requestsPerSecond) {
+        Flux<List<String>> keys = listKeys(prefix, startAfter);
+        if (requestsPerSecond > 0) {
+            // each batch is one list and one DeleteObjects request
+            keys = keys.delayElements(Duration.ofNanos(2_000_000_000L / requestsPerSecond));
+        }
+        return keys.flatMapSequential(this::deleteKeys, s3config.getDeleteConcurrency());
+    }
+
+    /**
+     * the keys under the prefix, a page at a time in key order.
+     */
+    Flux<List<String>> listKeys(String prefix, String startAfter) {
+        return listPage(prefix, startAfter, null)
+                .expand(response -> Boolean.TRUE.equals(response.isTruncated())
+                        ? listPage(prefix, null, response.nextContinuationToken()) : Mono.empty())
+                .map(response -> response.contents().stream().map(S3Object::key).toList())
+                .filter(keys -> !keys.isEmpty());
+    }
+
+    private Mono<ListObjectsV2Response> listPage(String prefix, String startAfter, String continuationToken) {
+        ListObjectsV2Request listObjectsV2Request = ListObjectsV2Request.builder()
+                .bucket(s3config.getBucket())
+                .prefix(prefix)
+                .startAfter(startAfter)
+                .continuationToken(continuationToken)
+                .maxKeys(MAX_BATCH_KEYS)
+                .build();
+
+        return Mono.fromFuture(() -> s3client.listObjectsV2(listObjectsV2Request))
+                .retryWhen(retry("list " + prefix));
+    }
+
+    /**
+     * delete up to 1000 keys in one request.  A quiet request only answers the keys that failed,
+     * a request that fails as a whole counts every key as failed.
+     */
+    Mono<Batch> deleteKeys(List<String> keys) {
+        final String lastKey = keys.get(keys.size() - 1);
+
+        return deleteObjects(keys)
+                .map(response -> {
+                    response.errors().forEach(error -> LOG.error("failed to delete key: {}, code: {}, message: {}",
+                            error.key(), error.code(), error.message()));
+                    LOG.debug("deleted batch of {} keys up to key: {}, failed: {}", keys.size(), lastKey,
+                            response.errors().size());
+                    return new Batch(keys.size() - response.errors().size(), response.errors().size(), lastKey);
+                })
+                .onErrorResume(throwable -> {
+                    LOG.error("failed to delete batch of {} keys up to key: {}", keys.size(), lastKey, throwable);
+                    return Mono.just(new Batch(0, keys.size(), lastKey));
+                });
+    }
+
+    /**
+     * one quiet DeleteObjects request for up to 1000 keys, the response only has the keys that failed.
+     */
+    Mono<DeleteObjectsResponse> deleteObjects(List<String> keys) {
+        DeleteObjectsRequest deleteObjectsRequest = DeleteObjectsRequest.builder()
+                .bucket(s3config.getBucket())
+                .delete(Delete.builder()
+                        .objects(keys.stream().map(key -> ObjectIdentifier.builder().key(key).build()).toList())
+                        .quiet(true)
+                        .build())
+                .build();
+
+        return Mono.fromFuture(() -> s3client.deleteObjects(deleteObjectsRequest))
+                .retryWhen(retry("delete " + keys.size() + " keys up to " + keys.get(keys.size() - 1)));
+    }
+
+    private Retry retry(String operation) {
+        return Retry.backoff(s3config.getPartRetryAttempts(), Duration.ofMillis(s3config.getPartRetryMinBackoffMillis()))
+                .maxBackoff(Duration.ofMillis(s3config.getPartRetryMaxBackoffMillis()))
+                .jitter(0.5)
+                .filter(S3MultipartUploader::isRetryable)
+                .doBeforeRetry(retrySignal -> LOG.warn("retry {}, attempt: {}, failure: {}", operation,
+                        retrySignal.totalRetries() + 1, retrySignal.failure().getMessage()))
+                .onRetryExhaustedThrow((retryBackoffSpec, retrySignal) -> retrySignal.failure());
+    }
+
+    /**
+     * the result of one DeleteObjects request
+     * @param lastKey the last key of the batch in key order
+     */
+    public record Batch(long deleted, long failed, String lastKey) {
+    }
+}
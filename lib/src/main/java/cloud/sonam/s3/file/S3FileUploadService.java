@@ -9,14 +9,18 @@ import org.springframework.http.MediaType;
 import org.springframework.stereotype.Component;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.ResponsePublisher;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.*;
 import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
 import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 
+import java.util.ArrayList;
 import java.util.List;
 import java.awt.*;
 import java.io.ByteArrayOutputStream;
@@ -27,6 +31,8 @@ import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 
@@ -48,15 +54,33 @@ public class S3FileUploadService implements S3Service {
     private GifThumbnail gifThumbnail;
     private PhotoThumbnail photoThumbnail;
 
+    private S3MultipartUploader s3MultipartUploader;
+
+    private ThumbnailCache thumbnailCache;
+
+    private PresignedUrlCache presignedUrlCache;
+
+    private S3BatchDeleter s3BatchDeleter;
+
+    private DeleteObjectBatcher deleteObjectBatcher;
+
     public S3FileUploadService(S3AsyncClient s3client, S3ClientConfigurationProperties s3config,
                                AwsCredentialsProvider awsCredentialsProvider, S3Presigner s3Presigner,
-                               GifThumbnail gifThumbnail, PhotoThumbnail photoThumbnail) {
+                               GifThumbnail gifThumbnail, PhotoThumbnail photoThumbnail,
+                               S3MultipartUploader s3MultipartUploader, ThumbnailCache thumbnailCache,
+                               PresignedUrlCache presignedUrlCache, S3BatchDeleter s3BatchDeleter,
+                               DeleteObjectBatcher deleteObjectBatcher) {
         this.s3client = s3client;
         this.s3config = s3config;
         this.awsCredentialsProvider = awsCredentialsProvider;
         this.s3Presigner = s3Presigner;
         this.gifThumbnail = gifThumbnail;
         this.photoThumbnail = photoThumbnail;
+        this.s3MultipartUploader = s3MultipartUploader;
+        this.thumbnailCache = thumbnailCache;
+        this.presignedUrlCache = presignedUrlCache;
+        this.s3BatchDeleter = s3BatchDeleter;
+        this.deleteObjectBatcher = deleteObjectBatcher;
     }
 
     @PreDestroy
@@ -68,11 +92,8 @@ public class S3FileUploadService implements S3Service {
     public Mono<String> uploadFile(Flux<ByteBuffer> body, String prefixPath, String fileName, MediaType mediaType,
                                    long length, ObjectCannedACL acl, LocalDateTime localDateTime) {
         LOG.info("uploadFile with fileName: {}", fileName);
-        String extension = ImageUtil.getFileFormat(mediaType, fileName);
-
-
-        String fileKey = prefixPath+localDateTime + "." + extension;
-        LOG.info("extension: {}, fileKey: {}, mediaType.toString: {}", extension, fileKey, mediaType.toString());
+        String fileKey = ImageUtil.getFileKey(prefixPath, fileName, mediaType, localDateTime);
+        LOG.info("fileKey: {}, mediaType.toString: {}", fileKey, mediaType.toString());
 
         LOG.debug("accessKeyId: {}, secretAccessKey: {}, endpoint: {}, region: {}, bucket: {}",
                 s3config.getAccessKeyId(), s3config.getSecretAccessKey(),
@@ -81,12 +102,24 @@ public class S3FileUploadService implements S3Service {
         LOG.info("length: {}", length);
 
         Map<String, String> metadata = new HashMap<>();
-        metadata.put("Content-Length", ""+length);
+        if (length >= 0) {
+            metadata.put("Content-Length", ""+length);
+        }
         metadata.put("Content-Type",mediaType.toString());
         metadata.put("x-amz-acl", acl.toString());
 
         LOG.info("s3Client: {}", s3client);
 
+        if (length < 0) {
+            LOG.info("length is unknown, stream the upload in parts");
+            return s3MultipartUploader.uploadUnknownLength(body, fileKey, mediaType, acl, metadata);
+        }
+
+        if (length > s3config.getMultipartThreshold()) {
+            LOG.info("length {} is over multipart threshold {}, use multipart upload", length, s3config.getMultipartThreshold());
+            return s3MultipartUploader.upload(body, fileKey, mediaType, acl, metadata);
+        }
+
         CompletableFuture future = s3client
                 .putObject(PutObjectRequest.builder()
                                 .bucket(s3config.getBucket())
@@ -138,7 +171,7 @@ public class S3FileUploadService implements S3Service {
                 ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
                 Flux<ByteBuffer> byteBufferFlux = Flux.just(byteBuffer);
 
-                return uploadFile(byteBufferFlux, thumbnailPrefixPath, fileName, MediaType.IMAGE_JPEG, bytes.length, acl, localDateTime);
+                return uploadFile(byteBufferFlux, thumbnailPrefixPath, fileName, MediaType.IMAGE_GIF, bytes.length, acl, localDateTime);
             });
         }
         catch (Exception e) {
@@ -150,25 +183,333 @@ public class S3FileUploadService implements S3Service {
 
     }
 
+    @Override
+    public Mono<String> createPhotoThumbnail(LocalDateTime localDateTime, final ThumbnailSource thumbnailSource,
+                                             final String prefixPath, ObjectCannedACL acl,
+                                             final String fileName, MediaType mediaType,
+                                             Dimension thumbnail) {
+        LOG.info("Create thumbnail for photo from upload of {} bytes", thumbnailSource.size());
+
+        return uploadThumbnail(thumbnailSource, thumbnail, getPhotoVariant(mediaType),
+                () -> photoThumbnail.getByteArrayOutputStream(thumbnailSource, thumbnail, mediaType),
+                localDateTime, prefixPath, acl, fileName, mediaType);
+    }
+
+    @Override
+    public Mono<String> createGif(LocalDateTime localDateTime, final ThumbnailSource thumbnailSource,
+                                  final String prefixPath, ObjectCannedACL acl,
+                                  final String fileName, MediaType mediaType,
+                                  Dimension dimension) {
+        LOG.info("Create gif for video from upload of {} bytes", thumbnailSource.size());
+
+        return uploadThumbnail(thumbnailSource, dimension, getVideoPreviewVariant(S3ClientConfigurationProperties.VideoPreviewFormat.GIF),
+                () -> gifThumbnail.getByteArrayOutputStream(thumbnailSource, dimension, mediaType),
+                localDateTime, prefixPath, acl, fileName, MediaType.IMAGE_GIF);
+    }
+
+    @Override
+    public Mono<String> createVideoPreview(LocalDateTime localDateTime, final URL presignedUrl,
+                                           final String prefixPath, ObjectCannedACL acl,
+                                           final String fileName, MediaType mediaType,
+                                           Dimension dimension) {
+        final S3ClientConfigurationProperties.VideoPreviewFormat previewFormat = s3config.getVideoPreviewFormat();
+
+        switch (previewFormat) {
+            case POSTER -> {
+                LOG.info("Create poster frame for video presignedUrl: {}", presignedUrl);
+                return uploadThumbnail(gifThumbnail.getPoster(presignedUrl, dimension), localDateTime, prefixPath, acl,
+                        fileName, MediaType.IMAGE_JPEG);
+            }
+            case MP4, WEBM -> {
+                LOG.info("Create {} preview clip for video presignedUrl: {}", previewFormat, presignedUrl);
+                return uploadThumbnail(gifThumbnail.getClip(presignedUrl, dimension, previewFormat), localDateTime,
+                        prefixPath, acl, getClipFileName(fileName, previewFormat), getClipMediaType(previewFormat));
+            }
+            default -> {
+                return createGif(localDateTime, presignedUrl, prefixPath, acl, fileName, mediaType, dimension);
+            }
+        }
+    }
+
+    @Override
+    public Mono<String> createVideoPreview(LocalDateTime localDateTime, final ThumbnailSource thumbnailSource,
+                                           final String prefixPath, ObjectCannedACL acl,
+                                           final String fileName, MediaType mediaType,
+                                           Dimension dimension) {
+        final S3ClientConfigurationProperties.VideoPreviewFormat previewFormat = s3config.getVideoPreviewFormat();
+
+        switch (previewFormat) {
+            case POSTER -> {
+                LOG.info("Create poster frame for video from upload of {} bytes", thumbnailSource.size());
+                return uploadThumbnail(thumbnailSource, dimension, getVideoPreviewVariant(previewFormat),
+                        () -> gifThumbnail.getPoster(thumbnailSource, dimension), localDateTime, prefixPath, acl,
+                        fileName, MediaType.IMAGE_JPEG);
+            }
+            case MP4, WEBM -> {
+                LOG.info("Create {} preview clip for video from upload of {} bytes", previewFormat, thumbnailSource.size());
+                return uploadThumbnail(thumbnailSource, dimension, getVideoPreviewVariant(previewFormat),
+                        () -> gifThumbnail.getClip(thumbnailSource, dimension, previewFormat), localDateTime,
+                        prefixPath, acl, getClipFileName(fileName, previewFormat), getClipMediaType(previewFormat));
+            }
+            default -> {
+                return createGif(localDateTime, thumbnailSource, prefixPath, acl, fileName, mediaType, dimension);
+            }
+        }
+    }
+
+    /**
+     * the cache variant of a photo thumbnail, its format and the resampler that scaled it.
+     */
+    private String getPhotoVariant(MediaType mediaType) {
+        return mediaType.getSubtype() + "-" + s3config.getThumbnailResampler();
+    }
+
+    /**
+     * the cache variant of a video preview, its format and the settings that change its output, so a preview
+     * cached before a setting changed is not used after.
+     */
+    private String getVideoPreviewVariant(S3ClientConfigurationProperties.VideoPreviewFormat previewFormat) {
+        return switch (previewFormat) {
+            case POSTER -> previewFormat.name();
+            case MP4, WEBM -> previewFormat + "-" + s3config.getVideoPreviewSeconds() + "s-"
+                    + s3config.getVideoPreviewBitrate();
+            default -> s3config.getVideoFrameSelection() == S3ClientConfigurationProperties.FrameSelection.KEYFRAME
+                    ? "gif-keyframe-" + s3config.getVideoPreviewFrameCount() : "gif-sequential";
+        };
+    }
+
+    private MediaType getClipMediaType(S3ClientConfigurationProperties.VideoPreviewFormat previewFormat) {
+        return previewFormat == S3ClientConfigurationProperties.VideoPreviewFormat.WEBM
+                ? MediaType.valueOf("video/webm") : MediaType.valueOf("video/mp4");
+    }
+
+    /**
+     * the file key extension comes from the file name for a video, so give the clip its own extension.
+     */
+    private String getClipFileName(String fileName, S3ClientConfigurationProperties.VideoPreviewFormat previewFormat) {
+        final String extension = previewFormat == S3ClientConfigurationProperties.VideoPreviewFormat.WEBM ? "webm" : "mp4";
+        final int dot = fileName.lastIndexOf('.');
+        return (dot > 0 ? fileName.substring(0, dot) : fileName) + "." + extension;
+    }
+
+    @Override
+    public Mono<List<String>> createPhotoThumbnails(LocalDateTime localDateTime, final URL presignedUrl,
+                                                    final String prefixPath, ObjectCannedACL acl,
+                                                    final String fileName, MediaType mediaType,
+                                                    List<Dimension> thumbnails) {
+        LOG.info("Create {} thumbnails for photo presignedUrl: {}", thumbnails.size(), presignedUrl);
+
+        return uploadThumbnails(photoThumbnail.getByteArrayOutputStreams(presignedUrl, thumbnails, mediaType), thumbnails,
+                localDateTime, prefixPath, acl, fileName, mediaType);
+    }
+
+    @Override
+    public Mono<List<String>> createPhotoThumbnails(LocalDateTime localDateTime, final ThumbnailSource thumbnailSource,
+                                                    final String prefixPath, ObjectCannedACL acl,
+                                                    final String fileName, MediaType mediaType,
+                                                    List<Dimension> thumbnails) {
+        LOG.info("Create {} thumbnails for photo from upload of {} bytes", thumbnails.size(), thumbnailSource.size());
+
+        if (!thumbnailCache.isEnabled()) {
+            return uploadThumbnails(photoThumbnail.getByteArrayOutputStreams(thumbnailSource, thumbnails, mediaType), thumbnails,
+                    localDateTime, prefixPath, acl, fileName, mediaType);
+        }
+
+        List<String> cacheKeys = new ArrayList<>();
+        for (Dimension thumbnail : thumbnails) {
+            cacheKeys.add(ThumbnailCache.getCacheKey(thumbnailSource.getContentHash(), thumbnail, getPhotoVariant(mediaType)));
+        }
+
+        // the sizes come from a single decode, so only skip it when every size is cached
+        return Flux.fromIterable(cacheKeys)
+                .concatMap(this::getCachedThumbnail)
+                .collectList()
+                .flatMap(cachedThumbnails -> {
+                    if (cachedThumbnails.stream().allMatch(Optional::isPresent)) {
+                        return Flux.range(0, thumbnails.size())
+                                .flatMapSequential(index -> uploadCachedThumbnail(cachedThumbnails.get(index).get(),
+                                        cacheKeys.get(index), localDateTime, getThumbnailPrefixPath(prefixPath, thumbnails.get(index)),
+                                        acl, fileName, mediaType))
+                                .collectList();
+                    }
+                    return photoThumbnail.getByteArrayOutputStreams(thumbnailSource, thumbnails, mediaType)
+                            .flatMap(byteArrayOutputStreams -> Flux.range(0, byteArrayOutputStreams.size())
+                                    .flatMapSequential(index -> cacheAndUploadThumbnail(byteArrayOutputStreams.get(index).toByteArray(),
+                                            cacheKeys.get(index), localDateTime, getThumbnailPrefixPath(prefixPath, thumbnails.get(index)),
+                                            acl, fileName, mediaType))
+                                    .collectList());
+                });
+    }
+
+    private Mono<String> uploadThumbnail(Mono<ByteArrayOutputStream> byteArrayOutputStreamMono, LocalDateTime localDateTime,
+                                         final String prefixPath, ObjectCannedACL acl, final String fileName,
+                                         MediaType mediaType) {
+        final String thumbnailPrefixPath = prefixPath + "thumbnail/";
+
+        return byteArrayOutputStreamMono.flatMap(byteArrayOutputStream ->
+                uploadThumbnail(byteArrayOutputStream, localDateTime, thumbnailPrefixPath, acl, fileName, mediaType));
+    }
+
+    /**
+     * upload the thumbnails in parallel, each size under its own prefixPath/thumbnail/<width>x<height>/ path.
+     */
+    private Mono<List<String>> uploadThumbnails(Mono<List<ByteArrayOutputStream>> byteArrayOutputStreamsMono,
+                                                List<Dimension> thumbnails, LocalDateTime localDateTime,
+                                                final String prefixPath, ObjectCannedACL acl, final String fileName,
+                                                MediaType mediaType) {
+        return byteArrayOutputStreamsMono.flatMap(byteArrayOutputStreams -> Flux.range(0, byteArrayOutputStreams.size())
+                .flatMapSequential(index -> uploadThumbnail(byteArrayOutputStreams.get(index), localDateTime,
+                        getThumbnailPrefixPath(prefixPath, thumbnails.get(index)), acl, fileName, mediaType))
+                .collectList());
+    }
+
+    private String getThumbnailPrefixPath(String prefixPath, Dimension thumbnail) {
+        return prefixPath + "thumbnail/" + thumbnail.width + "x" + thumbnail.height + "/";
+    }
+
+    /**
+     * upload the thumbnail of the source from the thumbnail cache when the same content was seen before,
+     * otherwise create it with the supplier and cache it.  Only a thumbnail the supplier completed is cached, an error
+     * or an empty thumbnail fails the upload so the next upload of the same content creates it again.
+     * @param variant what is created, like the format, part of the cache key
+     */
+    private Mono<String> uploadThumbnail(ThumbnailSource thumbnailSource, Dimension dimension, String variant,
+                                         Supplier<Mono<ByteArrayOutputStream>> thumbnailSupplier,
+                                         LocalDateTime localDateTime, final String prefixPath, ObjectCannedACL acl,
+                                         final String fileName, MediaType mediaType) {
+        if (!thumbnailCache.isEnabled()) {
+            return uploadThumbnail(thumbnailSupplier.get(), localDateTime, prefixPath, acl, fileName, mediaType);
+        }
+        final String thumbnailPrefixPath = prefixPath + "thumbnail/";
+        final String cacheKey = ThumbnailCache.getCacheKey(thumbnailSource.getContentHash(), dimension, variant);
+
+        return getCachedThumbnail(cacheKey).flatMap(cachedThumbnail -> cachedThumbnail
+                .map(cached -> uploadCachedThumbnail(cached, cacheKey, localDateTime, thumbnailPrefixPath, acl, fileName, mediaType))
+                .orElseGet(() -> thumbnailSupplier.get()
+                        .filter(byteArrayOutputStream -> byteArrayOutputStream.size() > 0)
+                        .switchIfEmpty(Mono.error(() -> new IllegalStateException("thumbnail is empty, not cached: " + cacheKey)))
+                        .flatMap(byteArrayOutputStream -> cacheAndUploadThumbnail(byteArrayOutputStream.toByteArray(),
+                                cacheKey, localDateTime, thumbnailPrefixPath, acl, fileName, mediaType))));
+    }
+
+    private Mono<Optional<ThumbnailCache.CachedThumbnail>> getCachedThumbnail(String cacheKey) {
+        return Mono.fromCallable(() -> thumbnailCache.get(cacheKey))
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(throwable -> {
+                    LOG.error("failed to read cached thumbnail {}", cacheKey, throwable);
+                    return Mono.just(Optional.empty());
+                });
+    }
+
+    private Mono<String> cacheAndUploadThumbnail(byte[] bytes, String cacheKey, LocalDateTime localDateTime,
+                                                 final String thumbnailPrefixPath, ObjectCannedACL acl,
+                                                 final String fileName, MediaType mediaType) {
+        return Mono.fromCallable(() -> {
+                    thumbnailCache.put(cacheKey, bytes);
+                    return cacheKey;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .onErrorResume(throwable -> {
+                    LOG.error("failed to cache thumbnail {}", cacheKey, throwable);
+                    return Mono.just(cacheKey);
+                })
+                .flatMap(key -> uploadThumbnail(bytes, localDateTime, thumbnailPrefixPath, acl, fileName, mediaType))
+                .doOnNext(fileKey -> thumbnailCache.putObjectKey(cacheKey, fileKey));
+    }
+
+    /**
+     * copy the object the thumbnail was last stored as, or upload the cached bytes when that is not known or
+     * the object is gone.
+     */
+    private Mono<String> uploadCachedThumbnail(ThumbnailCache.CachedThumbnail cachedThumbnail, String cacheKey,
+                                               LocalDateTime localDateTime, final String thumbnailPrefixPath,
+                                               ObjectCannedACL acl, final String fileName, MediaType mediaType) {
+        Mono<String> upload = Mono.defer(() -> uploadThumbnail(cachedThumbnail.bytes(), localDateTime, thumbnailPrefixPath,
+                        acl, fileName, mediaType))
+                .doOnNext(fileKey -> thumbnailCache.putObjectKey(cacheKey, fileKey));
+
+        if (cachedThumbnail.objectKey() == null) {
+            return upload;
+        }
+        final String fileKey = ImageUtil.getFileKey(thumbnailPrefixPath, fileName, mediaType, localDateTime);
+        LOG.info("copy cached thumbnail from key: {} to key: {}", cachedThumbnail.objectKey(), fileKey);
+
+        return Mono.fromFuture(s3client.copyObject(CopyObjectRequest.builder()
+                        .sourceBucket(s3config.getBucket())
+                        .sourceKey(cachedThumbnail.objectKey())
+                        .destinationBucket(s3config.getBucket())
+                        .destinationKey(fileKey)
+                        .acl(acl)
+                        .build()))
+                .map(response -> {
+                    if (response.sdkHttpResponse() == null || !response.sdkHttpResponse().isSuccessful()) {
+                        throw new RuntimeException("failed to copy thumbnail from key: " + cachedThumbnail.objectKey());
+                    }
+                    return fileKey;
+                })
+                .onErrorResume(throwable -> {
+                    LOG.warn("failed to copy cached thumbnail from key: {}, upload it instead: {}",
+                            cachedThumbnail.objectKey(), throwable.getMessage());
+                    thumbnailCache.removeObjectKey(cacheKey);
+                    return upload;
+                });
+    }
+
+    private Mono<String> uploadThumbnail(ByteArrayOutputStream byteArrayOutputStream, LocalDateTime localDateTime,
+                                         final String thumbnailPrefixPath, ObjectCannedACL acl, final String fileName,
+                                         MediaType mediaType) {
+        return uploadThumbnail(byteArrayOutputStream.toByteArray(), localDateTime, thumbnailPrefixPath, acl, fileName, mediaType);
+    }
+
+    private Mono<String> uploadThumbnail(byte[] bytes, LocalDateTime localDateTime,
+                                         final String thumbnailPrefixPath, ObjectCannedACL acl, final String fileName,
+                                         MediaType mediaType) {
+        ByteBuffer byteBuffer = ByteBuffer.wrap(bytes);
+        Flux<ByteBuffer> byteBufferFlux = Flux.just(byteBuffer);
+        return uploadFile(byteBufferFlux, thumbnailPrefixPath, fileName, mediaType, bytes.length, acl, localDateTime);
+    }
+
     @Override
     public Mono<URL> createPresignedUrl(Mono<String> fileKeyMono) {
         LOG.info("create presignurl for key");
         LOG.info("s3Client: {}", s3client);
 
-        return fileKeyMono.flatMap(fileKey -> {
+        return fileKeyMono.map(this::presign);
+    }
 
-            GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(s3config.getBucket()).key(fileKey).build();
+    @Override
+    public Flux<PresignedUrl> createPresignedUrls(Flux<String> fileKeys) {
+        LOG.info("create presignurls with parallelism: {}", s3config.getPresignParallelism());
+
+        return fileKeys
+                .parallel(s3config.getPresignParallelism())
+                .runOn(Schedulers.parallel())
+                .map(fileKey -> new PresignedUrl(fileKey, presign(fileKey)))
+                .sequential();
+    }
 
-            GetObjectPresignRequest getObjectPresignRequest = GetObjectPresignRequest.builder().
-                    signatureDuration(Duration.ofMinutes(s3config.getPresignDurationInMinutes()))
-                    .getObjectRequest(getObjectRequest).build();
+    /**
+     * sign a get of the key, or return the cached url of the key.  Signing is cpu only so it runs on the calling thread.
+     */
+    private URL presign(String fileKey) {
+        Optional<URL> cachedUrl = presignedUrlCache.get(fileKey);
+        if (cachedUrl.isPresent()) {
+            LOG.debug("use cached presigned url for key: {}", fileKey);
+            return cachedUrl.get();
+        }
 
-            PresignedGetObjectRequest presignedGetObjectRequest =
-                    s3Presigner.presignGetObject(getObjectPresignRequest);
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder().bucket(s3config.getBucket()).key(fileKey).build();
 
-            LOG.info("Presigned URL: {}", presignedGetObjectRequest.url());
-            return Mono.just(presignedGetObjectRequest.url());
-        });
+        GetObjectPresignRequest getObjectPresignRequest = GetObjectPresignRequest.builder().
+                signatureDuration(Duration.ofMinutes(s3config.getPresignDurationInMinutes()))
+                .getObjectRequest(getObjectRequest).build();
+
+        PresignedGetObjectRequest presignedGetObjectRequest =
+                s3Presigner.presignGetObject(getObjectPresignRequest);
+
+        LOG.debug("Presigned URL: {}", presignedGetObjectRequest.url());
+        presignedUrlCache.put(fileKey, presignedGetObjectRequest.url(), presignedGetObjectRequest.expiration());
+        return presignedGetObjectRequest.url();
     }
 
     /**
@@ -178,26 +519,32 @@ public class S3FileUploadService implements S3Service {
      * @return
      */
     @Override
-    public Mono<String> deleteFolder(String prefix) {
+    public Mono<DeleteResult> deleteFolder(String prefix) {
         LOG.info("delete s3 using a prefix {}", prefix);
+        return s3BatchDeleter.delete(prefix);
+    }
 
-        CompletableFuture<ListObjectsResponse> listObjectsResponseCompletableFuture =
-                s3client.listObjects(ListObjectsRequest.builder().bucket(s3config.getBucket()).prefix(prefix).build());
-
-        return Mono.fromFuture(listObjectsResponseCompletableFuture).map(response -> {
-            LOG.info("contents: {}", response.contents());
-
-            List<S3Object> list = response.contents();
-            for (S3Object s3Object : list) {
-                LOG.info("found s3 object");
-                deleteObject(s3Object.key()).doOnNext(s -> LOG.info("response for delete is {}", s));
-            }
-            return "deleted "+ list.size() + " objects";
-        });
+    /**
+     * the body is not read until the publisher is subscribed, it is then read as fast as the subscriber requests it.
+     */
+    @Override
+    public Mono<ResponsePublisher<GetObjectResponse>> getObject(String key, String range, String ifNoneMatch, String ifMatch) {
+        GetObjectRequest getObjectRequest = GetObjectRequest.builder()
+                .bucket(s3config.getBucket())
+                .key(key)
+                .range(range)
+                .ifNoneMatch(ifNoneMatch)
+                .ifMatch(ifMatch)
+                .build();
+
+        return Mono.fromFuture(() -> s3client.getObject(getObjectRequest, AsyncResponseTransformer.toPublisher()));
     }
 
     @Override
     public Mono<String> deleteObject(String key) {
+        if (s3config.isDeleteCoalescing()) {
+            return deleteObjectBatcher.delete(key);
+        }
 
         CompletableFuture<DeleteObjectResponse> cf = s3client.deleteObject
                 (DeleteObjectRequest.builder().bucket(s3config.getBucket()).key(key).build());
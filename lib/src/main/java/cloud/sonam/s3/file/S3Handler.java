@@ -4,41 +4,88 @@ import cloud.sonam.s3.config.S3ClientConfigurationProperties;
 import cloud.sonam.s3.file.util.ImageUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.core.ParameterizedTypeReference;
 import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.codec.multipart.FilePart;
 import org.springframework.http.codec.multipart.Part;
 import org.springframework.stereotype.Service;
 import org.springframework.web.reactive.function.BodyExtractors;
+import org.springframework.web.reactive.function.BodyInserters;
 import org.springframework.web.reactive.function.server.ServerRequest;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchKeyException;
 import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
+import javax.imageio.ImageIO;
 import java.awt.*;
 import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Optional;
 import java.util.OptionalLong;
+import java.util.UUID;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @Service
 public class S3Handler implements S3WebRequestHandler, S3ServiceHandler {
     private static final Logger LOG = LoggerFactory.getLogger(S3Handler.class);
 
+    private static final ParameterizedTypeReference<List<String>> KEY_LIST = new ParameterizedTypeReference<>() {};
+
+    // set to skipped when the upload is stored without its thumbnail
+    public static final String THUMBNAIL_STATUS_HEADER = "X-Thumbnail-Status";
+
+    // buffers read ahead of the thumbnail source writes, keeps the memory of a tee small
+    private static final int TEE_PREFETCH = 16;
+
     private final S3Service s3Service;
 
     private final S3ClientConfigurationProperties s3ClientConfigurationProperties;
 
-    public S3Handler(S3Service s3Service, S3ClientConfigurationProperties s3ClientConfigurationProperties) {
+    private final ResumableUploadService resumableUploadService;
+
+    private final ThumbnailJobQueue thumbnailJobQueue;
+
+    private final RenditionService renditionService;
+
+    private final DirectUploadService directUploadService;
+
+    private final DeleteJobQueue deleteJobQueue;
+
+    private final ThumbnailExecutor thumbnailExecutor;
+
+    public S3Handler(S3Service s3Service, S3ClientConfigurationProperties s3ClientConfigurationProperties,
+                     ResumableUploadService resumableUploadService, ThumbnailJobQueue thumbnailJobQueue,
+                     RenditionService renditionService, DirectUploadService directUploadService,
+                     DeleteJobQueue deleteJobQueue, ThumbnailExecutor thumbnailExecutor) {
         this.s3Service = s3Service;
         this.s3ClientConfigurationProperties = s3ClientConfigurationProperties;
+        this.resumableUploadService = resumableUploadService;
+        this.thumbnailJobQueue = thumbnailJobQueue;
+        this.renditionService = renditionService;
+        this.directUploadService = directUploadService;
+        this.deleteJobQueue = deleteJobQueue;
+        this.thumbnailExecutor = thumbnailExecutor;
     }
 
 
     public Mono<ServerResponse> upload(ServerRequest serverRequest) {
         Dimension thumbnailDimension = getDimension(serverRequest);
+        List<Dimension> thumbnailSizes = getThumbnailSizes(serverRequest);
 
         LOG.info("got a request for upload");
 
@@ -70,53 +117,90 @@ public class S3Handler implements S3WebRequestHandler, S3ServiceHandler {
                         folder = serverRequest.queryParam("folder").get() + "/";
                         LOG.info("user specified a additional path/folder name: {}", folder);
                     }
-                    String aclValue = serverRequest.headers().firstHeader("acl");
-
-                    ObjectCannedACL acl = ObjectCannedACL.PRIVATE;
-                    if (aclValue == null) {
-                        LOG.warn("no acl value supplied, set to private by default");
-                    } else {
-                        acl = ObjectCannedACL.fromValue(aclValue);
-                    }
+                    ObjectCannedACL acl = getAcl(serverRequest);
                     LOG.info("fileName: {}, fileFormat: {}, fileSize: {}", fileName, fileFormat, fileSize);
                     Flux<ByteBuffer> byteBufferFlux = filePart.content().flatMapSequential(dataBuffer -> Flux.fromIterable(dataBuffer::readableByteBuffers));
 
-                    return upload(byteBufferFlux, uploadType, fileName, contentType, fileSize, folder, acl, thumbnailDimension);
+                    return upload(byteBufferFlux, uploadType, fileName, contentType, fileSize, folder, acl,
+                            thumbnailDimension, thumbnailSizes);
                 });
     }
 
     public Mono<ServerResponse> upload(Flux<ByteBuffer> byteBufferFlux, final String uploadType, final String fileName,
                                        final MediaType mediaType, final long fileContentLength, final String folder,
                                        ObjectCannedACL acl, Dimension thumbnail) {
+        return upload(byteBufferFlux, uploadType, fileName, mediaType, fileContentLength, folder, acl, thumbnail, List.of());
+    }
+
+    /**
+     * @param thumbnailSizes when not empty a photo gets a thumbnail for each size instead of the single thumbnail
+     *                       and the response is the list of thumbnail keys
+     */
+    public Mono<ServerResponse> upload(Flux<ByteBuffer> byteBufferFlux, final String uploadType, final String fileName,
+                                       final MediaType mediaType, final long fileContentLength, final String folder,
+                                       ObjectCannedACL acl, Dimension thumbnail, List<Dimension> thumbnailSizes) {
         LOG.info("upload file of type: {}", uploadType);
         LocalDateTime localDateTime = LocalDateTime.now();
 
+        if (uploadType.equalsIgnoreCase("photo") && !s3ClientConfigurationProperties.isEagerThumbnails()) {
+            String prefixPath = getPrefixPath(uploadType, folder);
+
+            // thumbnails are rendered on request by getRendition
+            return s3Service.uploadFile(byteBufferFlux, prefixPath, fileName, mediaType, fileContentLength, acl, localDateTime)
+                    .doOnNext(s -> LOG.info("photo upload done without thumbnail."))
+                    .flatMap(s -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+                    .onErrorResume(throwable -> ServerResponse.badRequest()
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(throwable.getMessage()));
+        }
         if (uploadType.equalsIgnoreCase("video") || uploadType.equalsIgnoreCase("photo")) {
 
+            if (s3ClientConfigurationProperties.isThumbnailAsync()) {
+                return uploadWithThumbnailJob(byteBufferFlux, uploadType, fileName, mediaType, fileContentLength,
+                        getPrefixPath(uploadType, folder), acl, thumbnail, localDateTime);
+            }
+            if (!thumbnailExecutor.hasCapacity()) {
+                // answer before the upload is stored so a retry does not store it twice
+                LOG.warn("thumbnail executor is busy, reject the {} upload", uploadType);
+                return ServerResponse.status(HttpStatus.SERVICE_UNAVAILABLE).contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue("thumbnail executor is busy, try again later");
+            }
             if (uploadType.equals("video")) {
                 final String prefixPath = s3ClientConfigurationProperties.getRootPath() + s3ClientConfigurationProperties.getVideoPath() + folder;
 
-                return s3Service.uploadFile(byteBufferFlux, prefixPath, fileName, mediaType, fileContentLength, acl, localDateTime)
-                    .doOnNext(s -> LOG.info("Video upload done, creating video thumbnail next."))
-                        .flatMap(fileKey -> s3Service.createPresignedUrl(Mono.just(fileKey)))
-                        .doOnNext(presignedUrl -> LOG.info("presigned url: {}", presignedUrl))
-                        .flatMap(presigneUrl -> s3Service.createGif(localDateTime, presigneUrl, prefixPath, acl, fileName, mediaType, thumbnail))
-                        .doOnNext(s -> LOG.info("Video thumbnail done."))
-                        .flatMap(s -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+                // the upload is teed into a spill file so the preview is created without downloading the video again
+                return Mono.using(() -> ThumbnailSource.create(0, getThumbnailSpillDirectory(),
+                                        s3ClientConfigurationProperties.isThumbnailCacheEnabled()),
+                                thumbnailSource -> s3Service.uploadFile(tee(byteBufferFlux, thumbnailSource),
+                                                prefixPath, fileName, mediaType, fileContentLength, acl, localDateTime)
+                                        .doOnNext(s -> LOG.info("Video upload done, creating video preview next."))
+                                        .flatMap(fileKey -> s3Service.createVideoPreview(localDateTime, thumbnailSource, prefixPath, acl, fileName, mediaType, thumbnail)
+                                                .doOnNext(s -> LOG.info("Video thumbnail done."))
+                                                .flatMap(s -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+                                                .onErrorResume(RejectedExecutionException.class, e -> thumbnailSkipped(fileKey, e))),
+                                ThumbnailSource::close)
                         .onErrorResume(throwable -> ServerResponse.badRequest()
                                 .contentType(MediaType.APPLICATION_JSON)
                                 .bodyValue(throwable.getMessage()));
             }
+            else if (!thumbnailSizes.isEmpty()) {
+                return uploadPhotoWithThumbnails(byteBufferFlux, fileName, mediaType, fileContentLength,
+                        getPrefixPath(uploadType, folder), acl, thumbnailSizes, localDateTime);
+            }
             else {
                 final String prefixPath = s3ClientConfigurationProperties.getRootPath() + s3ClientConfigurationProperties.getPhotoPath() + folder;
 
-                return s3Service.uploadFile(byteBufferFlux, prefixPath, fileName, mediaType, fileContentLength, acl, localDateTime)
-                        .doOnNext(s -> LOG.info("photo upload done, creating photo thumbnail next."))
-                        .flatMap(fileKey -> s3Service.createPresignedUrl(Mono.just(fileKey)))
-                        .doOnNext(presignedUrl -> LOG.info("presigned url: {}", presignedUrl))
-                        .flatMap(presignedUrl -> s3Service.createPhotoThumbnail(localDateTime, presignedUrl, prefixPath, acl, fileName, mediaType, thumbnail))
-                        .doOnNext(s -> LOG.info("Photo thumbnail done."))
-                        .flatMap(s -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+                // the upload is teed into memory (or a spill file for a large photo) for the thumbnail
+                return Mono.using(() -> ThumbnailSource.create(s3ClientConfigurationProperties.getThumbnailSourceMemoryLimit(),
+                                        getThumbnailSpillDirectory(), s3ClientConfigurationProperties.isThumbnailCacheEnabled()),
+                                thumbnailSource -> s3Service.uploadFile(tee(byteBufferFlux, thumbnailSource),
+                                                prefixPath, fileName, mediaType, fileContentLength, acl, localDateTime)
+                                        .doOnNext(s -> LOG.info("photo upload done, creating photo thumbnail next."))
+                                        .flatMap(fileKey -> s3Service.createPhotoThumbnail(localDateTime, thumbnailSource, prefixPath, acl, fileName, mediaType, thumbnail)
+                                                .doOnNext(s -> LOG.info("Photo thumbnail done."))
+                                                .flatMap(s -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+                                                .onErrorResume(RejectedExecutionException.class, e -> thumbnailSkipped(fileKey, e))),
+                                ThumbnailSource::close)
                         .onErrorResume(throwable -> ServerResponse.badRequest()
                                 .contentType(MediaType.APPLICATION_JSON)
                                 .bodyValue(throwable.getMessage()));
@@ -137,6 +221,76 @@ public class S3Handler implements S3WebRequestHandler, S3ServiceHandler {
         }
     }
 
+    /**
+     * store the photo and create a thumbnail for each size from a single decode, the response is the list of
+     * thumbnail keys.
+     */
+    private Mono<ServerResponse> uploadPhotoWithThumbnails(Flux<ByteBuffer> byteBufferFlux, final String fileName,
+                                                           final MediaType mediaType, final long fileContentLength,
+                                                           final String prefixPath, ObjectCannedACL acl,
+                                                           List<Dimension> thumbnailSizes, LocalDateTime localDateTime) {
+        return Mono.using(() -> ThumbnailSource.create(s3ClientConfigurationProperties.getThumbnailSourceMemoryLimit(),
+                                getThumbnailSpillDirectory(), s3ClientConfigurationProperties.isThumbnailCacheEnabled()),
+                        thumbnailSource -> s3Service.uploadFile(tee(byteBufferFlux, thumbnailSource),
+                                        prefixPath, fileName, mediaType, fileContentLength, acl, localDateTime)
+                                .doOnNext(s -> LOG.info("photo upload done, creating {} photo thumbnails next.", thumbnailSizes.size()))
+                                .flatMap(fileKey -> s3Service.createPhotoThumbnails(localDateTime, thumbnailSource, prefixPath,
+                                                acl, fileName, mediaType, thumbnailSizes)
+                                        .doOnNext(keys -> LOG.info("Photo thumbnails done: {}", keys))
+                                        .flatMap(keys -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(keys))
+                                        .onErrorResume(RejectedExecutionException.class, e -> thumbnailSkipped(fileKey, e))),
+                        ThumbnailSource::close)
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    /**
+     * the thumbnail executor filled up while the upload was stored.  The response is the fileKey of the stored
+     * object with the thumbnail marked as skipped, so the client does not retry and store the upload again.
+     */
+    private Mono<ServerResponse> thumbnailSkipped(String fileKey, RejectedExecutionException e) {
+        LOG.warn("thumbnail skipped for fileKey: {}, {}", fileKey, e.getMessage());
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON)
+                .header(THUMBNAIL_STATUS_HEADER, "skipped")
+                .bodyValue(fileKey);
+    }
+
+    /**
+     * store the upload and queue its thumbnail, the response is the fileKey of the stored object.
+     * The upload is teed into a spill file that the thumbnail job reads and then deletes.  The spill file is created
+     * on subscribe and deleted here unless the job was queued, then the queue owns it.
+     */
+    private Mono<ServerResponse> uploadWithThumbnailJob(Flux<ByteBuffer> byteBufferFlux, final String uploadType,
+                                                        final String fileName, final MediaType mediaType,
+                                                        final long fileContentLength, final String prefixPath,
+                                                        ObjectCannedACL acl, Dimension thumbnail,
+                                                        LocalDateTime localDateTime) {
+        return Mono.defer(() -> {
+                    final AtomicBoolean queued = new AtomicBoolean();
+
+                    return Mono.using(() -> ThumbnailSource.create(0, getThumbnailSpillDirectory(),
+                                    s3ClientConfigurationProperties.isThumbnailCacheEnabled()),
+                            thumbnailSource -> s3Service.uploadFile(tee(byteBufferFlux, thumbnailSource), prefixPath,
+                                            fileName, mediaType, fileContentLength, acl, localDateTime)
+                                    .doOnNext(fileKey -> LOG.info("{} upload done, queue thumbnail job", uploadType))
+                                    .flatMap(fileKey -> thumbnailJobQueue.enqueue(new ThumbnailJob(UUID.randomUUID().toString(),
+                                                    fileKey, uploadType, prefixPath, fileName, mediaType, acl, thumbnail,
+                                                    localDateTime), thumbnailSource)
+                                            .doOnNext(status -> queued.set(true))
+                                            .thenReturn(fileKey)),
+                            thumbnailSource -> {
+                                if (!queued.get()) {
+                                    thumbnailSource.close();
+                                }
+                            });
+                })
+                .flatMap(s -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
     /**
      * this is a wrapper method to extract the filekey using a serverRequest object.
      * @param serverRequest
@@ -158,9 +312,39 @@ public class S3Handler implements S3WebRequestHandler, S3ServiceHandler {
                         .bodyValue(throwable.getMessage()));
     }
 
+    /**
+     * presign every key of the json array body in a single request.  The response is a json array of key and url
+     * that is streamed as the keys are signed, in no particular order.
+     * @param serverRequest
+     * @return
+     */
+    @Override
+    public Mono<ServerResponse> getPresignUrls(ServerRequest serverRequest) {
+        LOG.info("get presignurls");
+
+        return serverRequest.bodyToMono(KEY_LIST)
+                .flatMap(keys -> {
+                    if (keys.size() > s3ClientConfigurationProperties.getPresignBatchMaxKeys()) {
+                        return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                                .bodyValue("at most " + s3ClientConfigurationProperties.getPresignBatchMaxKeys() + " keys");
+                    }
+                    return getPresignUrls(Flux.fromIterable(keys));
+                })
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    @Override
+    public Mono<ServerResponse> getPresignUrls(Flux<String> fileKeys) {
+        return ServerResponse.ok().contentType(MediaType.APPLICATION_JSON)
+                .body(s3Service.createPresignedUrls(fileKeys), S3Service.PresignedUrl.class);
+    }
+
     /**
      * this is for deleting all objects in a prefix.  The prefix is like a path and if they contain another like folder
      * it will also delete them as objects.  So this works for objects and folder like objects too.
+     * With the async=true query param the delete runs as a background job and the response has the jobId.
      * @param serverRequest
      * @return
      */
@@ -176,6 +360,13 @@ public class S3Handler implements S3WebRequestHandler, S3ServiceHandler {
         final String prefix = serverRequest.queryParam("prefix").get();
 
         LOG.info("got prefix from queryParam: {}", prefix);
+        if (serverRequest.queryParam("async").map(Boolean::parseBoolean).orElse(false)) {
+            return deleteJobQueue.enqueue(prefix)
+                    .flatMap(status -> ServerResponse.accepted().contentType(MediaType.APPLICATION_JSON).bodyValue(status))
+                    .onErrorResume(throwable -> ServerResponse.badRequest()
+                            .contentType(MediaType.APPLICATION_JSON)
+                            .bodyValue(throwable.getMessage()));
+        }
         return s3Service.deleteFolder(prefix)
                 .flatMap(s -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(s))
                 .onErrorResume(throwable -> ServerResponse.badRequest()
@@ -183,6 +374,19 @@ public class S3Handler implements S3WebRequestHandler, S3ServiceHandler {
                         .bodyValue(throwable.getMessage()));
     }
 
+    @Override
+    public Mono<ServerResponse> getDeleteJobStatus(ServerRequest serverRequest) {
+        if (serverRequest.queryParam("jobId").isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing jobId");
+        }
+
+        return deleteJobQueue.getStatus(serverRequest.queryParam("jobId").get())
+                .flatMap(status -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(status))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
     @Override
     public Mono<ServerResponse> deleteObject(ServerRequest serverRequest) {
         LOG.info("got a request for delete s3 object by key");
@@ -202,6 +406,346 @@ public class S3Handler implements S3WebRequestHandler, S3ServiceHandler {
     }
 
 
+    /**
+     * start a resumable upload.  Requires the uploadType, fileName and contentLength query params,
+     * contentType and folder are optional.  The response has the uploadId to use for sending the ranges.
+     * @param serverRequest
+     * @return
+     */
+    @Override
+    public Mono<ServerResponse> startResumableUpload(ServerRequest serverRequest) {
+        LOG.info("got a request to start a resumable upload");
+
+        final Optional<String> optionalUploadType = serverRequest.queryParam("uploadType");
+        final Optional<String> optionalFileName = serverRequest.queryParam("fileName");
+        final Optional<String> optionalContentLength = serverRequest.queryParam("contentLength");
+
+        if (optionalUploadType.isEmpty() || optionalFileName.isEmpty() || optionalContentLength.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("uploadType, fileName and contentLength are required");
+        }
+        String folder = serverRequest.queryParam("folder").map(value -> value + "/").orElse("");
+        final String prefixPath = getPrefixPath(optionalUploadType.get(), folder);
+        if (prefixPath == null) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("upload type invalid '"+ optionalUploadType.get()+"'");
+        }
+        final MediaType mediaType = serverRequest.queryParam("contentType").map(MediaType::valueOf)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM);
+
+        return Mono.fromCallable(() -> Long.parseLong(optionalContentLength.get()))
+                .flatMap(contentLength -> resumableUploadService.start(prefixPath, optionalFileName.get(), mediaType,
+                        contentLength, getAcl(serverRequest)))
+                .flatMap(status -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(status))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    /**
+     * send a range of a resumable upload.  The range start is taken from the Content-Range header
+     * (bytes start-end/total) or the offset query param and must be at a part boundary.
+     * @param serverRequest
+     * @return
+     */
+    @Override
+    public Mono<ServerResponse> uploadResumablePart(ServerRequest serverRequest) {
+        final Optional<String> optionalUploadId = serverRequest.queryParam("uploadId");
+        if (optionalUploadId.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing uploadId");
+        }
+
+        final String contentRange = serverRequest.headers().firstHeader(HttpHeaders.CONTENT_RANGE);
+        final Optional<String> optionalOffset = contentRange != null
+                ? Optional.of(contentRange.replaceFirst("^bytes\\s+", "").split("-")[0])
+                : serverRequest.queryParam("offset");
+        if (optionalOffset.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing Content-Range or offset");
+        }
+        LOG.info("got a range at offset {} for resumable upload {}", optionalOffset.get(), optionalUploadId.get());
+
+        Flux<ByteBuffer> byteBufferFlux = serverRequest.body(BodyExtractors.toDataBuffers())
+                .flatMapSequential(dataBuffer -> Flux.fromIterable(dataBuffer::readableByteBuffers));
+
+        return Mono.fromCallable(() -> Long.parseLong(optionalOffset.get().trim()))
+                .flatMap(offset -> resumableUploadService.uploadPart(optionalUploadId.get(), offset, byteBufferFlux))
+                .flatMap(status -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(status))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    @Override
+    public Mono<ServerResponse> getResumableUploadStatus(ServerRequest serverRequest) {
+        final Optional<String> optionalUploadId = serverRequest.queryParam("uploadId");
+        if (optionalUploadId.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing uploadId");
+        }
+
+        return resumableUploadService.getStatus(optionalUploadId.get())
+                .flatMap(status -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(status))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    @Override
+    public Mono<ServerResponse> completeResumableUpload(ServerRequest serverRequest) {
+        final Optional<String> optionalUploadId = serverRequest.queryParam("uploadId");
+        if (optionalUploadId.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing uploadId");
+        }
+
+        return resumableUploadService.complete(optionalUploadId.get())
+                .flatMap(fileKey -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(fileKey))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    /**
+     * cancel a resumable upload, the parts S3 received are dropped with the multipart upload.
+     * @param serverRequest
+     * @return
+     */
+    @Override
+    public Mono<ServerResponse> abortResumableUpload(ServerRequest serverRequest) {
+        final Optional<String> optionalUploadId = serverRequest.queryParam("uploadId");
+        if (optionalUploadId.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing uploadId");
+        }
+
+        return resumableUploadService.abort(optionalUploadId.get())
+                .flatMap(fileKey -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(fileKey))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    /**
+     * start an upload that the client sends straight to the bucket.  Requires the uploadType, fileName and
+     * contentLength query params, contentType and folder are optional.  The response has the presigned url
+     * of each part, a single part is sent with the returned headers.
+     * @param serverRequest
+     * @return
+     */
+    @Override
+    public Mono<ServerResponse> startDirectUpload(ServerRequest serverRequest) {
+        LOG.info("got a request to start a direct upload");
+
+        final Optional<String> optionalUploadType = serverRequest.queryParam("uploadType");
+        final Optional<String> optionalFileName = serverRequest.queryParam("fileName");
+        final Optional<String> optionalContentLength = serverRequest.queryParam("contentLength");
+
+        if (optionalUploadType.isEmpty() || optionalFileName.isEmpty() || optionalContentLength.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("uploadType, fileName and contentLength are required");
+        }
+        String folder = serverRequest.queryParam("folder").map(value -> value + "/").orElse("");
+        final String prefixPath = getPrefixPath(optionalUploadType.get(), folder);
+        if (prefixPath == null) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("upload type invalid '"+ optionalUploadType.get()+"'");
+        }
+        final MediaType mediaType = serverRequest.queryParam("contentType").map(MediaType::valueOf)
+                .orElse(MediaType.APPLICATION_OCTET_STREAM);
+
+        return Mono.fromCallable(() -> Long.parseLong(optionalContentLength.get()))
+                .flatMap(contentLength -> directUploadService.start(optionalUploadType.get(), prefixPath,
+                        optionalFileName.get(), mediaType, contentLength, getAcl(serverRequest), getDimension(serverRequest)))
+                .flatMap(presignedUpload -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(presignedUpload))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    @Override
+    public Mono<ServerResponse> completeDirectUpload(ServerRequest serverRequest) {
+        final Optional<String> optionalUploadId = serverRequest.queryParam("uploadId");
+        if (optionalUploadId.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing uploadId");
+        }
+
+        return directUploadService.complete(optionalUploadId.get())
+                .flatMap(fileKey -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(fileKey))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    @Override
+    public Mono<ServerResponse> abortDirectUpload(ServerRequest serverRequest) {
+        final Optional<String> optionalUploadId = serverRequest.queryParam("uploadId");
+        if (optionalUploadId.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing uploadId");
+        }
+
+        return directUploadService.abort(optionalUploadId.get())
+                .flatMap(fileKey -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(fileKey))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    @Override
+    public Mono<ServerResponse> getThumbnailStatus(ServerRequest serverRequest) {
+        if (serverRequest.queryParam("key").isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing key");
+        }
+
+        return thumbnailJobQueue.getStatus(serverRequest.queryParam("key").get())
+                .flatMap(status -> ServerResponse.ok().contentType(MediaType.APPLICATION_JSON).bodyValue(status))
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    /**
+     * serve the photo at the key query param resized to fit width and height.  The format query param is optional,
+     * the format of the key is used without it.  The rendition is rendered and stored on the first request and read
+     * from the stored rendition after that.
+     * @param serverRequest
+     * @return
+     */
+    @Override
+    public Mono<ServerResponse> getRendition(ServerRequest serverRequest) {
+        final Optional<String> optionalKey = serverRequest.queryParam("key");
+        final Optional<String> optionalWidth = serverRequest.queryParam("width");
+        final Optional<String> optionalHeight = serverRequest.queryParam("height");
+
+        if (optionalKey.isEmpty() || optionalWidth.isEmpty() || optionalHeight.isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("key, width and height are required");
+        }
+        final String key = optionalKey.get();
+        String format = serverRequest.queryParam("format")
+                .orElse(key.substring(key.lastIndexOf('.') + 1)).toLowerCase();
+        if (format.equals("jpg")) {
+            format = "jpeg";
+        }
+        if (!ImageIO.getImageWritersByFormatName(format).hasNext()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON)
+                    .bodyValue("format not supported '" + format + "'");
+        }
+        final MediaType mediaType = new MediaType("image", format);
+        LOG.info("get rendition of key: {}, width: {}, height: {}, format: {}", key, optionalWidth.get(),
+                optionalHeight.get(), format);
+
+        return Mono.fromCallable(() -> new Dimension(Integer.parseInt(optionalWidth.get()), Integer.parseInt(optionalHeight.get())))
+                .flatMap(dimension -> renditionService.getRendition(key, dimension, mediaType))
+                .flatMap(rendition -> ServerResponse.ok().contentType(rendition.mediaType()).bodyValue(rendition.bytes()))
+                .onErrorResume(NoSuchKeyException.class, e -> ServerResponse.notFound().build())
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    /**
+     * stream the object at the key query param through the service.  The Range, If-None-Match and If-Match headers
+     * are passed to S3, so a range answers 206 with the Content-Range and a matching etag answers 304.  The buffers
+     * S3 reads are wrapped as they are and sent as the client requests them, so a download only holds the buffers
+     * in flight whatever the size of the object.
+     * @param serverRequest
+     * @return
+     */
+    @Override
+    public Mono<ServerResponse> download(ServerRequest serverRequest) {
+        if (serverRequest.queryParam("key").isEmpty()) {
+            return ServerResponse.badRequest().contentType(MediaType.APPLICATION_JSON).bodyValue("missing key");
+        }
+        final String key = serverRequest.queryParam("key").get();
+        final HttpHeaders requestHeaders = serverRequest.headers().asHttpHeaders();
+        LOG.info("download key: {}, range: {}", key, requestHeaders.getFirst(HttpHeaders.RANGE));
+
+        return s3Service.getObject(key, requestHeaders.getFirst(HttpHeaders.RANGE),
+                        requestHeaders.getFirst(HttpHeaders.IF_NONE_MATCH), requestHeaders.getFirst(HttpHeaders.IF_MATCH))
+                .flatMap(responsePublisher -> {
+                    final GetObjectResponse response = responsePublisher.response();
+                    Flux<DataBuffer> body = Flux.from(responsePublisher).map(DefaultDataBufferFactory.sharedInstance::wrap);
+
+                    return ServerResponse.status(response.contentRange() != null ? HttpStatus.PARTIAL_CONTENT : HttpStatus.OK)
+                            .headers(headers -> {
+                                headers.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+                                if (response.eTag() != null) {
+                                    headers.setETag(response.eTag());
+                                }
+                                if (response.contentLength() != null) {
+                                    headers.setContentLength(response.contentLength());
+                                }
+                                if (response.contentType() != null) {
+                                    headers.set(HttpHeaders.CONTENT_TYPE, response.contentType());
+                                }
+                                if (response.contentRange() != null) {
+                                    headers.set(HttpHeaders.CONTENT_RANGE, response.contentRange());
+                                }
+                                if (response.lastModified() != null) {
+                                    headers.setLastModified(response.lastModified());
+                                }
+                            })
+                            .body(BodyInserters.fromDataBuffers(body));
+                })
+                .onErrorResume(NoSuchKeyException.class, e -> ServerResponse.notFound().build())
+                .onErrorResume(S3Exception.class, e -> {
+                    // 304 not modified, 412 precondition failed and 416 range not satisfiable go back to the client
+                    if (e.statusCode() != HttpStatus.NOT_MODIFIED.value() && e.statusCode() != HttpStatus.PRECONDITION_FAILED.value()
+                            && e.statusCode() != HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE.value()) {
+                        return Mono.error(e);
+                    }
+                    return ServerResponse.status(e.statusCode())
+                            .headers(headers -> {
+                                if (e.awsErrorDetails() != null && e.awsErrorDetails().sdkHttpResponse() != null) {
+                                    e.awsErrorDetails().sdkHttpResponse().firstMatchingHeader(HttpHeaders.ETAG)
+                                            .ifPresent(headers::setETag);
+                                }
+                            })
+                            .build();
+                })
+                .onErrorResume(throwable -> ServerResponse.badRequest()
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .bodyValue(throwable.getMessage()));
+    }
+
+    /**
+     * copy the upload into the thumbnail source as it is sent.  A spill file write blocks, so the buffers are
+     * handed to a bounded elastic thread first and the event loop only reads the request.
+     */
+    private Flux<ByteBuffer> tee(Flux<ByteBuffer> byteBufferFlux, ThumbnailSource thumbnailSource) {
+        return byteBufferFlux
+                .publishOn(Schedulers.boundedElastic(), TEE_PREFETCH)
+                .doOnNext(thumbnailSource::write);
+    }
+
+    /**
+     * @return the prefix path for the upload type or null if the upload type is not valid
+     */
+    private String getPrefixPath(String uploadType, String folder) {
+        if (uploadType.equalsIgnoreCase("video")) {
+            return s3ClientConfigurationProperties.getRootPath() + s3ClientConfigurationProperties.getVideoPath() + folder;
+        }
+        else if (uploadType.equalsIgnoreCase("photo")) {
+            return s3ClientConfigurationProperties.getRootPath() + s3ClientConfigurationProperties.getPhotoPath() + folder;
+        }
+        else if (uploadType.equalsIgnoreCase("file")) {
+            return s3ClientConfigurationProperties.getRootPath() + s3ClientConfigurationProperties.getFilePath();
+        }
+        return null;
+    }
+
+    private Path getThumbnailSpillDirectory() {
+        return Paths.get(s3ClientConfigurationProperties.getThumbnailSpillDirectory());
+    }
+
+    private ObjectCannedACL getAcl(ServerRequest serverRequest) {
+        String aclValue = serverRequest.headers().firstHeader("acl");
+
+        if (aclValue == null) {
+            LOG.warn("no acl value supplied, set to private by default");
+            return ObjectCannedACL.PRIVATE;
+        }
+        return ObjectCannedACL.fromValue(aclValue);
+    }
+
+
     private Dimension getDimension(ServerRequest serverRequest) {
         Dimension thumbnailDimension = new Dimension(s3ClientConfigurationProperties.getThumbnailSize().getWidth(),
                 s3ClientConfigurationProperties.getThumbnailSize().getHeight());
@@ -220,4 +764,28 @@ public class S3Handler implements S3WebRequestHandler, S3ServiceHandler {
         }
         return thumbnailDimension;
     }
+
+    /**
+     * read the thumbnailSizes query param like 100x100,400x400,1200x1200
+     * @return the sizes or an empty list when the param is not given or not valid
+     */
+    private List<Dimension> getThumbnailSizes(ServerRequest serverRequest) {
+        if (serverRequest.queryParam("thumbnailSizes").isEmpty()) {
+            return List.of();
+        }
+        List<Dimension> thumbnailSizes = new ArrayList<>();
+        try {
+            for (String size : serverRequest.queryParam("thumbnailSizes").get().split(",")) {
+                String[] widthHeight = size.trim().toLowerCase().split("x");
+                thumbnailSizes.add(new Dimension(Integer.parseInt(widthHeight[0]), Integer.parseInt(widthHeight[1])));
+            }
+            LOG.info("use thumbnail sizes from query param: {}", thumbnailSizes);
+            return thumbnailSizes;
+        }
+        catch (Exception e) {
+            LOG.error("exception occurred when getting thumbnailSizes from query param, use single thumbnail, {}",
+                    e.getMessage());
+            return List.of();
+        }
+    }
 }
@@ -0,0 +1,221 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.util.ByteBufferChunker;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.retry.Retry;
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.*;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Uploads a file as a S3 multipart upload.  The byte buffer flux is sliced into parts of
+ * {@link S3ClientConfigurationProperties#getMultipartMinPartSize()} and up to
+ * {@link S3ClientConfigurationProperties#getMultipartConcurrency()} parts are uploaded at the same time.
+ * Only the in-flight parts are held in memory, a part buffer is released once S3 acknowledges the part.
+ * A failed part is retried on its own with a jittered exponential backoff so a 503 SlowDown does not
+ * re-send the parts that are already stored.
+ */
+@Component
+public class S3MultipartUploader {
+    private static final Logger LOG = LoggerFactory.getLogger(S3MultipartUploader.class);
+
+    private final S3AsyncClient s3client;
+
+    private final S3ClientConfigurationProperties s3config;
+
+    public S3MultipartUploader(S3AsyncClient s3client, S3ClientConfigurationProperties s3config) {
+        this.s3client = s3client;
+        this.s3config = s3config;
+    }
+
+    public Mono<String> upload(Flux<ByteBuffer> body, String fileKey, MediaType mediaType, ObjectCannedACL acl,
+                               Map<String, String> metadata) {
+        LOG.info("multipart upload for fileKey: {}, partSize: {}, concurrency: {}", fileKey,
+                s3config.getMultipartMinPartSize(), s3config.getMultipartConcurrency());
+
+        return uploadParts(ByteBufferChunker.chunk(body, s3config.getMultipartMinPartSize()),
+                fileKey, mediaType, acl, metadata);
+    }
+
+    /**
+     * Upload a file whose length is not known up front, like a browser multipart form part.
+     * The content is streamed in parts as bytes arrive.  If the whole content fits in the first part
+     * then a single putObject is used instead of a multipart upload.
+     */
+    public Mono<String> uploadUnknownLength(Flux<ByteBuffer> body, String fileKey, MediaType mediaType,
+                                            ObjectCannedACL acl, Map<String, String> metadata) {
+        LOG.info("upload of unknown length for fileKey: {}", fileKey);
+
+        return ByteBufferChunker.chunk(body, s3config.getMultipartMinPartSize())
+                .switchOnFirst((signal, chunks) -> {
+                    if (signal.isOnError()) {
+                        return Flux.<String>error(signal.getThrowable());
+                    }
+                    if (signal.hasValue() && signal.get().last()) {
+                        ByteBuffer byteBuffer = signal.get().byteBuffer();
+                        LOG.info("content of {} bytes fits in a single part, use putObject", byteBuffer.remaining());
+                        return putObject(fileKey, mediaType, acl, metadata, byteBuffer).flux();
+                    }
+                    return uploadParts(chunks, fileKey, mediaType, acl, metadata).flux();
+                })
+                .next();
+    }
+
+    private Mono<String> uploadParts(Flux<ByteBufferChunker.Chunk> chunks, String fileKey, MediaType mediaType,
+                                     ObjectCannedACL acl, Map<String, String> metadata) {
+        return createMultipartUpload(fileKey, mediaType, acl, metadata).flatMap(uploadId ->
+                chunks.flatMap(chunk -> uploadPart(fileKey, uploadId, chunk.partNumber(), chunk.byteBuffer()),
+                                s3config.getMultipartConcurrency())
+                        .collectList()
+                        .flatMap(completedParts -> completeMultipartUpload(fileKey, uploadId, completedParts))
+                        .onErrorResume(throwable -> {
+                            LOG.error("multipart upload failed for fileKey: {}, abort uploadId: {}", fileKey, uploadId, throwable);
+                            return abortMultipartUpload(fileKey, uploadId).then(Mono.error(throwable));
+                        }));
+    }
+
+    public Mono<String> putObject(String fileKey, MediaType mediaType, ObjectCannedACL acl,
+                                  Map<String, String> metadata, ByteBuffer byteBuffer) {
+        PutObjectRequest putObjectRequest = PutObjectRequest.builder()
+                .bucket(s3config.getBucket())
+                .contentLength((long) byteBuffer.remaining())
+                .key(fileKey)
+                .contentType(mediaType.toString())
+                .metadata(metadata)
+                .acl(acl)
+                .build();
+
+        return Mono.fromFuture(() -> s3client.putObject(putObjectRequest,
+                        AsyncRequestBody.fromByteBufferUnsafe(byteBuffer.duplicate())))
+                .retryWhen(partRetry(fileKey, 1))
+                .map(response -> {
+                    LOG.info("put object done for fileKey: {}", fileKey);
+                    return fileKey;
+                });
+    }
+
+    public Mono<String> createMultipartUpload(String fileKey, MediaType mediaType, ObjectCannedACL acl,
+                                              Map<String, String> metadata) {
+        CreateMultipartUploadRequest createMultipartUploadRequest = CreateMultipartUploadRequest.builder()
+                .bucket(s3config.getBucket())
+                .key(fileKey)
+                .contentType(mediaType.toString())
+                .metadata(metadata)
+                .acl(acl)
+                .build();
+
+        return Mono.fromFuture(() -> s3client.createMultipartUpload(createMultipartUploadRequest))
+                .map(response -> {
+                    LOG.info("created multipart upload for fileKey: {}, uploadId: {}", fileKey, response.uploadId());
+                    return response.uploadId();
+                });
+    }
+
+    public Mono<CompletedPart> uploadPart(String fileKey, String uploadId, int partNumber, ByteBuffer byteBuffer) {
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                .bucket(s3config.getBucket())
+                .key(fileKey)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength((long) byteBuffer.remaining())
+                .build();
+
+        return Mono.fromFuture(() -> s3client.uploadPart(uploadPartRequest,
+                        AsyncRequestBody.fromByteBufferUnsafe(byteBuffer.duplicate())))
+                .retryWhen(partRetry(fileKey, partNumber))
+                .map(response -> {
+                    LOG.debug("uploaded part: {} of fileKey: {}, eTag: {}", partNumber, fileKey, response.eTag());
+                    return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+                });
+    }
+
+    /**
+     * stream a part of known length to S3 as it is received, so the part is not held in memory.  The body can only
+     * be sent once, so a failed part is not retried here and the caller sends it again.
+     */
+    public Mono<CompletedPart> uploadPart(String fileKey, String uploadId, int partNumber, Flux<ByteBuffer> body,
+                                          long contentLength) {
+        UploadPartRequest uploadPartRequest = UploadPartRequest.builder()
+                .bucket(s3config.getBucket())
+                .key(fileKey)
+                .uploadId(uploadId)
+                .partNumber(partNumber)
+                .contentLength(contentLength)
+                .build();
+
+        return Mono.fromFuture(() -> s3client.uploadPart(uploadPartRequest, AsyncRequestBody.fromPublisher(body)))
+                .map(response -> {
+                    LOG.debug("uploaded part: {} of fileKey: {}, eTag: {}", partNumber, fileKey, response.eTag());
+                    return CompletedPart.builder().partNumber(partNumber).eTag(response.eTag()).build();
+                });
+    }
+
+    public Mono<String> completeMultipartUpload(String fileKey, String uploadId, List<CompletedPart> completedParts) {
+        List<CompletedPart> sortedParts = completedParts.stream()
+                .sorted(Comparator.comparing(CompletedPart::partNumber)).toList();
+
+        CompleteMultipartUploadRequest completeMultipartUploadRequest = CompleteMultipartUploadRequest.builder()
+                .bucket(s3config.getBucket())
+                .key(fileKey)
+                .uploadId(uploadId)
+                .multipartUpload(CompletedMultipartUpload.builder().parts(sortedParts).build())
+                .build();
+
+        return Mono.fromFuture(() -> s3client.completeMultipartUpload(completeMultipartUploadRequest))
+                .map(response -> {
+                    LOG.info("completed multipart upload of {} parts for fileKey: {}", sortedParts.size(), fileKey);
+                    return fileKey;
+                });
+    }
+
+    public Mono<Void> abortMultipartUpload(String fileKey, String uploadId) {
+        AbortMultipartUploadRequest abortMultipartUploadRequest = AbortMultipartUploadRequest.builder()
+                .bucket(s3config.getBucket())
+                .key(fileKey)
+                .uploadId(uploadId)
+                .build();
+
+        return Mono.fromFuture(() -> s3client.abortMultipartUpload(abortMultipartUploadRequest))
+                .doOnNext(response -> LOG.info("aborted multipart upload for fileKey: {}", fileKey))
+                .onErrorResume(throwable -> {
+                    LOG.error("failed to abort multipart upload for fileKey: {}, uploadId: {}", fileKey, uploadId, throwable);
+                    return Mono.empty();
+                })
+                .then();
+    }
+
+    private Retry partRetry(String fileKey, int partNumber) {
+        return Retry.backoff(s3config.getPartRetryAttempts(), Duration.ofMillis(s3config.getPartRetryMinBackoffMillis()))
+                .maxBackoff(Duration.ofMillis(s3config.getPartRetryMaxBackoffMillis()))
+                .jitter(0.5)
+                .filter(S3MultipartUploader::isRetryable)
+                .doBeforeRetry(retrySignal -> LOG.warn("retry part: {} of fileKey: {}, attempt: {}, failure: {}",
+                        partNumber, fileKey, retrySignal.totalRetries() + 1, retrySignal.failure().getMessage()))
+                .onRetryExhaustedThrow((retryBackoffSpec, retrySignal) -> retrySignal.failure());
+    }
+
+    /**
+     * network failures, throttling (503 SlowDown, 429) and server errors are worth retrying,
+     * client errors like 403 or 404 are not.
+     */
+    static boolean isRetryable(Throwable throwable) {
+        if (throwable instanceof AwsServiceException awsServiceException) {
+            return awsServiceException.isThrottlingException() || awsServiceException.statusCode() >= 500;
+        }
+        return throwable instanceof SdkClientException;
+    }
+}
@@ -4,12 +4,15 @@ import org.springframework.cglib.core.Local;
 import org.springframework.http.MediaType;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
+import software.amazon.awssdk.core.async.ResponsePublisher;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
 import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
 
 import java.awt.*;
 import java.net.URL;
 import java.nio.ByteBuffer;
 import java.time.LocalDateTime;
+import java.util.List;
 import java.util.OptionalLong;
 
 public interface S3Service {
@@ -18,6 +21,7 @@ public interface S3Service {
     //Inbound: file in byteBuffer flux with filename, format and length
     //Outbound: This method will return the filekey after storing the file into s3 bucket
     //example outbound: s3-rest-service/videos/2022-05-20T21:22:56.184297.mp4
+    //length can be -1 when it is not known, like for a browser multipart form part, the file is then streamed in parts
     Mono<String> uploadFile(Flux<ByteBuffer> byteBufferFlux, String prefixPath, String fileName, MediaType format,
                             long length, ObjectCannedACL acl, LocalDateTime localDateTime);
     Mono<String> createPhotoThumbnail(LocalDateTime localDateTime, final URL presignedUrl,
@@ -29,10 +33,49 @@ public interface S3Service {
                            final String prefixPath, ObjectCannedACL acl,
                            final String fileName, MediaType format,
                            Dimension thumbnail);//LocalDateTime localDateTime, URL presignedUrl, final String prefixPath, ObjectCannedACL acl, Dimension thumbnail);
+    // same as above but the thumbnail is created from a local copy of the upload instead of downloading it
+    Mono<String> createPhotoThumbnail(LocalDateTime localDateTime, final ThumbnailSource thumbnailSource,
+                                      final String prefixPath, ObjectCannedACL acl,
+                                      final String fileName, MediaType format,
+                                      Dimension thumbnail);
+    Mono<String> createGif(LocalDateTime localDateTime, final ThumbnailSource thumbnailSource,
+                           final String prefixPath, ObjectCannedACL acl,
+                           final String fileName, MediaType format,
+                           Dimension thumbnail);
+    // create the video preview set by videoPreviewFormat, an animated gif or a jpeg poster frame
+    Mono<String> createVideoPreview(LocalDateTime localDateTime, final URL presignedUrl,
+                                    final String prefixPath, ObjectCannedACL acl,
+                                    final String fileName, MediaType format,
+                                    Dimension thumbnail);
+    Mono<String> createVideoPreview(LocalDateTime localDateTime, final ThumbnailSource thumbnailSource,
+                                    final String prefixPath, ObjectCannedACL acl,
+                                    final String fileName, MediaType format,
+                                    Dimension thumbnail);
+    // create a thumbnail for each size from one decode of the photo, each thumbnail is stored under
+    // prefixPath/thumbnail/<width>x<height>/ and the keys are returned in the same order as the sizes
+    Mono<List<String>> createPhotoThumbnails(LocalDateTime localDateTime, final URL presignedUrl,
+                                             final String prefixPath, ObjectCannedACL acl,
+                                             final String fileName, MediaType format,
+                                             List<Dimension> thumbnails);
+    Mono<List<String>> createPhotoThumbnails(LocalDateTime localDateTime, final ThumbnailSource thumbnailSource,
+                                             final String prefixPath, ObjectCannedACL acl,
+                                             final String fileName, MediaType format,
+                                             List<Dimension> thumbnails);
     Mono<URL> createPresignedUrl(Mono<String> fileKeyMono);
+    // sign many keys in parallel, the urls are emitted as they are signed and not in the order of the keys
+    Flux<PresignedUrl> createPresignedUrls(Flux<String> fileKeys);
+
+    // stream the object, range and the etag preconditions are passed to S3 as they are and can be null
+    Mono<ResponsePublisher<GetObjectResponse>> getObject(String key, String range, String ifNoneMatch, String ifMatch);
 
     Mono<String> deleteObject(String key);
     //this will delete all objects in a prefix
     //if prefix contains a folder like object it will also delete them.
-    Mono<String> deleteFolder(String prefix);
+    Mono<DeleteResult> deleteFolder(String prefix);
+
+    record PresignedUrl(String key, URL url) {
+    }
+
+    record DeleteResult(String prefix, long deleted, long failed) {
+    }
 }
@@ -19,4 +19,5 @@ public interface S3ServiceHandler {
                                 final MediaType format, final long fileContentLength, final String folder,
                                 ObjectCannedACL acl, Dimension thumbnail);
     Mono<ServerResponse> getPresignUrl(Mono<String> fileKeyMono);
+    Mono<ServerResponse> getPresignUrls(Flux<String> fileKeys);
 }
@@ -10,6 +10,30 @@ import reactor.core.publisher.Mono;
 public interface S3WebRequestHandler {
     Mono<ServerResponse> upload(ServerRequest serverRequest);
     Mono<ServerResponse> getPresignUrl(ServerRequest serverRequest);
+    // stream an object through the service, with Range and etag preconditions passed to S3
+    Mono<ServerResponse> download(ServerRequest serverRequest);
+    // a json array of keys, answered with a streamed json array of key and url
+    Mono<ServerResponse> getPresignUrls(ServerRequest serverRequest);
     Mono<ServerResponse> deleteObject(ServerRequest serverRequest);
     Mono<ServerResponse> deleteByPrefix(ServerRequest serverRequest);
+    // progress of a background delete started with deleteByPrefix and async=true
+    Mono<ServerResponse> getDeleteJobStatus(ServerRequest serverRequest);
+
+    // resumable upload: start, send ranges in any order, check the missing ranges and complete or abort
+    Mono<ServerResponse> startResumableUpload(ServerRequest serverRequest);
+    Mono<ServerResponse> uploadResumablePart(ServerRequest serverRequest);
+    Mono<ServerResponse> getResumableUploadStatus(ServerRequest serverRequest);
+    Mono<ServerResponse> completeResumableUpload(ServerRequest serverRequest);
+    Mono<ServerResponse> abortResumableUpload(ServerRequest serverRequest);
+
+    // direct upload: start for the presigned part urls, send the parts to the bucket and complete or abort
+    Mono<ServerResponse> startDirectUpload(ServerRequest serverRequest);
+    Mono<ServerResponse> completeDirectUpload(ServerRequest serverRequest);
+    Mono<ServerResponse> abortDirectUpload(ServerRequest serverRequest);
+
+    // status of a background thumbnail job by the fileKey returned from upload
+    Mono<ServerResponse> getThumbnailStatus(ServerRequest serverRequest);
+
+    // a photo resized to key, width, height and format, rendered and stored on the first request
+    Mono<ServerResponse> getRendition(ServerRequest serverRequest);
 }
@@ -14,4 +14,7 @@ public interface Thumbnail {
 
     Mono<ByteArrayOutputStream> getByteArrayOutputStream(final URL presignedUrl, Dimension dimension, final MediaType format);
 
+    // create the thumbnail from a local copy of the uploaded file instead of downloading it again
+    Mono<ByteArrayOutputStream> getByteArrayOutputStream(final ThumbnailSource thumbnailSource, Dimension dimension, final MediaType format);
+
 }
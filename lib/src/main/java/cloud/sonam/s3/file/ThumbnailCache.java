@@ -0,0 +1,220 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Thumbnails keyed by the content hash of the upload, the thumbnail size and a variant like the format, so a photo
+ * or video uploaded again is not decoded and encoded again.
+ * <p>
+ * Recently used thumbnails are kept in memory up to thumbnailCacheMemoryBytes, all thumbnails are written to
+ * thumbnailCacheDirectory up to thumbnailCacheDiskBytes.  Both tiers evict the least recently used thumbnail.
+ * The cache also remembers the object key a thumbnail was last stored under so a hit can be a server side copy.
+ */
+@Component
+public class ThumbnailCache {
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailCache.class);
+
+    private static final String SUFFIX = ".thumbnail";
+
+    // object keys kept for server side copies, a key is small so only the count is bounded
+    private static final int MAX_OBJECT_KEYS = 10_000;
+
+    private final S3ClientConfigurationProperties s3config;
+
+    private final Map<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryBytes;
+
+    // file sizes by cache key in access order
+    private final Map<String, Long> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private long diskBytes;
+
+    private final Map<String, String> objectKeys = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_OBJECT_KEYS;
+        }
+    };
+
+    public ThumbnailCache(S3ClientConfigurationProperties s3config) {
+        this.s3config = s3config;
+    }
+
+    /**
+     * index the thumbnails left on disk, oldest first so they are evicted first.
+     */
+    @PostConstruct
+    public void load() throws IOException {
+        if (!isEnabled()) {
+            return;
+        }
+        Path directory = getDirectory();
+        Files.createDirectories(directory);
+
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> directoryStream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            directoryStream.forEach(files::add);
+        }
+        files.sort(Comparator.comparing(this::getLastModified));
+
+        synchronized (this) {
+            for (Path file : files) {
+                final String fileName = file.getFileName().toString();
+                final long size = Files.size(file);
+                disk.put(fileName.substring(0, fileName.length() - SUFFIX.length()), size);
+                diskBytes += size;
+            }
+            evictDisk();
+        }
+        LOG.info("loaded {} cached thumbnails of {} bytes", disk.size(), diskBytes);
+    }
+
+    public boolean isEnabled() {
+        return s3config.isThumbnailCacheEnabled();
+    }
+
+    /**
+     * @param variant what was created, like the format and the settings that change it, so a gif and a poster
+     *                of the same video do not collide
+     */
+    public static String getCacheKey(String contentHash, Dimension dimension, String variant) {
+        return contentHash + "-" + dimension.width + "x" + dimension.height + "-"
+                + variant.toLowerCase().replaceAll("[^a-z0-9-]", "");
+    }
+
+    /**
+     * blocking, reads the thumbnail from disk when it is not in memory.
+     */
+    public Optional<CachedThumbnail> get(String cacheKey) throws IOException {
+        byte[] bytes;
+        synchronized (this) {
+            bytes = memory.get(cacheKey);
+            // a memory hit also counts as a use of the file on disk
+            final Long size = disk.get(cacheKey);
+            if (bytes == null && size == null) {
+                return Optional.empty();
+            }
+        }
+        if (bytes == null) {
+            try {
+                bytes = Files.readAllBytes(getFile(cacheKey));
+                Files.setLastModifiedTime(getFile(cacheKey), FileTime.fromMillis(System.currentTimeMillis()));
+            }
+            catch (NoSuchFileException e) {
+                LOG.debug("cached thumbnail {} was evicted", cacheKey);
+                return Optional.empty();
+            }
+            synchronized (this) {
+                putMemory(cacheKey, bytes);
+            }
+        }
+        synchronized (this) {
+            LOG.info("thumbnail cache hit for {}", cacheKey);
+            return Optional.of(new CachedThumbnail(bytes, objectKeys.get(cacheKey)));
+        }
+    }
+
+    /**
+     * blocking, stores the thumbnail in memory and on disk.
+     */
+    public void put(String cacheKey, byte[] bytes) throws IOException {
+        synchronized (this) {
+            putMemory(cacheKey, bytes);
+        }
+        if (bytes.length > s3config.getThumbnailCacheDiskBytes()) {
+            return;
+        }
+        // write to a temporary file first so a reader never sees a half written thumbnail
+        Path file = getFile(cacheKey);
+        Path temporaryFile = Files.createTempFile(getDirectory(), cacheKey, ".tmp");
+        Files.write(temporaryFile, bytes);
+        Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        synchronized (this) {
+            Long previous = disk.put(cacheKey, (long) bytes.length);
+            diskBytes += bytes.length - (previous != null ? previous : 0);
+            evictDisk();
+        }
+    }
+
+    /**
+     * remember where the thumbnail was stored so the next hit can copy that object.
+     */
+    public synchronized void putObjectKey(String cacheKey, String objectKey) {
+        objectKeys.put(cacheKey, objectKey);
+    }
+
+    public synchronized void removeObjectKey(String cacheKey) {
+        objectKeys.remove(cacheKey);
+    }
+
+    private void putMemory(String cacheKey, byte[] bytes) {
+        byte[] previous = memory.put(cacheKey, bytes);
+        memoryBytes += bytes.length - (previous != null ? previous.length : 0);
+
+        Iterator<Map.Entry<String, byte[]>> iterator = memory.entrySet().iterator();
+        while (memoryBytes > s3config.getThumbnailCacheMemoryBytes() && iterator.hasNext()) {
+            memoryBytes -= iterator.next().getValue().length;
+            iterator.remove();
+        }
+    }
+
+    private void evictDisk() {
+        Iterator<Map.Entry<String, Long>> iterator = disk.entrySet().iterator();
+        while (diskBytes > s3config.getThumbnailCacheDiskBytes() && iterator.hasNext()) {
+            Map.Entry<String, Long> eldest = iterator.next();
+            diskBytes -= eldest.getValue();
+            iterator.remove();
+            try {
+                Files.deleteIfExists(getFile(eldest.getKey()));
+                LOG.debug("evicted cached thumbnail {}", eldest.getKey());
+            }
+            catch (IOException e) {
+                LOG.error("failed to delete cached thumbnail {}", eldest.getKey(), e);
+            }
+        }
+    }
+
+    private FileTime getLastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        }
+        catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+
+    private Path getFile(String cacheKey) {
+        return getDirectory().resolve(cacheKey + SUFFIX);
+    }
+
+    private Path getDirectory() {
+        return Paths.get(s3config.getThumbnailCacheDirectory());
+    }
+
+    /**
+     * @param objectKey where the thumbnail was last stored, null when not known
+     */
+    public record CachedThumbnail(byte[] bytes, String objectKey) {
+    }
+}
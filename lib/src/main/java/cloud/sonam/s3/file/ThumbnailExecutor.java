@@ -0,0 +1,270 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.util.GifEncoder;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs the blocking thumbnail work (url reads, ImageIO and FFmpeg decoding) off the netty event loop.
+ * <p>
+ * In {@link S3ClientConfigurationProperties.ExecutionMode#PLATFORM} mode the jobs run on a bounded pool of
+ * platform threads.  When all threads are busy and the queue is full a job is rejected with a
+ * {@link RejectedExecutionException} so the caller can answer with a 503 instead of queueing without limit.
+ * An upload checks {@link #hasCapacity()} before it stores the object so it is rejected before anything is stored.
+ * <p>
+ * In {@link S3ClientConfigurationProperties.ExecutionMode#VIRTUAL} mode each job runs on its own virtual thread
+ * so thousands of jobs can wait on I/O.  The number of jobs in flight is capped by thumbnailMaxInFlight.
+ * <p>
+ * In both modes the native heavy decode and encode stages are capped by thumbnailDecodeConcurrency permits,
+ * see {@link #decode(Callable)}.  A decode can split its work over videoSegmentConcurrency segment threads that
+ * take their own permits, see {@link #invokeSegments(List)}, and gif encoding runs its workers on the same threads.
+ * The segment threads are a fixed pool of platform threads in platform mode and virtual threads in virtual mode.
+ */
+@Component
+public class ThumbnailExecutor {
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailExecutor.class);
+
+    private final S3ClientConfigurationProperties.ExecutionMode executionMode;
+
+    private final ThreadPoolExecutor threadPoolExecutor;
+
+    private final Semaphore inFlightPermits;
+
+    private final Semaphore decodePermits;
+
+    private final int maxInFlight;
+
+    private final Scheduler scheduler;
+
+    private final ExecutorService segmentExecutor;
+
+    private final int segmentConcurrency;
+
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    // set while the thread holds a decode permit
+    private final ThreadLocal<Boolean> holdsDecodePermit = ThreadLocal.withInitial(() -> false);
+
+    // jobs finished on virtual threads, the platform pool counts its own
+    private final AtomicLong completedCount = new AtomicLong();
+
+    public ThumbnailExecutor(S3ClientConfigurationProperties s3config) {
+        this.executionMode = s3config.getThumbnailExecutionMode();
+        this.decodePermits = new Semaphore(s3config.getThumbnailDecodeConcurrency());
+
+        this.segmentConcurrency = Math.max(1, s3config.getVideoSegmentConcurrency());
+
+        if (executionMode == S3ClientConfigurationProperties.ExecutionMode.VIRTUAL) {
+            // the segments wait on decode permits, which does not hold a platform thread here
+            this.segmentExecutor = Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("thumbnail-segment-", 1).factory());
+            this.maxInFlight = s3config.getThumbnailMaxInFlight();
+            LOG.info("create virtual thread thumbnail executor with maxInFlight: {}, decodeConcurrency: {}",
+                    maxInFlight, s3config.getThumbnailDecodeConcurrency());
+
+            this.threadPoolExecutor = null;
+            this.inFlightPermits = new Semaphore(maxInFlight);
+            this.scheduler = Schedulers.fromExecutorService(Executors.newThreadPerTaskExecutor(
+                    Thread.ofVirtual().name("thumbnail-", 1).factory()), "thumbnail");
+            return;
+        }
+
+        final int poolSize = s3config.getThumbnailPoolSize();
+        final int queueCapacity = s3config.getThumbnailQueueCapacity();
+        LOG.info("create thumbnail executor with poolSize: {}, queueCapacity: {}, decodeConcurrency: {}",
+                poolSize, queueCapacity, s3config.getThumbnailDecodeConcurrency());
+
+        AtomicInteger segmentThreadCount = new AtomicInteger();
+        this.segmentExecutor = Executors.newFixedThreadPool(segmentConcurrency, runnable -> {
+            Thread thread = new Thread(runnable, "thumbnail-segment-" + segmentThreadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        AtomicInteger threadCount = new AtomicInteger();
+        this.maxInFlight = poolSize + queueCapacity;
+        this.inFlightPermits = null;
+        this.threadPoolExecutor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "thumbnail-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> {
+                    long rejected = rejectedCount.incrementAndGet();
+                    LOG.warn("thumbnail job rejected, active: {}, queued: {}, total rejected: {}",
+                            executor.getActiveCount(), executor.getQueue().size(), rejected);
+                    throw new RejectedExecutionException("thumbnail executor is busy, try again later");
+                });
+        this.threadPoolExecutor.allowCoreThreadTimeOut(true);
+        this.scheduler = Schedulers.fromExecutorService(threadPoolExecutor, "thumbnail");
+    }
+
+    /**
+     * run the blocking callable on a thumbnail thread.
+     * @return mono that errors with a RejectedExecutionException when too many jobs are in flight
+     */
+    public <T> Mono<T> execute(Callable<T> callable) {
+        if (inFlightPermits != null) {
+            return Mono.defer(() -> {
+                if (!inFlightPermits.tryAcquire()) {
+                    long rejected = rejectedCount.incrementAndGet();
+                    LOG.warn("thumbnail job rejected, in flight: {}, total rejected: {}", getActiveCount(), rejected);
+                    return Mono.error(new RejectedExecutionException("thumbnail executor is busy, try again later"));
+                }
+                return Mono.fromCallable(callable)
+                        .subscribeOn(scheduler)
+                        .doFinally(signalType -> {
+                            inFlightPermits.release();
+                            completedCount.incrementAndGet();
+                        });
+            });
+        }
+        return Mono.fromCallable(callable)
+                .subscribeOn(scheduler)
+                .doOnSubscribe(subscription -> LOG.debug("submit thumbnail job, active: {}, queued: {}",
+                        getActiveCount(), getQueueSize()));
+    }
+
+    /**
+     * @return false when a job submitted now would be rejected, an upload checks this before it stores the object
+     */
+    public boolean hasCapacity() {
+        if (inFlightPermits != null) {
+            return inFlightPermits.availablePermits() > 0;
+        }
+        return threadPoolExecutor.getActiveCount() + threadPoolExecutor.getQueue().size() < maxInFlight;
+    }
+
+    /**
+     * run a native heavy stage like ImageIO decoding or FFmpeg grabbing while holding a decode permit.
+     * Must be called from a thumbnail thread, it blocks until a permit is free.  A nested call runs on the
+     * permit the thread already holds.
+     */
+    public <T> T decode(Callable<T> callable) throws Exception {
+        if (holdsDecodePermit.get()) {
+            return callable.call();
+        }
+        decodePermits.acquire();
+        holdsDecodePermit.set(true);
+        try {
+            return callable.call();
+        }
+        finally {
+            holdsDecodePermit.set(false);
+            decodePermits.release();
+        }
+    }
+
+    /**
+     * run the segments of a decode in parallel on the segment threads and wait for all of them.  Each segment
+     * decodes with its own permit, so a caller inside {@link #decode(Callable)} gives its permit up while it
+     * waits and takes it back after.  The decodes of all jobs and their segments stay within
+     * thumbnailDecodeConcurrency.
+     * @return the results in the order of the segments
+     */
+    public <T> List<T> invokeSegments(List<Callable<T>> segments) throws Exception {
+        List<Callable<T>> permittedSegments = new ArrayList<>();
+        for (Callable<T> segment : segments) {
+            permittedSegments.add(() -> decode(segment));
+        }
+
+        final boolean heldPermit = holdsDecodePermit.get();
+        if (heldPermit) {
+            holdsDecodePermit.set(false);
+            decodePermits.release();
+        }
+        try {
+            List<T> results = new ArrayList<>();
+            for (Future<T> future : segmentExecutor.invokeAll(permittedSegments)) {
+                try {
+                    results.add(future.get());
+                }
+                catch (ExecutionException e) {
+                    if (e.getCause() instanceof Exception exception) {
+                        throw exception;
+                    }
+                    throw e;
+                }
+            }
+            return results;
+        }
+        finally {
+            if (heldPermit) {
+                decodePermits.acquireUninterruptibly();
+                holdsDecodePermit.set(true);
+            }
+        }
+    }
+
+    /**
+     * @return a gif encoder that quantizes and encodes the frames on the segment threads
+     */
+    public GifEncoder createGifEncoder(int frameRate) {
+        return new GifEncoder(frameRate, segmentExecutor, segmentConcurrency);
+    }
+
+    public S3ClientConfigurationProperties.ExecutionMode getExecutionMode() {
+        return executionMode;
+    }
+
+    /**
+     * @return running jobs for platform threads, jobs in flight for virtual threads
+     */
+    public int getActiveCount() {
+        if (inFlightPermits != null) {
+            return maxInFlight - inFlightPermits.availablePermits();
+        }
+        return threadPoolExecutor.getActiveCount();
+    }
+
+    /**
+     * @return jobs waiting for a platform thread, or for virtual threads the jobs waiting for a decode permit
+     */
+    public int getQueueSize() {
+        if (inFlightPermits != null) {
+            return decodePermits.getQueueLength();
+        }
+        return threadPoolExecutor.getQueue().size();
+    }
+
+    public long getCompletedTaskCount() {
+        if (threadPoolExecutor == null) {
+            return completedCount.get();
+        }
+        return threadPoolExecutor.getCompletedTaskCount();
+    }
+
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        LOG.info("shutdown thumbnail executor");
+        scheduler.dispose();
+        segmentExecutor.shutdownNow();
+    }
+}
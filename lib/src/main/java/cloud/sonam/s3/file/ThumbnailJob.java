@@ -0,0 +1,159 @@
+package cloud.sonam.s3.file;
+
+import org.springframework.http.MediaType;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+
+import java.awt.Dimension;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Properties;
+
+/**
+ * A thumbnail to create for an uploaded photo or video.  The job is stored as a properties file by the
+ * {@link ThumbnailJobQueue} so a pending job survives a restart.
+ */
+public class ThumbnailJob {
+    public enum State {
+        PENDING, RUNNING, DONE, FAILED
+    }
+
+    private final String jobId;
+    private final String fileKey;
+    private final String uploadType;
+    private final String prefixPath;
+    private final String fileName;
+    private final MediaType mediaType;
+    private final ObjectCannedACL acl;
+    private final Dimension dimension;
+    private final LocalDateTime localDateTime;
+
+    private volatile State state = State.PENDING;
+    private volatile String thumbnailKey;
+    private volatile String error;
+    private volatile Instant updated = Instant.now();
+
+    public ThumbnailJob(String jobId, String fileKey, String uploadType, String prefixPath, String fileName,
+                        MediaType mediaType, ObjectCannedACL acl, Dimension dimension, LocalDateTime localDateTime) {
+        this.jobId = jobId;
+        this.fileKey = fileKey;
+        this.uploadType = uploadType;
+        this.prefixPath = prefixPath;
+        this.fileName = fileName;
+        this.mediaType = mediaType;
+        this.acl = acl;
+        this.dimension = dimension;
+        this.localDateTime = localDateTime;
+    }
+
+    public Properties toProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("jobId", jobId);
+        properties.setProperty("fileKey", fileKey);
+        properties.setProperty("uploadType", uploadType);
+        properties.setProperty("prefixPath", prefixPath);
+        properties.setProperty("fileName", fileName);
+        properties.setProperty("mediaType", mediaType.toString());
+        properties.setProperty("acl", acl.toString());
+        properties.setProperty("width", String.valueOf(dimension.width));
+        properties.setProperty("height", String.valueOf(dimension.height));
+        properties.setProperty("localDateTime", localDateTime.toString());
+        properties.setProperty("state", state.name());
+        properties.setProperty("updated", updated.toString());
+        if (thumbnailKey != null) {
+            properties.setProperty("thumbnailKey", thumbnailKey);
+        }
+        if (error != null) {
+            properties.setProperty("error", error);
+        }
+        return properties;
+    }
+
+    public static ThumbnailJob fromProperties(Properties properties) {
+        ThumbnailJob thumbnailJob = new ThumbnailJob(properties.getProperty("jobId"), properties.getProperty("fileKey"),
+                properties.getProperty("uploadType"), properties.getProperty("prefixPath"),
+                properties.getProperty("fileName"), MediaType.valueOf(properties.getProperty("mediaType")),
+                ObjectCannedACL.fromValue(properties.getProperty("acl")),
+                new Dimension(Integer.parseInt(properties.getProperty("width")), Integer.parseInt(properties.getProperty("height"))),
+                LocalDateTime.parse(properties.getProperty("localDateTime")));
+        thumbnailJob.state = State.valueOf(properties.getProperty("state"));
+        thumbnailJob.thumbnailKey = properties.getProperty("thumbnailKey");
+        thumbnailJob.error = properties.getProperty("error");
+        thumbnailJob.updated = Instant.parse(properties.getProperty("updated"));
+        return thumbnailJob;
+    }
+
+    public Status getStatus() {
+        return new Status(fileKey, state, thumbnailKey, error);
+    }
+
+    void running() {
+        state = State.RUNNING;
+        updated = Instant.now();
+    }
+
+    void done(String thumbnailKey) {
+        this.thumbnailKey = thumbnailKey;
+        state = State.DONE;
+        updated = Instant.now();
+    }
+
+    void failed(String error) {
+        this.error = error;
+        state = State.FAILED;
+        updated = Instant.now();
+    }
+
+    public boolean isFinished() {
+        return state == State.DONE || state == State.FAILED;
+    }
+
+    public String getJobId() {
+        return jobId;
+    }
+
+    public String getFileKey() {
+        return fileKey;
+    }
+
+    public String getUploadType() {
+        return uploadType;
+    }
+
+    public String getPrefixPath() {
+        return prefixPath;
+    }
+
+    public String getFileName() {
+        return fileName;
+    }
+
+    public MediaType getMediaType() {
+        return mediaType;
+    }
+
+    public ObjectCannedACL getAcl() {
+        return acl;
+    }
+
+    public Dimension getDimension() {
+        return dimension;
+    }
+
+    public LocalDateTime getLocalDateTime() {
+        return localDateTime;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public Instant getUpdated() {
+        return updated;
+    }
+
+    /**
+     * what the status endpoint returns, thumbnailKey is set once the state is DONE.
+     */
+    public record Status(String fileKey, State state, String thumbnailKey, String error) {
+    }
+}
@@ -0,0 +1,229 @@
+package cloud.sonam.s3.file;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Component;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Creates thumbnails in the background so an upload can answer as soon as the object is stored.
+ * Each job is written to a properties file in thumbnailJobDirectory and re-queued on startup if it did not finish.
+ * A job queued by this instance creates the thumbnail from the local copy of the upload,
+ * a job recovered after a restart reads the stored object with a presigned url instead.
+ */
+@Component
+public class ThumbnailJobQueue {
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailJobQueue.class);
+
+    private final S3Service s3Service;
+
+    private final S3ClientConfigurationProperties s3config;
+
+    // jobs by fileKey for the status endpoint
+    private final Map<String, ThumbnailJob> jobs = new ConcurrentHashMap<>();
+
+    private final Sinks.Many<QueuedJob> queue = Sinks.many().unicast().onBackpressureBuffer();
+
+    private Disposable worker;
+
+    public ThumbnailJobQueue(S3Service s3Service, S3ClientConfigurationProperties s3config) {
+        this.s3Service = s3Service;
+        this.s3config = s3config;
+    }
+
+    @PostConstruct
+    public void start() throws IOException {
+        worker = queue.asFlux()
+                .flatMap(this::process, s3config.getThumbnailJobConcurrency())
+                .subscribe();
+
+        Path directory = getDirectory();
+        Files.createDirectories(directory);
+        final Instant expired = Instant.now().minus(Duration.ofMinutes(s3config.getThumbnailJobRetentionMinutes()));
+
+        try (DirectoryStream<Path> jobFiles = Files.newDirectoryStream(directory, "*.job")) {
+            for (Path jobFile : jobFiles) {
+                try (InputStream inputStream = Files.newInputStream(jobFile)) {
+                    Properties properties = new Properties();
+                    properties.load(inputStream);
+                    ThumbnailJob thumbnailJob = ThumbnailJob.fromProperties(properties);
+
+                    if (thumbnailJob.isFinished()) {
+                        if (thumbnailJob.getUpdated().isBefore(expired)) {
+                            Files.deleteIfExists(jobFile);
+                        }
+                        else {
+                            jobs.put(thumbnailJob.getFileKey(), thumbnailJob);
+                        }
+                    }
+                    else {
+                        LOG.info("recover unfinished thumbnail job for fileKey: {}", thumbnailJob.getFileKey());
+                        jobs.put(thumbnailJob.getFileKey(), thumbnailJob);
+                        emit(new QueuedJob(thumbnailJob, null));
+                    }
+                }
+                catch (IOException | RuntimeException e) {
+                    LOG.error("failed to load thumbnail job {}", jobFile, e);
+                }
+            }
+        }
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (worker != null) {
+            worker.dispose();
+        }
+    }
+
+    /**
+     * queue the job, the thumbnail source is closed by the queue once the thumbnail is created.
+     * @param thumbnailSource local copy of the upload, can be null to read the stored object instead
+     */
+    public Mono<ThumbnailJob.Status> enqueue(ThumbnailJob thumbnailJob, ThumbnailSource thumbnailSource) {
+        return Mono.fromCallable(() -> {
+                    removeExpiredJobs();
+                    save(thumbnailJob);
+                    jobs.put(thumbnailJob.getFileKey(), thumbnailJob);
+                    emit(new QueuedJob(thumbnailJob, thumbnailSource));
+                    LOG.info("queued thumbnail job for fileKey: {}", thumbnailJob.getFileKey());
+                    return thumbnailJob.getStatus();
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .doOnError(throwable -> {
+                    if (thumbnailSource != null) {
+                        thumbnailSource.close();
+                    }
+                });
+    }
+
+    public Mono<ThumbnailJob.Status> getStatus(String fileKey) {
+        ThumbnailJob thumbnailJob = jobs.get(fileKey);
+        if (thumbnailJob == null) {
+            return Mono.error(new IllegalArgumentException("no thumbnail job found for fileKey: " + fileKey));
+        }
+        return Mono.just(thumbnailJob.getStatus());
+    }
+
+    private Mono<String> process(QueuedJob queuedJob) {
+        final ThumbnailJob thumbnailJob = queuedJob.thumbnailJob();
+        final ThumbnailSource thumbnailSource = queuedJob.thumbnailSource();
+
+        return Mono.fromCallable(() -> {
+                    thumbnailJob.running();
+                    save(thumbnailJob);
+                    return thumbnailJob;
+                })
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(job -> createThumbnail(job, thumbnailSource))
+                .publishOn(Schedulers.boundedElastic())
+                .doOnNext(thumbnailKey -> {
+                    LOG.info("thumbnail job done for fileKey: {}, thumbnailKey: {}", thumbnailJob.getFileKey(), thumbnailKey);
+                    thumbnailJob.done(thumbnailKey);
+                    saveQuietly(thumbnailJob);
+                })
+                .onErrorResume(throwable -> {
+                    LOG.error("thumbnail job failed for fileKey: {}", thumbnailJob.getFileKey(), throwable);
+                    thumbnailJob.failed(throwable.getMessage());
+                    saveQuietly(thumbnailJob);
+                    return Mono.empty();
+                })
+                .doFinally(signalType -> {
+                    if (thumbnailSource != null) {
+                        thumbnailSource.close();
+                    }
+                });
+    }
+
+    private Mono<String> createThumbnail(ThumbnailJob job, ThumbnailSource thumbnailSource) {
+        final boolean video = job.getUploadType().equalsIgnoreCase("video");
+
+        if (thumbnailSource != null) {
+            return video
+                    ? s3Service.createVideoPreview(job.getLocalDateTime(), thumbnailSource, job.getPrefixPath(), job.getAcl(),
+                    job.getFileName(), job.getMediaType(), job.getDimension())
+                    : s3Service.createPhotoThumbnail(job.getLocalDateTime(), thumbnailSource, job.getPrefixPath(),
+                    job.getAcl(), job.getFileName(), job.getMediaType(), job.getDimension());
+        }
+        return s3Service.createPresignedUrl(Mono.just(job.getFileKey()))
+                .flatMap(presignedUrl -> video
+                        ? s3Service.createVideoPreview(job.getLocalDateTime(), presignedUrl, job.getPrefixPath(), job.getAcl(),
+                        job.getFileName(), job.getMediaType(), job.getDimension())
+                        : s3Service.createPhotoThumbnail(job.getLocalDateTime(), presignedUrl, job.getPrefixPath(),
+                        job.getAcl(), job.getFileName(), job.getMediaType(), job.getDimension()));
+    }
+
+    private void emit(QueuedJob queuedJob) {
+        queue.emitNext(queuedJob, Sinks.EmitFailureHandler.busyLooping(Duration.ofSeconds(1)));
+    }
+
+    private void removeExpiredJobs() {
+        final Instant expired = Instant.now().minus(Duration.ofMinutes(s3config.getThumbnailJobRetentionMinutes()));
+
+        jobs.values().removeIf(thumbnailJob -> {
+            if (thumbnailJob.isFinished() && thumbnailJob.getUpdated().isBefore(expired)) {
+                try {
+                    Files.deleteIfExists(getJobFile(thumbnailJob));
+                }
+                catch (IOException e) {
+                    LOG.error("failed to delete thumbnail job file for fileKey: {}", thumbnailJob.getFileKey(), e);
+                }
+                return true;
+            }
+            return false;
+        });
+    }
+
+    private void saveQuietly(ThumbnailJob thumbnailJob) {
+        try {
+            save(thumbnailJob);
+        }
+        catch (IOException e) {
+            LOG.error("failed to save thumbnail job for fileKey: {}", thumbnailJob.getFileKey(), e);
+        }
+    }
+
+    /**
+     * write to a temporary file first so a crash never leaves a half written job file.
+     */
+    private void save(ThumbnailJob thumbnailJob) throws IOException {
+        Path jobFile = getJobFile(thumbnailJob);
+        Path temporaryFile = jobFile.resolveSibling(jobFile.getFileName() + ".tmp");
+
+        try (OutputStream outputStream = Files.newOutputStream(temporaryFile)) {
+            thumbnailJob.toProperties().store(outputStream, null);
+        }
+        Files.move(temporaryFile, jobFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private Path getJobFile(ThumbnailJob thumbnailJob) {
+        return getDirectory().resolve(thumbnailJob.getJobId() + ".job");
+    }
+
+    private Path getDirectory() {
+        return Paths.get(s3config.getThumbnailJobDirectory());
+    }
+
+    private record QueuedJob(ThumbnailJob thumbnailJob, ThumbnailSource thumbnailSource) {
+    }
+}
@@ -0,0 +1,228 @@
+package cloud.sonam.s3.file;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Optional;
+
+/**
+ * A local copy of an uploaded file for creating its thumbnail, so the thumbnail does not have to
+ * download the same bytes back from S3.  The upload byte buffers are teed into this source as they are
+ * sent.  Content is kept in memory up to a limit and spilled to a temporary file after that.
+ * Closing the source deletes the spill file.
+ * When the thumbnail cache is enabled a SHA-256 of the content is computed while it is written, it keys the
+ * {@link ThumbnailCache}.
+ */
+public class ThumbnailSource implements Closeable {
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailSource.class);
+
+    private final long memoryLimit;
+    private final Path spillDirectory;
+
+    private MemoryBuffer memoryBuffer = new MemoryBuffer();
+    private Path spillFile;
+    private FileChannel fileChannel;
+    private long size;
+    private boolean closed;
+
+    private final MessageDigest messageDigest;
+    private String contentHash;
+
+    private ThumbnailSource(long memoryLimit, Path spillDirectory, boolean hashContent) {
+        this.memoryLimit = memoryLimit;
+        this.spillDirectory = spillDirectory;
+        if (!hashContent) {
+            this.messageDigest = null;
+            return;
+        }
+        try {
+            this.messageDigest = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * a source without a content hash.
+     * @param memoryLimit bytes kept in memory before spilling to a file, 0 always uses a file
+     * @param spillDirectory directory for the spill file
+     */
+    public static ThumbnailSource create(long memoryLimit, Path spillDirectory) {
+        return new ThumbnailSource(memoryLimit, spillDirectory, false);
+    }
+
+    /**
+     * @param hashContent compute the SHA-256 of the content for {@link #getContentHash()}, only needed for the cache
+     */
+    public static ThumbnailSource create(long memoryLimit, Path spillDirectory, boolean hashContent) {
+        return new ThumbnailSource(memoryLimit, spillDirectory, hashContent);
+    }
+
+    /**
+     * copy the input stream into a new source, used to read a remote file before decoding it.
+     */
+    public static ThumbnailSource copyOf(InputStream inputStream, long memoryLimit, Path spillDirectory) throws IOException {
+        ThumbnailSource thumbnailSource = new ThumbnailSource(memoryLimit, spillDirectory, false);
+        try {
+            byte[] bytes = new byte[64 * 1024];
+            int read;
+            while ((read = inputStream.read(bytes)) != -1) {
+                thumbnailSource.write(ByteBuffer.wrap(bytes, 0, read));
+            }
+            return thumbnailSource;
+        }
+        catch (IOException | RuntimeException e) {
+            thumbnailSource.close();
+            throw e;
+        }
+    }
+
+    /**
+     * copy the remaining bytes of the byte buffer without changing its position so the same buffer
+     * can still be sent to S3.
+     */
+    public synchronized void write(ByteBuffer byteBuffer) {
+        if (closed) {
+            throw new IllegalStateException("thumbnail source is closed");
+        }
+        ByteBuffer source = byteBuffer.duplicate();
+        final int length = source.remaining();
+        if (messageDigest != null) {
+            messageDigest.update(byteBuffer.duplicate());
+            contentHash = null;
+        }
+
+        try {
+            if (fileChannel == null && memoryBuffer != null && memoryBuffer.size() + length > memoryLimit) {
+                spill();
+            }
+            else if (fileChannel == null && spillFile != null) {
+                // the spill file was opened for reading, append to it
+                fileChannel = FileChannel.open(spillFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+            }
+            if (fileChannel != null) {
+                while (source.hasRemaining()) {
+                    fileChannel.write(source);
+                }
+            }
+            else if (source.hasArray()) {
+                memoryBuffer.write(source.array(), source.arrayOffset() + source.position(), length);
+            }
+            else {
+                byte[] bytes = new byte[length];
+                source.get(bytes);
+                memoryBuffer.write(bytes, 0, length);
+            }
+            size += length;
+        }
+        catch (IOException e) {
+            throw new UncheckedIOException("failed to write thumbnail source", e);
+        }
+    }
+
+    private void spill() throws IOException {
+        Files.createDirectories(spillDirectory);
+        spillFile = Files.createTempFile(spillDirectory, "thumbnail-", ".source");
+        fileChannel = FileChannel.open(spillFile, StandardOpenOption.WRITE);
+        LOG.debug("spill thumbnail source of {} bytes to {}", memoryBuffer.size(), spillFile);
+
+        fileChannel.write(ByteBuffer.wrap(memoryBuffer.getBuffer(), 0, memoryBuffer.size()));
+        memoryBuffer = null;
+    }
+
+    public synchronized InputStream openStream() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("thumbnail source is closed");
+        }
+        if (spillFile != null) {
+            closeChannel();
+            return Files.newInputStream(spillFile);
+        }
+        return memoryBuffer.toInputStream();
+    }
+
+    /**
+     * @return the spill file when the content is not in memory, a file can be read with random access
+     */
+    public synchronized Optional<Path> getFile() throws IOException {
+        if (spillFile != null) {
+            closeChannel();
+        }
+        return Optional.ofNullable(spillFile);
+    }
+
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * @return hex SHA-256 of the content written so far
+     * @throws IllegalStateException when the source was created without hashing
+     */
+    public synchronized String getContentHash() {
+        if (messageDigest == null) {
+            throw new IllegalStateException("thumbnail source was created without a content hash");
+        }
+        if (contentHash == null) {
+            try {
+                // digest a clone so more content can still be written
+                contentHash = HexFormat.of().formatHex(((MessageDigest) messageDigest.clone()).digest());
+            }
+            catch (CloneNotSupportedException e) {
+                throw new IllegalStateException("SHA-256 digest can not be cloned", e);
+            }
+        }
+        return contentHash;
+    }
+
+    private void closeChannel() throws IOException {
+        if (fileChannel != null) {
+            fileChannel.close();
+            fileChannel = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            closeChannel();
+            if (spillFile != null) {
+                Files.deleteIfExists(spillFile);
+                LOG.debug("deleted spill file {}", spillFile);
+            }
+        }
+        catch (IOException e) {
+            LOG.error("failed to delete spill file {}", spillFile, e);
+        }
+        memoryBuffer = null;
+        closed = true;
+    }
+
+    /**
+     * gives access to the buffer so reading does not make another copy of the content.
+     */
+    private static class MemoryBuffer extends ByteArrayOutputStream {
+        byte[] getBuffer() {
+            return buf;
+        }
+
+        InputStream toInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package cloud.sonam.s3.file.util;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Area averaging (box filter) downscale over packed int pixels.  Every target pixel is the average of the
+ * source pixels it covers, weighted by the covered area, so no source pixel is skipped.
+ * <p>
+ * The image is scaled vertically first, one target row at a time: the covered source rows are added into
+ * red, green and blue float accumulators the width of the source.  That pass touches every source pixel and
+ * is what {@code VectorBoxResampler} vectorizes.  The accumulated row is then scaled horizontally to the
+ * target width.  Only a source row and the accumulators are kept in memory besides the target image.
+ */
+public class BoxResampler implements ImageResampler {
+
+    @Override
+    public BufferedImage resample(BufferedImage image, Dimension target) {
+        final int sourceWidth = image.getWidth();
+        final int sourceHeight = image.getHeight();
+        final int width = Math.max(1, target.width);
+        final int height = Math.max(1, target.height);
+
+        final Weights columns = new Weights(sourceWidth, width);
+        final Weights rows = new Weights(sourceHeight, height);
+
+        BufferedImage resampled = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final int[] pixels = ((DataBufferInt) resampled.getRaster().getDataBuffer()).getData();
+
+        final int[] row = new int[sourceWidth];
+        final float[] red = new float[sourceWidth];
+        final float[] green = new float[sourceWidth];
+        final float[] blue = new float[sourceWidth];
+
+        for (int y = 0; y < height; y++) {
+            Arrays.fill(red, 0);
+            Arrays.fill(green, 0);
+            Arrays.fill(blue, 0);
+
+            for (int k = 0; k < rows.weights[y].length; k++) {
+                readRow(image, rows.start[y] + k, row);
+                accumulateRow(row, sourceWidth, rows.weights[y][k], red, green, blue);
+            }
+
+            final int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                final float[] weights = columns.weights[x];
+                final int start = columns.start[x];
+                float r = 0, g = 0, b = 0;
+                for (int k = 0; k < weights.length; k++) {
+                    r += weights[k] * red[start + k];
+                    g += weights[k] * green[start + k];
+                    b += weights[k] * blue[start + k];
+                }
+                pixels[offset + x] = toChannel(r) << 16 | toChannel(g) << 8 | toChannel(b);
+            }
+        }
+        return resampled;
+    }
+
+    /**
+     * add the weighted channels of the source row to the accumulators.
+     */
+    protected void accumulateRow(int[] row, int length, float weight, float[] red, float[] green, float[] blue) {
+        for (int x = 0; x < length; x++) {
+            final int rgb = row[x];
+            red[x] += weight * ((rgb >> 16) & 0xff);
+            green[x] += weight * ((rgb >> 8) & 0xff);
+            blue[x] += weight * (rgb & 0xff);
+        }
+    }
+
+    private static int toChannel(float value) {
+        return Math.min(255, Math.max(0, Math.round(value)));
+    }
+
+    /**
+     * read a source row as packed rgb ints, straight from the raster for the int and bgr byte images that
+     * ImageIO decodes to, getRGB converts every pixel through the color model.
+     */
+    private static void readRow(BufferedImage image, int y, int[] row) {
+        final int width = image.getWidth();
+        final boolean wholeRaster = image.getRaster().getParent() == null;
+
+        if (wholeRaster && (image.getType() == BufferedImage.TYPE_INT_RGB || image.getType() == BufferedImage.TYPE_INT_ARGB)) {
+            int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+            System.arraycopy(data, y * width, row, 0, width);
+        }
+        else if (wholeRaster && image.getType() == BufferedImage.TYPE_3BYTE_BGR) {
+            byte[] data = ((DataBufferByte) image.getRaster().getDataBuffer()).getData();
+            int offset = y * width * 3;
+            for (int x = 0; x < width; x++, offset += 3) {
+                row[x] = (data[offset + 2] & 0xff) << 16 | (data[offset + 1] & 0xff) << 8 | (data[offset] & 0xff);
+            }
+        }
+        else {
+            image.getRGB(0, y, width, 1, row, 0, width);
+        }
+    }
+
+    /**
+     * for each target index the first covered source index and the covered area of each source index,
+     * the weights of a target index add up to 1.
+     */
+    private static class Weights {
+        final int[] start;
+        final float[][] weights;
+
+        Weights(int sourceSize, int targetSize) {
+            start = new int[targetSize];
+            weights = new float[targetSize][];
+            final double scale = (double) sourceSize / targetSize;
+
+            for (int i = 0; i < targetSize; i++) {
+                final double from = i * scale;
+                final double to = Math.min(sourceSize, (i + 1) * scale);
+                final int first = (int) Math.floor(from);
+                final int last = Math.min(sourceSize - 1, (int) Math.ceil(to) - 1);
+
+                start[i] = first;
+                weights[i] = new float[last - first + 1];
+                for (int k = first; k <= last; k++) {
+                    weights[i][k - first] = (float) ((Math.min(to, k + 1) - Math.max(from, k)) / (to - from));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package cloud.sonam.s3.file.util;
+
+import reactor.core.publisher.Flux;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Slices a stream of arbitrary sized byte buffers into parts of a fixed size for multipart uploads.
+ * The last part may be smaller.  A full part is held back until more bytes arrive so that
+ * the last part can be flagged as such.
+ */
+public class ByteBufferChunker {
+    private final int partSize;
+    private int partNumber;
+    private ByteBuffer current;
+    private ByteBuffer full;
+
+    public ByteBufferChunker(int partSize) {
+        if (partSize <= 0) {
+            throw new IllegalArgumentException("partSize must be positive: " + partSize);
+        }
+        this.partSize = partSize;
+    }
+
+    /**
+     * Slice the byte buffer flux into chunks of partSize.  At most two parts are buffered by the chunker.
+     * @param byteBufferFlux the file content
+     * @param partSize size of each part, except the last one
+     * @return flux of chunks with part numbers starting at 1
+     */
+    public static Flux<Chunk> chunk(Flux<ByteBuffer> byteBufferFlux, int partSize) {
+        return Flux.defer(() -> {
+            ByteBufferChunker chunker = new ByteBufferChunker(partSize);
+            return byteBufferFlux.concatMapIterable(chunker::write)
+                    .concatWith(Flux.defer(() -> Flux.fromIterable(chunker.finish())));
+        });
+    }
+
+    public List<Chunk> write(ByteBuffer byteBuffer) {
+        List<Chunk> chunks = new ArrayList<>(1);
+        ByteBuffer source = byteBuffer.duplicate();
+
+        while (source.hasRemaining()) {
+            if (current == null) {
+                // more bytes are coming so the held part is not the last one
+                if (full != null) {
+                    chunks.add(new Chunk(++partNumber, full, false));
+                    full = null;
+                }
+                current = ByteBuffer.allocate(partSize);
+            }
+            int length = Math.min(source.remaining(), current.remaining());
+            current.put(source.slice(source.position(), length));
+            source.position(source.position() + length);
+
+            if (!current.hasRemaining()) {
+                current.flip();
+                full = current;
+                current = null;
+            }
+        }
+        return chunks;
+    }
+
+    public List<Chunk> finish() {
+        List<Chunk> chunks = new ArrayList<>(2);
+
+        if (current != null) {
+            if (full != null) {
+                chunks.add(new Chunk(++partNumber, full, false));
+            }
+            current.flip();
+            chunks.add(new Chunk(++partNumber, current, true));
+        }
+        else if (full != null) {
+            chunks.add(new Chunk(++partNumber, full, true));
+        }
+        else if (partNumber == 0) {
+            // empty content is still a single (empty) part
+            chunks.add(new Chunk(++partNumber, ByteBuffer.allocate(0), true));
+        }
+        current = null;
+        full = null;
+        return chunks;
+    }
+
+    public record Chunk(int partNumber, ByteBuffer byteBuffer, boolean last) {
+        public int size() {
+            return byteBuffer.remaining();
+        }
+    }
+}
@@ -0,0 +1,505 @@
+package cloud.sonam.s3.file.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Encodes frames into an animated GIF89a that loops forever.
+ * <p>
+ * All frames share one global palette.  The palette is built with median cut over a 15 bit color histogram of
+ * every frame.  A 32768 entry inverse colormap then maps each 15 bit color to its nearest palette index, so a
+ * pixel is quantized with one table lookup.  The frames are split into chunks, one per worker.  Each worker
+ * quantizes and LZW encodes its frames into separate buffers and reuses its pixel, index and LZW buffers for
+ * every frame.  Only writing the encoded frames to the output is serial.
+ */
+public class GifEncoder {
+    private static final Logger LOG = LoggerFactory.getLogger(GifEncoder.class);
+
+    private static final int PALETTE_SIZE = 256;
+    private static final int HISTOGRAM_SIZE = 1 << 15;
+
+    private final int delayCentiseconds;
+
+    private final ExecutorService executorService;
+
+    private final int parallelism;
+
+    /**
+     * @param frameRate frames per second
+     * @param executorService runs the workers, null encodes on the calling thread
+     * @param parallelism max number of workers
+     */
+    public GifEncoder(int frameRate, ExecutorService executorService, int parallelism) {
+        this.delayCentiseconds = Math.round(100f / Math.max(1, frameRate));
+        this.executorService = executorService;
+        this.parallelism = executorService == null ? 1 : Math.max(1, parallelism);
+    }
+
+    public void encode(List<BufferedImage> frames, OutputStream outputStream) throws IOException {
+        if (frames.isEmpty()) {
+            throw new IOException("no frames to encode");
+        }
+        final List<List<BufferedImage>> chunks = chunk(frames);
+
+        // histograms of every chunk, summed into one
+        long[] histogram = new long[HISTOGRAM_SIZE * 4];
+        for (long[] chunkHistogram : invokeAll(chunks.stream().<Callable<long[]>>map(chunk -> () -> histogram(chunk)).toList())) {
+            for (int i = 0; i < histogram.length; i++) {
+                histogram[i] += chunkHistogram[i];
+            }
+        }
+
+        final int[] palette = medianCut(histogram);
+        final byte[] inverseColormap = inverseColormap(palette, histogram);
+
+        List<byte[]> encodedFrames = new ArrayList<>();
+        for (List<byte[]> chunkFrames : invokeAll(chunks.stream()
+                .<Callable<List<byte[]>>>map(chunk -> () -> encodeFrames(chunk, inverseColormap)).toList())) {
+            encodedFrames.addAll(chunkFrames);
+        }
+
+        int width = 0;
+        int height = 0;
+        for (BufferedImage frame : frames) {
+            width = Math.max(width, frame.getWidth());
+            height = Math.max(height, frame.getHeight());
+        }
+        writeHeader(outputStream, width, height, palette);
+
+        for (int i = 0; i < frames.size(); i++) {
+            writeFrame(outputStream, frames.get(i).getWidth(), frames.get(i).getHeight(), encodedFrames.get(i));
+        }
+        outputStream.write(0x3b);
+        outputStream.flush();
+        LOG.debug("encoded {} frames of {}x{} in {} chunks", frames.size(), width, height, chunks.size());
+    }
+
+    private List<List<BufferedImage>> chunk(List<BufferedImage> frames) {
+        final int workers = Math.min(parallelism, frames.size());
+        List<List<BufferedImage>> chunks = new ArrayList<>();
+        for (int worker = 0; worker < workers; worker++) {
+            chunks.add(frames.subList(frames.size() * worker / workers, frames.size() * (worker + 1) / workers));
+        }
+        return chunks;
+    }
+
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws IOException {
+        try {
+            List<T> results = new ArrayList<>();
+            if (executorService == null || tasks.size() == 1) {
+                for (Callable<T> task : tasks) {
+                    results.add(task.call());
+                }
+                return results;
+            }
+            for (Future<T> future : executorService.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+            return results;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while encoding gif", e);
+        }
+        catch (ExecutionException e) {
+            throw new IOException("failed to encode gif", e.getCause());
+        }
+        catch (IOException | RuntimeException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IOException("failed to encode gif", e);
+        }
+    }
+
+    /**
+     * @return pixel count, red, green and blue sums for each 15 bit color
+     */
+    private static long[] histogram(List<BufferedImage> frames) {
+        long[] histogram = new long[HISTOGRAM_SIZE * 4];
+        int[] pixels = new int[0];
+
+        for (BufferedImage frame : frames) {
+            pixels = getPixels(frame, pixels);
+            final int length = frame.getWidth() * frame.getHeight();
+
+            for (int i = 0; i < length; i++) {
+                final int rgb = pixels[i];
+                final int bin = toBin(rgb) * 4;
+                histogram[bin]++;
+                histogram[bin + 1] += (rgb >> 16) & 0xff;
+                histogram[bin + 2] += (rgb >> 8) & 0xff;
+                histogram[bin + 3] += rgb & 0xff;
+            }
+        }
+        return histogram;
+    }
+
+    /**
+     * split the color space into boxes holding about the same number of pixels, the palette color of a box is
+     * the average color of its pixels.
+     */
+    private static int[] medianCut(long[] histogram) {
+        List<Box> boxes = new ArrayList<>();
+        boxes.add(new Box(histogram, 0, 31, 0, 31, 0, 31));
+
+        while (boxes.size() < PALETTE_SIZE) {
+            Box largest = null;
+            for (Box box : boxes) {
+                if (box.canSplit() && (largest == null || box.count > largest.count)) {
+                    largest = box;
+                }
+            }
+            if (largest == null) {
+                break;
+            }
+            boxes.remove(largest);
+            boxes.addAll(largest.split(histogram));
+        }
+
+        int[] palette = new int[PALETTE_SIZE];
+        for (int i = 0; i < boxes.size(); i++) {
+            palette[i] = boxes.get(i).averageColor(histogram);
+        }
+        return palette;
+    }
+
+    /**
+     * @return the nearest palette index for each 15 bit color that is used in the frames
+     */
+    private static byte[] inverseColormap(int[] palette, long[] histogram) {
+        byte[] inverseColormap = new byte[HISTOGRAM_SIZE];
+
+        for (int bin = 0; bin < HISTOGRAM_SIZE; bin++) {
+            if (histogram[bin * 4] == 0) {
+                continue;
+            }
+            final int red = ((bin >> 10) << 3) + 4;
+            final int green = (((bin >> 5) & 0x1f) << 3) + 4;
+            final int blue = ((bin & 0x1f) << 3) + 4;
+
+            int nearest = 0;
+            int nearestDistance = Integer.MAX_VALUE;
+            for (int i = 0; i < palette.length; i++) {
+                final int dr = red - ((palette[i] >> 16) & 0xff);
+                final int dg = green - ((palette[i] >> 8) & 0xff);
+                final int db = blue - (palette[i] & 0xff);
+                final int distance = dr * dr + dg * dg + db * db;
+                if (distance < nearestDistance) {
+                    nearestDistance = distance;
+                    nearest = i;
+                }
+            }
+            inverseColormap[bin] = (byte) nearest;
+        }
+        return inverseColormap;
+    }
+
+    private static List<byte[]> encodeFrames(List<BufferedImage> frames, byte[] inverseColormap) {
+        List<byte[]> encodedFrames = new ArrayList<>();
+        int[] pixels = new int[0];
+        byte[] indices = new byte[0];
+        LzwEncoder lzwEncoder = new LzwEncoder();
+
+        for (BufferedImage frame : frames) {
+            pixels = getPixels(frame, pixels);
+            final int length = frame.getWidth() * frame.getHeight();
+            if (indices.length < length) {
+                indices = new byte[length];
+            }
+            for (int i = 0; i < length; i++) {
+                indices[i] = inverseColormap[toBin(pixels[i])];
+            }
+            encodedFrames.add(lzwEncoder.encode(indices, length));
+        }
+        return encodedFrames;
+    }
+
+    private static int[] getPixels(BufferedImage frame, int[] pixels) {
+        final int length = frame.getWidth() * frame.getHeight();
+        if (pixels.length < length) {
+            pixels = new int[length];
+        }
+        frame.getRGB(0, 0, frame.getWidth(), frame.getHeight(), pixels, 0, frame.getWidth());
+        return pixels;
+    }
+
+    private static int toBin(int rgb) {
+        return ((rgb >> 9) & 0x7c00) | ((rgb >> 6) & 0x03e0) | ((rgb >> 3) & 0x001f);
+    }
+
+    private void writeHeader(OutputStream outputStream, int width, int height, int[] palette) throws IOException {
+        outputStream.write("GIF89a".getBytes(StandardCharsets.US_ASCII));
+        writeShort(outputStream, width);
+        writeShort(outputStream, height);
+        // global color table of 256 colors with 8 bits per color
+        outputStream.write(0xf7);
+        outputStream.write(0);
+        outputStream.write(0);
+
+        byte[] colorTable = new byte[PALETTE_SIZE * 3];
+        for (int i = 0; i < PALETTE_SIZE; i++) {
+            colorTable[i * 3] = (byte) (palette[i] >> 16);
+            colorTable[i * 3 + 1] = (byte) (palette[i] >> 8);
+            colorTable[i * 3 + 2] = (byte) palette[i];
+        }
+        outputStream.write(colorTable);
+
+        // netscape application extension, loop forever
+        outputStream.write(new byte[]{0x21, (byte) 0xff, 0x0b});
+        outputStream.write("NETSCAPE2.0".getBytes(StandardCharsets.US_ASCII));
+        outputStream.write(new byte[]{0x03, 0x01, 0x00, 0x00, 0x00});
+    }
+
+    private void writeFrame(OutputStream outputStream, int width, int height, byte[] lzwData) throws IOException {
+        // graphic control extension with the frame delay
+        outputStream.write(new byte[]{0x21, (byte) 0xf9, 0x04, 0x00});
+        writeShort(outputStream, delayCentiseconds);
+        outputStream.write(new byte[]{0x00, 0x00});
+
+        // image descriptor using the global color table
+        outputStream.write(0x2c);
+        writeShort(outputStream, 0);
+        writeShort(outputStream, 0);
+        writeShort(outputStream, width);
+        writeShort(outputStream, height);
+        outputStream.write(0);
+
+        outputStream.write(lzwData);
+    }
+
+    private static void writeShort(OutputStream outputStream, int value) throws IOException {
+        outputStream.write(value & 0xff);
+        outputStream.write((value >> 8) & 0xff);
+    }
+
+    /**
+     * a box of 15 bit colors, r g b bounds are inclusive 5 bit values.
+     */
+    private static class Box {
+        private int r0, r1, g0, g1, b0, b1;
+        private long count;
+
+        Box(long[] histogram, int r0, int r1, int g0, int g1, int b0, int b1) {
+            this.r0 = r0;
+            this.r1 = r1;
+            this.g0 = g0;
+            this.g1 = g1;
+            this.b0 = b0;
+            this.b1 = b1;
+            shrink(histogram);
+        }
+
+        boolean canSplit() {
+            return count > 1 && (r1 > r0 || g1 > g0 || b1 > b0);
+        }
+
+        /**
+         * shrink the bounds to the colors that are used and count the pixels.
+         */
+        private void shrink(long[] histogram) {
+            int minR = 31, maxR = 0, minG = 31, maxG = 0, minB = 31, maxB = 0;
+            count = 0;
+            for (int r = r0; r <= r1; r++) {
+                for (int g = g0; g <= g1; g++) {
+                    for (int b = b0; b <= b1; b++) {
+                        final long pixels = histogram[((r << 10) | (g << 5) | b) * 4];
+                        if (pixels > 0) {
+                            count += pixels;
+                            minR = Math.min(minR, r);
+                            maxR = Math.max(maxR, r);
+                            minG = Math.min(minG, g);
+                            maxG = Math.max(maxG, g);
+                            minB = Math.min(minB, b);
+                            maxB = Math.max(maxB, b);
+                        }
+                    }
+                }
+            }
+            if (count > 0) {
+                r0 = minR;
+                r1 = maxR;
+                g0 = minG;
+                g1 = maxG;
+                b0 = minB;
+                b1 = maxB;
+            }
+        }
+
+        /**
+         * split along the longest axis at the median pixel.
+         */
+        List<Box> split(long[] histogram) {
+            final int rRange = r1 - r0;
+            final int gRange = g1 - g0;
+            final int bRange = b1 - b0;
+            final int axis = rRange >= gRange && rRange >= bRange ? 0 : gRange >= bRange ? 1 : 2;
+            final int low = axis == 0 ? r0 : axis == 1 ? g0 : b0;
+            final int high = axis == 0 ? r1 : axis == 1 ? g1 : b1;
+
+            long[] slices = new long[32];
+            for (int r = r0; r <= r1; r++) {
+                for (int g = g0; g <= g1; g++) {
+                    for (int b = b0; b <= b1; b++) {
+                        slices[axis == 0 ? r : axis == 1 ? g : b] += histogram[((r << 10) | (g << 5) | b) * 4];
+                    }
+                }
+            }
+
+            // the lower box ends at the slice holding the median, but never takes every slice
+            int median = low;
+            long lowerCount = slices[low];
+            while (median < high - 1 && lowerCount * 2 < count) {
+                median++;
+                lowerCount += slices[median];
+            }
+
+            return switch (axis) {
+                case 0 -> List.of(new Box(histogram, r0, median, g0, g1, b0, b1), new Box(histogram, median + 1, r1, g0, g1, b0, b1));
+                case 1 -> List.of(new Box(histogram, r0, r1, g0, median, b0, b1), new Box(histogram, r0, r1, median + 1, g1, b0, b1));
+                default -> List.of(new Box(histogram, r0, r1, g0, g1, b0, median), new Box(histogram, r0, r1, g0, g1, median + 1, b1));
+            };
+        }
+
+        int averageColor(long[] histogram) {
+            long pixels = 0, red = 0, green = 0, blue = 0;
+            for (int r = r0; r <= r1; r++) {
+                for (int g = g0; g <= g1; g++) {
+                    for (int b = b0; b <= b1; b++) {
+                        final int bin = ((r << 10) | (g << 5) | b) * 4;
+                        pixels += histogram[bin];
+                        red += histogram[bin + 1];
+                        green += histogram[bin + 2];
+                        blue += histogram[bin + 3];
+                    }
+                }
+            }
+            if (pixels == 0) {
+                return 0;
+            }
+            return (int) (red / pixels) << 16 | (int) (green / pixels) << 8 | (int) (blue / pixels);
+        }
+    }
+
+    /**
+     * variable length code LZW for 8 bit color indices as used by GIF.  The code table is an open addressing hash
+     * of prefix code and next index, the encoder is reused for all the frames of a worker.
+     */
+    private static class LzwEncoder {
+        private static final int MIN_CODE_SIZE = 8;
+        private static final int CLEAR_CODE = 1 << MIN_CODE_SIZE;
+        private static final int END_CODE = CLEAR_CODE + 1;
+        private static final int MAX_CODE = 4096;
+        private static final int HASH_SIZE = 1 << 14;
+
+        private final int[] hashKeys = new int[HASH_SIZE];
+        private final int[] hashCodes = new int[HASH_SIZE];
+
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final byte[] block = new byte[255];
+        private int blockLength;
+
+        private int bitBuffer;
+        private int bitCount;
+        private int codeSize;
+        private int nextCode;
+
+        byte[] encode(byte[] indices, int length) {
+            output.reset();
+            output.write(MIN_CODE_SIZE);
+            blockLength = 0;
+            bitBuffer = 0;
+            bitCount = 0;
+
+            clear();
+            writeCode(CLEAR_CODE);
+
+            int prefix = indices[0] & 0xff;
+            for (int i = 1; i < length; i++) {
+                final int index = indices[i] & 0xff;
+                // 0 marks an empty slot
+                final int key = ((prefix << 8) | index) + 1;
+
+                int slot = (key * 0x9e3779b1) >>> 18;
+                while (hashKeys[slot] != 0 && hashKeys[slot] != key) {
+                    slot = (slot + 1) & (HASH_SIZE - 1);
+                }
+                if (hashKeys[slot] == key) {
+                    prefix = hashCodes[slot];
+                    continue;
+                }
+
+                writeCode(prefix);
+                if (nextCode < MAX_CODE) {
+                    hashKeys[slot] = key;
+                    hashCodes[slot] = nextCode++;
+                }
+                else {
+                    writeCode(CLEAR_CODE);
+                    clear();
+                }
+                prefix = index;
+            }
+            writeCode(prefix);
+            writeCode(END_CODE);
+
+            if (bitCount > 0) {
+                writeByte(bitBuffer & 0xff);
+            }
+            flushBlock();
+            // block terminator
+            output.write(0);
+            return output.toByteArray();
+        }
+
+        private void clear() {
+            Arrays.fill(hashKeys, 0);
+            nextCode = END_CODE + 1;
+            codeSize = MIN_CODE_SIZE + 1;
+        }
+
+        /**
+         * write the code with the current code size, then grow the code size once the decoder's table reaches it.
+         */
+        private void writeCode(int code) {
+            bitBuffer |= code << bitCount;
+            bitCount += codeSize;
+            while (bitCount >= 8) {
+                writeByte(bitBuffer & 0xff);
+                bitBuffer >>>= 8;
+                bitCount -= 8;
+            }
+            if (code != CLEAR_CODE && nextCode > (1 << codeSize) - 1 && codeSize < 12) {
+                codeSize++;
+            }
+        }
+
+        private void writeByte(int value) {
+            block[blockLength++] = (byte) value;
+            if (blockLength == block.length) {
+                flushBlock();
+            }
+        }
+
+        private void flushBlock() {
+            if (blockLength > 0) {
+                output.write(blockLength);
+                output.write(block, 0, blockLength);
+                blockLength = 0;
+            }
+        }
+    }
+}
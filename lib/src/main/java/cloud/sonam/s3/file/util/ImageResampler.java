@@ -0,0 +1,50 @@
+package cloud.sonam.s3.file.util;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+
+/**
+ * Scales an image down to the thumbnail size from {@link ImageUtil#getScaledDimension(Dimension, Dimension)}.
+ */
+public interface ImageResampler {
+    Logger LOG = LoggerFactory.getLogger(ImageResampler.class);
+
+    /**
+     * @return a new TYPE_INT_RGB image of the target size
+     */
+    BufferedImage resample(BufferedImage image, Dimension target);
+
+    /**
+     * create the configured resampler.  The vector resampler needs the jdk.incubator.vector module
+     * (--add-modules=jdk.incubator.vector), without it the scalar box resampler is used.
+     */
+    static ImageResampler create(S3ClientConfigurationProperties.Resampler resampler) {
+        switch (resampler) {
+            case BOX -> {
+                return new BoxResampler();
+            }
+            case VECTOR -> {
+                if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+                    LOG.warn("jdk.incubator.vector module is not available, use the scalar box resampler");
+                    return new BoxResampler();
+                }
+                try {
+                    // loaded by name so this class does not link against the incubator module
+                    return (ImageResampler) Class.forName("cloud.sonam.s3.file.util.VectorBoxResampler")
+                            .getDeclaredConstructor().newInstance();
+                }
+                catch (ReflectiveOperationException | LinkageError e) {
+                    LOG.warn("failed to create the vector resampler, use the scalar box resampler", e);
+                    return new BoxResampler();
+                }
+            }
+            default -> {
+                return ImageUtil::scaleProgressively;
+            }
+        }
+    }
+}
@@ -4,7 +4,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.MediaType;
 
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
 import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.LocalDateTime;
+import java.util.Iterator;
+import java.util.List;
 
 public class ImageUtil {
     private static final Logger LOG = LoggerFactory.getLogger(ImageUtil.class);
@@ -24,6 +34,13 @@ public class ImageUtil {
         return "unknown"; // Default if format can't be determined
     }
 
+    /**
+     * the key an upload is stored under, like prefixPath/2024-11-22T08:15:40.314460.jpeg
+     */
+    public static String getFileKey(String prefixPath, String fileName, MediaType mediaType, LocalDateTime localDateTime) {
+        return prefixPath + localDateTime + "." + getFileFormat(mediaType, fileName);
+    }
+
 
     public static Dimension getScaledDimension(Dimension imgSize, Dimension boundary) {
         LOG.debug("get scaled dimension for thumbnail");
@@ -53,4 +70,94 @@ public class ImageUtil {
 
         return new Dimension(newWidth, newHeight);
     }
+
+    /**
+     * Read an image for a thumbnail of the boundary size.  The dimensions are read from the header first,
+     * then the image is decoded with source subsampling so only every n-th pixel is decoded.  The decoded
+     * image is kept at least twice the thumbnail size for a good quality final scale.  A 48MP photo
+     * for a 100x100 thumbnail decodes to a few hundred pixels wide instead of 8000.
+     */
+    public static BufferedImage readSubsampled(InputStream inputStream, Dimension boundary) throws IOException {
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(inputStream)) {
+            if (imageInputStream == null) {
+                throw new IOException("failed to create image input stream");
+            }
+            Iterator<ImageReader> imageReaders = ImageIO.getImageReaders(imageInputStream);
+            if (!imageReaders.hasNext()) {
+                throw new IOException("no image reader found for the image format");
+            }
+            ImageReader imageReader = imageReaders.next();
+            try {
+                imageReader.setInput(imageInputStream, true, true);
+                final int width = imageReader.getWidth(0);
+                final int height = imageReader.getHeight(0);
+
+                final int subsampling = getSubsampling(new Dimension(width, height), boundary);
+                LOG.debug("image width: {}, height: {}, decode with subsampling: {}", width, height, subsampling);
+
+                ImageReadParam imageReadParam = imageReader.getDefaultReadParam();
+                if (subsampling > 1) {
+                    imageReadParam.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                }
+                return imageReader.read(0, imageReadParam);
+            }
+            finally {
+                imageReader.dispose();
+            }
+        }
+    }
+
+    /**
+     * @return the largest subsampling that keeps the decoded image at least twice the scaled thumbnail size
+     */
+    public static int getSubsampling(Dimension imgSize, Dimension boundary) {
+        Dimension scaled = getScaledDimension(imgSize, boundary);
+
+        int subsampling = Math.min(imgSize.width / Math.max(1, scaled.width * 2),
+                imgSize.height / Math.max(1, scaled.height * 2));
+        return Math.max(1, subsampling);
+    }
+
+    /**
+     * scale the image down to the target size in steps of at most half the size.  Every step of the bilinear
+     * filter then samples all the source pixels which gives a result close to area averaging, a single
+     * bilinear step from a much larger image skips pixels and aliases.
+     */
+    public static BufferedImage scaleProgressively(BufferedImage image, Dimension target) {
+        final int targetWidth = Math.max(1, target.width);
+        final int targetHeight = Math.max(1, target.height);
+
+        BufferedImage scaled = image;
+        do {
+            int width = Math.max(targetWidth, scaled.getWidth() / 2);
+            int height = Math.max(targetHeight, scaled.getHeight() / 2);
+            scaled = scale(scaled, width, height);
+        } while (scaled.getWidth() != targetWidth || scaled.getHeight() != targetHeight);
+
+        return scaled;
+    }
+
+    private static BufferedImage scale(BufferedImage image, int width, int height) {
+        BufferedImage scaledImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+
+        Graphics2D graphics = scaledImage.createGraphics();
+        graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        graphics.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+        graphics.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+
+        graphics.drawImage(image, 0, 0, width, height, null);
+        graphics.dispose();
+        return scaledImage;
+    }
+
+    /**
+     * @return the smallest boundary that holds all the thumbnail sizes
+     */
+    public static Dimension getLargest(List<Dimension> thumbnails) {
+        Dimension largest = new Dimension(0, 0);
+        for (Dimension thumbnail : thumbnails) {
+            largest.setSize(Math.max(largest.width, thumbnail.width), Math.max(largest.height, thumbnail.height));
+        }
+        return largest;
+    }
 }
@@ -0,0 +1,228 @@
+package cloud.sonam.s3.file.util;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A seekable input stream over a http url that reads the content with range requests in blocks.
+ * The most recent blocks are kept in a small cache.
+ * <p>
+ * {@link #mark(int)}, {@link #reset()} and {@link #skip(long)} only move the position, so a reader that seeks with
+ * them, like the FFmpegFrameGrabber seek callback, fetches only the blocks it reads.  For a mp4 with the moov atom
+ * at the end that is the container index and the few frames that are decoded instead of the whole video.
+ */
+public class RangeInputStream extends InputStream {
+    private static final Logger LOG = LoggerFactory.getLogger(RangeInputStream.class);
+
+    private final URL url;
+    private final int blockSize;
+    private final long length;
+    private final Map<Long, byte[]> blocks;
+
+    private long position;
+    private long mark;
+    private int rangeRequests;
+    private long bytesFetched;
+
+    private RangeInputStream(URL url, int blockSize, int cacheBlocks, long length) {
+        this.url = url;
+        this.blockSize = blockSize;
+        this.length = length;
+        this.blocks = new LinkedHashMap<>(cacheBlocks + 1, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > cacheBlocks;
+            }
+        };
+    }
+
+    /**
+     * open the url with a range request for the first block.  When the url is not http or the server does not
+     * support ranges the plain url stream is returned instead.
+     */
+    public static InputStream open(URL url, int blockSize, int cacheBlocks) throws IOException {
+        if (!"http".equalsIgnoreCase(url.getProtocol()) && !"https".equalsIgnoreCase(url.getProtocol())) {
+            return url.openStream();
+        }
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Range", "bytes=0-" + (blockSize - 1));
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                LOG.warn("range request not supported, response code: {}, read the whole stream", connection.getResponseCode());
+                return openWholeStream(connection);
+            }
+
+            final String contentRange = connection.getHeaderField("Content-Range");
+            final long length = getLength(contentRange);
+            if (length < 0) {
+                // the partial body is only the first block, request the whole content again
+                LOG.warn("range response without a complete length, Content-Range: {}, read the whole stream", contentRange);
+                connection.disconnect();
+                return openWholeStream((HttpURLConnection) url.openConnection());
+            }
+            LOG.info("open range stream of length: {}, blockSize: {}", length, blockSize);
+
+            RangeInputStream rangeInputStream = new RangeInputStream(url, blockSize, cacheBlocks, length);
+            try (InputStream inputStream = connection.getInputStream()) {
+                rangeInputStream.addBlock(0, inputStream);
+            }
+            connection.disconnect();
+            return rangeInputStream;
+        }
+        catch (IOException | RuntimeException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Content-Range: bytes 0-1048575/734003200, the length is * when the server does not know it.
+     * @return the complete length or -1 when the header is missing or has no length
+     */
+    private static long getLength(String contentRange) {
+        if (contentRange == null) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(contentRange.substring(contentRange.lastIndexOf('/') + 1).trim());
+        }
+        catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return the response body of the connection that disconnects it when closed
+     */
+    private static InputStream openWholeStream(HttpURLConnection connection) throws IOException {
+        try {
+            return new FilterInputStream(connection.getInputStream()) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    }
+                    finally {
+                        connection.disconnect();
+                    }
+                }
+            };
+        }
+        catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    @Override
+    public int read() throws IOException {
+        byte[] bytes = new byte[1];
+        return read(bytes, 0, 1) == -1 ? -1 : bytes[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] bytes, int offset, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (position >= length) {
+            return -1;
+        }
+        final long blockIndex = position / blockSize;
+        byte[] block = getBlock(blockIndex);
+
+        final int blockOffset = (int) (position - blockIndex * blockSize);
+        final int read = Math.min(len, block.length - blockOffset);
+        System.arraycopy(block, blockOffset, bytes, offset, read);
+        position += read;
+        return read;
+    }
+
+    @Override
+    public long skip(long n) {
+        if (n <= 0) {
+            return 0;
+        }
+        final long skipped = Math.min(n, length - position);
+        position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, length - position);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public void mark(int readLimit) {
+        mark = position;
+    }
+
+    @Override
+    public void reset() {
+        position = mark;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public void close() {
+        LOG.info("read {} of {} bytes with {} range requests", bytesFetched, length, rangeRequests);
+        blocks.clear();
+    }
+
+    private byte[] getBlock(long blockIndex) throws IOException {
+        byte[] block = blocks.get(blockIndex);
+        if (block != null) {
+            return block;
+        }
+        final long start = blockIndex * blockSize;
+        final long end = Math.min(length, start + blockSize) - 1;
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setRequestProperty("Range", "bytes=" + start + "-" + end);
+        try {
+            if (connection.getResponseCode() != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("range request for bytes " + start + "-" + end + " failed with response code: "
+                        + connection.getResponseCode());
+            }
+            try (InputStream inputStream = connection.getInputStream()) {
+                return addBlock(blockIndex, inputStream);
+            }
+        }
+        finally {
+            connection.disconnect();
+        }
+    }
+
+    private byte[] addBlock(long blockIndex, InputStream inputStream) throws IOException {
+        final long start = blockIndex * blockSize;
+        final int size = (int) (Math.min(length, start + blockSize) - start);
+
+        byte[] block = inputStream.readNBytes(size);
+        if (block.length != size) {
+            throw new IOException("expected " + size + " bytes at offset " + start + " but got " + block.length);
+        }
+        rangeRequests++;
+        bytesFetched += size;
+        blocks.put(blockIndex, block);
+        LOG.debug("fetched block {} of {} bytes", blockIndex, size);
+        return block;
+    }
+}
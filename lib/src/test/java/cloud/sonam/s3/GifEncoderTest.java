@@ -0,0 +1,113 @@
+package cloud.sonam.s3;
+
+import cloud.sonam.s3.file.util.GifEncoder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Encodes frames with the gif encoder and decodes the result with ImageIO.
+ */
+public class GifEncoderTest {
+    private static final Logger LOG = LoggerFactory.getLogger(GifEncoderTest.class);
+
+    private final ExecutorService executorService = Executors.newFixedThreadPool(4);
+
+    @AfterEach
+    public void shutdown() {
+        executorService.shutdownNow();
+    }
+
+    @Test
+    public void encodeFramesInParallel() throws IOException {
+        List<BufferedImage> frames = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            frames.add(createFrame(160, 90, i));
+        }
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        new GifEncoder(2, executorService, 4).encode(frames, byteArrayOutputStream);
+        LOG.info("gif of {} bytes", byteArrayOutputStream.size());
+
+        ImageReader imageReader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(
+                new ByteArrayInputStream(byteArrayOutputStream.toByteArray()))) {
+            imageReader.setInput(imageInputStream);
+            assertEquals(10, imageReader.getNumImages(true));
+
+            for (int i = 0; i < 10; i++) {
+                BufferedImage decoded = imageReader.read(i);
+                assertEquals(160, decoded.getWidth());
+                assertEquals(90, decoded.getHeight());
+                assertSimilar(frames.get(i), decoded);
+            }
+        }
+        finally {
+            imageReader.dispose();
+        }
+    }
+
+    @Test
+    public void encodeOnCallingThread() throws IOException {
+        // a noisy frame fills the LZW code table so the encoder has to send clear codes
+        BufferedImage frame = new BufferedImage(300, 300, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < frame.getHeight(); y++) {
+            for (int x = 0; x < frame.getWidth(); x++) {
+                frame.setRGB(x, y, random.nextInt(0xffffff));
+            }
+        }
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        new GifEncoder(2, null, 1).encode(List.of(frame), byteArrayOutputStream);
+
+        BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+        assertEquals(300, decoded.getWidth());
+        assertEquals(300, decoded.getHeight());
+    }
+
+    private BufferedImage createFrame(int width, int height, int frameNumber) {
+        BufferedImage frame = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = frame.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.BLUE, width, height, Color.ORANGE));
+        graphics.fillRect(0, 0, width, height);
+        graphics.setColor(Color.WHITE);
+        graphics.fillOval(frameNumber * 10, 20, 40, 40);
+        graphics.dispose();
+        return frame;
+    }
+
+    /**
+     * every pixel is within the error of a 256 color palette.
+     */
+    private void assertSimilar(BufferedImage expected, BufferedImage actual) {
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                Color expectedColor = new Color(expected.getRGB(x, y));
+                Color actualColor = new Color(actual.getRGB(x, y));
+                int difference = Math.abs(expectedColor.getRed() - actualColor.getRed())
+                        + Math.abs(expectedColor.getGreen() - actualColor.getGreen())
+                        + Math.abs(expectedColor.getBlue() - actualColor.getBlue());
+                assertTrue(difference < 60, "pixel " + x + "," + y + " differs by " + difference);
+            }
+        }
+    }
+}
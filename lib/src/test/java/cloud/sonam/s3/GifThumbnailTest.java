@@ -0,0 +1,236 @@
+package cloud.sonam.s3;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.GifThumbnail;
+import cloud.sonam.s3.file.ThumbnailExecutor;
+import org.bytedeco.ffmpeg.global.avcodec;
+import org.bytedeco.ffmpeg.global.avutil;
+import org.bytedeco.javacv.FFmpegFrameGrabber;
+import org.bytedeco.javacv.FFmpegFrameRecorder;
+import org.bytedeco.javacv.Java2DFrameConverter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.http.MediaType;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Creates video previews from a generated 4 second video with a keyframe every second and a different
+ * color every second: red, green, blue and white.
+ */
+public class GifThumbnailTest {
+
+    private static final Color[] SECOND_COLORS = {Color.RED, Color.GREEN, Color.BLUE, Color.WHITE};
+
+    private final S3ClientConfigurationProperties s3config = new S3ClientConfigurationProperties();
+
+    private ThumbnailExecutor thumbnailExecutor;
+
+    private URL video;
+
+    @TempDir
+    private Path directory;
+
+    @BeforeEach
+    public void createVideo() throws Exception {
+        Path videoFile = directory.resolve("video.mp4");
+        Java2DFrameConverter converter = new Java2DFrameConverter();
+
+        try (FFmpegFrameRecorder frameRecorder = new FFmpegFrameRecorder(videoFile.toFile(), 320, 240, 0)) {
+            frameRecorder.setFormat("mp4");
+            frameRecorder.setVideoCodec(avcodec.AV_CODEC_ID_MPEG4);
+            frameRecorder.setPixelFormat(avutil.AV_PIX_FMT_YUV420P);
+            frameRecorder.setFrameRate(10);
+            frameRecorder.setGopSize(10);
+            frameRecorder.setVideoQuality(2);
+            frameRecorder.start();
+
+            for (Color color : SECOND_COLORS) {
+                BufferedImage image = new BufferedImage(320, 240, BufferedImage.TYPE_3BYTE_BGR);
+                Graphics2D graphics = image.createGraphics();
+                graphics.setColor(color);
+                graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+                graphics.dispose();
+
+                for (int i = 0; i < 10; i++) {
+                    frameRecorder.record(converter.convert(image));
+                }
+            }
+            frameRecorder.stop();
+        }
+        video = videoFile.toUri().toURL();
+        s3config.setThumbnailSpillDirectory(directory.toString());
+    }
+
+    @AfterEach
+    public void shutdown() {
+        if (thumbnailExecutor != null) {
+            thumbnailExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void keyframeGifHasEvenlySpacedFrames() throws IOException {
+        s3config.setVideoFrameSelection(S3ClientConfigurationProperties.FrameSelection.KEYFRAME);
+        s3config.setVideoPreviewFrameCount(3);
+        s3config.setVideoSegmentConcurrency(1);
+
+        List<BufferedImage> frames = readGif(createGifThumbnail()
+                .getByteArrayOutputStream(video, new Dimension(100, 100), MediaType.valueOf("video/mp4")).block());
+
+        // the keyframes at 1, 2 and 3 seconds
+        assertEquals(3, frames.size());
+        for (BufferedImage frame : frames) {
+            assertEquals(100, frame.getWidth());
+            assertEquals(75, frame.getHeight());
+        }
+        assertColor(Color.GREEN, frames.get(0));
+        assertColor(Color.BLUE, frames.get(1));
+        assertColor(Color.WHITE, frames.get(2));
+    }
+
+    @Test
+    public void keyframeGifInSegments() throws IOException {
+        s3config.setVideoFrameSelection(S3ClientConfigurationProperties.FrameSelection.KEYFRAME);
+        s3config.setVideoPreviewFrameCount(3);
+        s3config.setVideoSegmentConcurrency(3);
+
+        List<BufferedImage> frames = readGif(createGifThumbnail()
+                .getByteArrayOutputStream(video, new Dimension(100, 100), MediaType.valueOf("video/mp4")).block());
+
+        // each segment grabs one of the keyframes, merged in timestamp order
+        assertEquals(3, frames.size());
+        assertColor(Color.GREEN, frames.get(0));
+        assertColor(Color.BLUE, frames.get(1));
+        assertColor(Color.WHITE, frames.get(2));
+    }
+
+    @Test
+    public void mergeSegmentsDropsRepeatedKeyframes() {
+        BufferedImage image = new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB);
+        GifThumbnail.KeyFrame first = new GifThumbnail.KeyFrame(0, image);
+        GifThumbnail.KeyFrame second = new GifThumbnail.KeyFrame(2_000_000, image);
+        GifThumbnail.KeyFrame third = new GifThumbnail.KeyFrame(4_000_000, image);
+
+        // with a long gop the next segment seeks to the keyframe the previous segment ended with
+        List<GifThumbnail.KeyFrame> keyFrames = GifThumbnail.mergeSegments(List.of(
+                List.of(first, second), List.of(second), List.of(), List.of(second, third)));
+        assertEquals(List.of(first, second, third), keyFrames);
+
+        // a segment that seeks before the end of the previous one drops the earlier keyframe
+        assertEquals(List.of(first, third), GifThumbnail.mergeSegments(List.of(List.of(first, third), List.of(second))));
+    }
+
+    @Test
+    public void failedGifIsThrown() throws IOException {
+        Path notVideo = Files.writeString(directory.resolve("not-a-video.mp4"), "not a video");
+
+        // an error instead of an empty gif that would be uploaded as the preview
+        for (S3ClientConfigurationProperties.FrameSelection frameSelection : S3ClientConfigurationProperties.FrameSelection.values()) {
+            s3config.setVideoFrameSelection(frameSelection);
+            GifThumbnail gifThumbnail = createGifThumbnail();
+            assertThrows(RuntimeException.class, () -> gifThumbnail.getByteArrayOutputStream(notVideo.toUri().toURL(),
+                    new Dimension(100, 100), MediaType.valueOf("video/mp4")).block(), frameSelection.name());
+            thumbnailExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void clips() throws Exception {
+        assertClip(S3ClientConfigurationProperties.VideoPreviewFormat.MP4, avcodec.AV_CODEC_ID_H264);
+        assertClip(S3ClientConfigurationProperties.VideoPreviewFormat.WEBM, avcodec.AV_CODEC_ID_VP9);
+    }
+
+    private void assertClip(S3ClientConfigurationProperties.VideoPreviewFormat previewFormat, int videoCodec) throws Exception {
+        s3config.setVideoPreviewSeconds(2);
+        ByteArrayOutputStream byteArrayOutputStream = createGifThumbnail()
+                .getClip(video, new Dimension(100, 100), previewFormat).block();
+        thumbnailExecutor.shutdown();
+
+        try (FFmpegFrameGrabber frameGrabber = new FFmpegFrameGrabber(
+                new ByteArrayInputStream(byteArrayOutputStream.toByteArray()))) {
+            frameGrabber.start();
+            assertEquals(videoCodec, frameGrabber.getVideoCodec(), previewFormat.name());
+            // yuv420p rounds 100x75 down to an even height
+            assertEquals(100, frameGrabber.getImageWidth());
+            assertEquals(74, frameGrabber.getImageHeight());
+
+            // 2 seconds at 10 frames per second from 0.8 seconds into the video
+            int frames = 0;
+            while (frameGrabber.grabImage() != null) {
+                frames++;
+            }
+            assertTrue(frames >= 15 && frames <= 21, previewFormat + " has " + frames + " frames");
+        }
+    }
+
+    @Test
+    public void posterIsTheMiddleKeyframe() throws IOException {
+        s3config.setVideoPreviewFormat(S3ClientConfigurationProperties.VideoPreviewFormat.POSTER);
+
+        ByteArrayOutputStream byteArrayOutputStream = createGifThumbnail().getPoster(video, new Dimension(100, 100)).block();
+
+        // a single jpeg frame from 2 seconds into the video
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(
+                new ByteArrayInputStream(byteArrayOutputStream.toByteArray()))) {
+            ImageReader imageReader = ImageIO.getImageReaders(imageInputStream).next();
+            assertEquals("jpeg", imageReader.getFormatName().toLowerCase());
+            imageReader.dispose();
+        }
+
+        BufferedImage poster = ImageIO.read(new ByteArrayInputStream(byteArrayOutputStream.toByteArray()));
+        assertEquals(100, poster.getWidth());
+        assertEquals(75, poster.getHeight());
+        assertColor(Color.BLUE, poster);
+    }
+
+    private GifThumbnail createGifThumbnail() {
+        thumbnailExecutor = new ThumbnailExecutor(s3config);
+        return new GifThumbnail(thumbnailExecutor, s3config);
+    }
+
+    private List<BufferedImage> readGif(ByteArrayOutputStream byteArrayOutputStream) throws IOException {
+        List<BufferedImage> frames = new ArrayList<>();
+        ImageReader imageReader = ImageIO.getImageReadersByFormatName("gif").next();
+        try (ImageInputStream imageInputStream = ImageIO.createImageInputStream(
+                new ByteArrayInputStream(byteArrayOutputStream.toByteArray()))) {
+            imageReader.setInput(imageInputStream);
+            for (int i = 0; i < imageReader.getNumImages(true); i++) {
+                frames.add(imageReader.read(i));
+            }
+        }
+        finally {
+            imageReader.dispose();
+        }
+        return frames;
+    }
+
+    /**
+     * the center pixel is within the error of the video and image compression.
+     */
+    private void assertColor(Color expected, BufferedImage image) {
+        Color actual = new Color(image.getRGB(image.getWidth() / 2, image.getHeight() / 2));
+        int difference = Math.abs(expected.getRed() - actual.getRed())
+                + Math.abs(expected.getGreen() - actual.getGreen())
+                + Math.abs(expected.getBlue() - actual.getBlue());
+        assertTrue(difference < 90, "expected " + expected + " but got " + actual);
+    }
+}
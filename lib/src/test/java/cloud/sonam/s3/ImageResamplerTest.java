@@ -0,0 +1,85 @@
+package cloud.sonam.s3;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.util.BoxResampler;
+import cloud.sonam.s3.file.util.ImageResampler;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Scales images with the box resamplers, the test jvm runs with the jdk.incubator.vector module.
+ */
+public class ImageResamplerTest {
+
+    @Test
+    public void vectorResamplerIsCreated() {
+        ImageResampler imageResampler = ImageResampler.create(S3ClientConfigurationProperties.Resampler.VECTOR);
+        assertEquals("VectorBoxResampler", imageResampler.getClass().getSimpleName());
+    }
+
+    @Test
+    public void solidColorStaysSolid() {
+        BufferedImage image = new BufferedImage(333, 250, BufferedImage.TYPE_3BYTE_BGR);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(new Color(0x3c8dbc));
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+
+        for (S3ClientConfigurationProperties.Resampler resampler : S3ClientConfigurationProperties.Resampler.values()) {
+            BufferedImage resampled = ImageResampler.create(resampler).resample(image, new Dimension(100, 75));
+            assertEquals(100, resampled.getWidth());
+            assertEquals(75, resampled.getHeight());
+
+            for (int y = 0; y < resampled.getHeight(); y++) {
+                for (int x = 0; x < resampled.getWidth(); x++) {
+                    assertEquals(0x3c8dbc, resampled.getRGB(x, y) & 0xffffff, resampler + " pixel " + x + "," + y);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void boxAveragesCoveredPixels() {
+        // 2x2 blocks of black and white average to gray
+        BufferedImage image = new BufferedImage(4, 2, BufferedImage.TYPE_INT_RGB);
+        image.setRGB(0, 0, 0xffffff);
+        image.setRGB(1, 1, 0xffffff);
+        image.setRGB(2, 0, 0xffffff);
+        image.setRGB(3, 1, 0xffffff);
+
+        BufferedImage resampled = new BoxResampler().resample(image, new Dimension(2, 1));
+        assertEquals(0x808080, resampled.getRGB(0, 0) & 0xffffff);
+        assertEquals(0x808080, resampled.getRGB(1, 0) & 0xffffff);
+    }
+
+    @Test
+    public void vectorMatchesScalar() {
+        BufferedImage image = new BufferedImage(1003, 751, BufferedImage.TYPE_INT_RGB);
+        Random random = new Random(1);
+        for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+                image.setRGB(x, y, random.nextInt(0xffffff));
+            }
+        }
+        Dimension target = new Dimension(300, 224);
+        BufferedImage scalar = ImageResampler.create(S3ClientConfigurationProperties.Resampler.BOX).resample(image, target);
+        BufferedImage vector = ImageResampler.create(S3ClientConfigurationProperties.Resampler.VECTOR).resample(image, target);
+
+        for (int y = 0; y < target.height; y++) {
+            for (int x = 0; x < target.width; x++) {
+                Color expected = new Color(scalar.getRGB(x, y));
+                Color actual = new Color(vector.getRGB(x, y));
+                // fused multiply add rounds differently than multiply and add
+                assertTrue(Math.abs(expected.getRed() - actual.getRed()) <= 1
+                        && Math.abs(expected.getGreen() - actual.getGreen()) <= 1
+                        && Math.abs(expected.getBlue() - actual.getBlue()) <= 1, "pixel " + x + "," + y);
+            }
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package cloud.sonam.s3;
+
+import cloud.sonam.s3.file.util.ImageUtil;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the subsampled decode keeps at least twice the thumbnail size.
+ */
+public class ImageUtilTest {
+
+    @Test
+    public void subsamplingKeepsTwiceTheThumbnailSize() {
+        Dimension[] imageSizes = {new Dimension(8000, 6000), new Dimension(6000, 8000), new Dimension(4032, 3024),
+                new Dimension(1920, 1080), new Dimension(1001, 999), new Dimension(300, 200), new Dimension(50, 40)};
+        Dimension[] boundaries = {new Dimension(100, 100), new Dimension(400, 400), new Dimension(1200, 1200),
+                new Dimension(160, 90)};
+
+        for (Dimension imageSize : imageSizes) {
+            for (Dimension boundary : boundaries) {
+                Dimension scaled = ImageUtil.getScaledDimension(imageSize, boundary);
+                int subsampling = ImageUtil.getSubsampling(imageSize, boundary);
+                assertTrue(subsampling >= 1);
+
+                // ImageIO decodes ceil(size / subsampling) pixels
+                int decodedWidth = (imageSize.width + subsampling - 1) / subsampling;
+                int decodedHeight = (imageSize.height + subsampling - 1) / subsampling;
+                String message = imageSize + " to " + boundary + " with subsampling " + subsampling;
+                assertTrue(decodedWidth >= Math.min(imageSize.width, 2 * scaled.width), message);
+                assertTrue(decodedHeight >= Math.min(imageSize.height, 2 * scaled.height), message);
+            }
+        }
+    }
+
+    @Test
+    public void largePhotoIsSubsampled() {
+        // a 48MP photo for a 100x100 thumbnail scales to 100x75 and decodes to 200x150
+        assertEquals(40, ImageUtil.getSubsampling(new Dimension(8000, 6000), new Dimension(100, 100)));
+        assertEquals(1, ImageUtil.getSubsampling(new Dimension(150, 100), new Dimension(100, 100)));
+    }
+
+    @Test
+    public void readSubsampled() throws IOException {
+        BufferedImage image = new BufferedImage(1600, 1200, BufferedImage.TYPE_INT_RGB);
+        Graphics2D graphics = image.createGraphics();
+        graphics.setColor(Color.ORANGE);
+        graphics.fillRect(0, 0, image.getWidth(), image.getHeight());
+        graphics.dispose();
+
+        ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
+        ImageIO.write(image, "jpg", byteArrayOutputStream);
+
+        BufferedImage decoded = ImageUtil.readSubsampled(
+                new ByteArrayInputStream(byteArrayOutputStream.toByteArray()), new Dimension(100, 100));
+
+        // 100x75 thumbnail, subsampling 8
+        assertEquals(200, decoded.getWidth());
+        assertEquals(150, decoded.getHeight());
+    }
+}
@@ -0,0 +1,56 @@
+package cloud.sonam.s3;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.PresignedUrlCache;
+import org.junit.jupiter.api.Test;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the expiry and size bound of the presigned url cache.
+ */
+public class PresignedUrlCacheTest {
+
+    private final S3ClientConfigurationProperties s3config = new S3ClientConfigurationProperties();
+
+    public PresignedUrlCacheTest() {
+        s3config.setPresignDurationInMinutes(60);
+        s3config.setPresignCacheMinRemainingPercent(50);
+        s3config.setPresignCacheMaxSize(2);
+    }
+
+    @Test
+    public void returnUrlWithEnoughValidityLeft() throws MalformedURLException {
+        PresignedUrlCache presignedUrlCache = new PresignedUrlCache(s3config);
+        URL url = new URL("https://bucket.example.com/photos/a.jpeg?X-Amz-Signature=a");
+
+        presignedUrlCache.put("photos/a.jpeg", url, Instant.now().plus(Duration.ofMinutes(60)));
+        assertEquals(url, presignedUrlCache.get("photos/a.jpeg").orElseThrow());
+
+        // 20 minutes left is less than half of the 60 minute duration
+        presignedUrlCache.put("photos/b.jpeg", url, Instant.now().plus(Duration.ofMinutes(20)));
+        assertTrue(presignedUrlCache.get("photos/b.jpeg").isEmpty());
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws MalformedURLException {
+        PresignedUrlCache presignedUrlCache = new PresignedUrlCache(s3config);
+        final Instant expiration = Instant.now().plus(Duration.ofMinutes(60));
+
+        presignedUrlCache.put("a", new URL("https://bucket.example.com/a"), expiration);
+        presignedUrlCache.put("b", new URL("https://bucket.example.com/b"), expiration);
+        assertTrue(presignedUrlCache.get("a").isPresent());
+        presignedUrlCache.put("c", new URL("https://bucket.example.com/c"), expiration);
+
+        assertEquals(2, presignedUrlCache.size());
+        assertTrue(presignedUrlCache.get("a").isPresent());
+        assertTrue(presignedUrlCache.get("b").isEmpty());
+        assertTrue(presignedUrlCache.get("c").isPresent());
+    }
+}
@@ -0,0 +1,129 @@
+package cloud.sonam.s3;
+
+import cloud.sonam.s3.file.util.RangeInputStream;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the range request stream against a local http server that answers range requests.
+ */
+public class RangeInputStreamTest {
+    private static final Logger LOG = LoggerFactory.getLogger(RangeInputStreamTest.class);
+
+    private final byte[] content = new byte[10_000];
+
+    private final AtomicInteger requests = new AtomicInteger();
+
+    private HttpServer httpServer;
+
+    private URL url;
+
+    @BeforeEach
+    public void startServer() throws IOException {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        httpServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        httpServer.createContext("/video.mp4", exchange -> {
+            requests.incrementAndGet();
+            // Range: bytes=start-end
+            String[] range = exchange.getRequestHeaders().getFirst("Range").replace("bytes=", "").split("-");
+            int start = Integer.parseInt(range[0]);
+            int end = Math.min(content.length - 1, Integer.parseInt(range[1]));
+            LOG.info("range request for bytes {}-{}", start, end);
+
+            exchange.getResponseHeaders().add("Content-Range", "bytes " + start + "-" + end + "/" + content.length);
+            exchange.sendResponseHeaders(206, end - start + 1);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(content, start, end - start + 1);
+            }
+        });
+        // a server that answers the range with a partial response it does not know the length of
+        httpServer.createContext("/unknown-length.mp4", exchange -> answerWithoutLength(exchange, "bytes 0-1023/*"));
+        httpServer.createContext("/no-content-range.mp4", exchange -> answerWithoutLength(exchange, null));
+        httpServer.start();
+        url = new URL("http://localhost:" + httpServer.getAddress().getPort() + "/video.mp4");
+    }
+
+    private void answerWithoutLength(HttpExchange exchange, String contentRange) throws IOException {
+        requests.incrementAndGet();
+        if (exchange.getRequestHeaders().getFirst("Range") == null) {
+            exchange.sendResponseHeaders(200, content.length);
+            try (OutputStream outputStream = exchange.getResponseBody()) {
+                outputStream.write(content);
+            }
+            return;
+        }
+        if (contentRange != null) {
+            exchange.getResponseHeaders().add("Content-Range", contentRange);
+        }
+        exchange.sendResponseHeaders(206, 1024);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(content, 0, 1024);
+        }
+    }
+
+    @AfterEach
+    public void stopServer() {
+        httpServer.stop(0);
+    }
+
+    @Test
+    public void readWholeStream() throws IOException {
+        try (InputStream inputStream = RangeInputStream.open(url, 1024, 4)) {
+            assertArrayEquals(content, inputStream.readAllBytes());
+        }
+        // 10 blocks of 1024 bytes
+        assertEquals(10, requests.get());
+    }
+
+    @Test
+    public void seekFetchesOnlyTheBlocksRead() throws IOException {
+        try (InputStream inputStream = RangeInputStream.open(url, 1024, 4)) {
+            assertTrue(inputStream.markSupported());
+            inputStream.mark(Integer.MAX_VALUE);
+
+            // seek to the end like ffmpeg looking for the moov atom
+            assertEquals(9_000, inputStream.skip(9_000));
+            assertArrayEquals(Arrays.copyOfRange(content, 9_000, 9_100), inputStream.readNBytes(100));
+
+            // and back to the start, the first block is still cached
+            inputStream.reset();
+            assertArrayEquals(Arrays.copyOfRange(content, 0, 100), inputStream.readNBytes(100));
+        }
+        // the first block on open and the block at offset 9000
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void unknownLengthReadsWholeStream() throws IOException {
+        for (String path : new String[]{"/unknown-length.mp4", "/no-content-range.mp4"}) {
+            requests.set(0);
+            URL pathUrl = new URL("http://localhost:" + httpServer.getAddress().getPort() + path);
+            try (InputStream inputStream = RangeInputStream.open(pathUrl, 1024, 4)) {
+                assertFalse(inputStream instanceof RangeInputStream, path);
+                assertArrayEquals(content, inputStream.readAllBytes(), path);
+            }
+            // the range request and the plain request for the whole content
+            assertEquals(2, requests.get(), path);
+        }
+    }
+}
@@ -26,7 +26,21 @@ public class Router {
                 handler::upload)
                 .andRoute(POST("/presignurl").and(accept(MediaType.APPLICATION_JSON)),
                         handler::getPresignUrl)
+                .andRoute(POST("/presignurls").and(accept(MediaType.APPLICATION_JSON)),
+                        handler::getPresignUrls)
+                .andRoute(GET("/s3/object"), handler::download)
                 .andRoute(DELETE("/s3/object"), handler::deleteObject)
-                .andRoute(DELETE("/s3/folder"), handler::deleteByPrefix);
+                .andRoute(DELETE("/s3/folder"), handler::deleteByPrefix)
+                .andRoute(GET("/s3/folder/job"), handler::getDeleteJobStatus)
+                .andRoute(POST("/resumable/complete"), handler::completeResumableUpload)
+                .andRoute(POST("/resumable"), handler::startResumableUpload)
+                .andRoute(PUT("/resumable"), handler::uploadResumablePart)
+                .andRoute(GET("/resumable"), handler::getResumableUploadStatus)
+                .andRoute(DELETE("/resumable"), handler::abortResumableUpload)
+                .andRoute(POST("/direct/complete"), handler::completeDirectUpload)
+                .andRoute(POST("/direct"), handler::startDirectUpload)
+                .andRoute(DELETE("/direct"), handler::abortDirectUpload)
+                .andRoute(GET("/thumbnail/status"), handler::getThumbnailStatus)
+                .andRoute(GET("/rendition"), handler::getRendition);
     }
 }
@@ -1,12 +1,20 @@
 package cloud.sonam.s3;
 
 import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.DirectUploadService;
+import cloud.sonam.s3.file.RenditionService;
 import cloud.sonam.s3.file.S3FileUploadService;
 import cloud.sonam.s3.file.S3Handler;
+import cloud.sonam.s3.file.S3Service;
+import cloud.sonam.s3.file.ThumbnailJob;
+import cloud.sonam.s3.file.ThumbnailExecutor;
+import cloud.sonam.s3.file.ThumbnailJobQueue;
+import cloud.sonam.s3.file.ThumbnailSource;
 import org.junit.Assert;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -17,32 +25,49 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
 import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.core.io.Resource;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.junit.jupiter.SpringExtension;
 import org.springframework.test.context.junit4.SpringRunner;
 import org.springframework.test.web.reactive.server.WebTestClient;
+import org.springframework.web.reactive.function.server.EntityResponse;
 import org.springframework.web.reactive.function.server.ServerResponse;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.test.StepVerifier;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.ResponsePublisher;
+import software.amazon.awssdk.core.async.SdkPublisher;
 import software.amazon.awssdk.http.SdkHttpResponse;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
-import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
-import software.amazon.awssdk.services.s3.model.PutObjectRequest;
-import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+import software.amazon.awssdk.services.s3.model.*;
 
 import java.awt.*;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URL;
 import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.util.List;
+import java.util.Map;
 import java.util.OptionalLong;
 import java.util.concurrent.CompletableFuture;
-
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -77,6 +102,18 @@ public class S3HandlerTest {
     @Autowired
     private S3Handler s3Handler;
 
+    @Autowired
+    private ThumbnailJobQueue thumbnailJobQueue;
+
+    @Autowired
+    private ThumbnailExecutor thumbnailExecutor;
+
+    @Autowired
+    private RenditionService renditionService;
+
+    @Autowired
+    private DirectUploadService directUploadService;
+
     @Test
     public void uploadVideoFile() throws IOException, InterruptedException {
         LOG.info("video: {}", video);
@@ -213,6 +250,282 @@ public class S3HandlerTest {
     }
 
 
+    @Test
+    public void uploadLargeFileAsMultipart() {
+        LOG.info("upload a file larger than the multipart threshold");
+
+        // 12MB file should be sent as 3 parts: 5MB, 5MB and 2MB
+        byte[] bytes = new byte[12 * 1024 * 1024];
+        Flux<ByteBuffer> byteBufferFlux = Flux.range(0, 12)
+                .map(i -> ByteBuffer.wrap(bytes, i * 1024 * 1024, 1024 * 1024));
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("uploadId").build()));
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag").build()));
+        when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+
+        final String folder = "";
+        Mono<ServerResponse> serverResponseMono = s3Handler.upload(byteBufferFlux, "file", "large.bin",
+                MediaType.APPLICATION_OCTET_STREAM, bytes.length, folder, ObjectCannedACL.PRIVATE, null);
+
+        StepVerifier.create(serverResponseMono).expectNextMatches(serverResponse -> {
+            assertTrue(serverResponse.statusCode().is2xxSuccessful());
+            return true;
+        }).verifyComplete();
+
+        verify(s3Client, times(3)).uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class));
+        verify(s3Client, times(1)).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void uploadFileOfUnknownLength() throws IOException {
+        LOG.info("upload a file without a content length, like a browser multipart part");
+
+        when(s3Client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(PutObjectResponse.builder().build()));
+
+        Flux<ByteBuffer> byteBufferFlux = Flux.just(ByteBuffer.wrap(langurPhoto.getContentAsByteArray()));
+
+        final String folder = "";
+        Mono<ServerResponse> serverResponseMono = s3Handler.upload(byteBufferFlux, "file", langurPhoto.getFilename(),
+                MediaType.valueOf("image/jpg"), -1, folder, ObjectCannedACL.PRIVATE, null);
+
+        StepVerifier.create(serverResponseMono).expectNextMatches(serverResponse -> {
+            assertTrue(serverResponse.statusCode().is2xxSuccessful());
+            return true;
+        }).verifyComplete();
+
+        // the photo fits in a single part so it is sent with a single putObject and no multipart upload
+        verify(s3Client, times(1)).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+        verify(s3Client, times(0)).createMultipartUpload(any(CreateMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void retryFailedPartOnly() {
+        LOG.info("a part that fails with 503 SlowDown is retried on its own");
+
+        byte[] bytes = new byte[12 * 1024 * 1024];
+        Flux<ByteBuffer> byteBufferFlux = Flux.just(ByteBuffer.wrap(bytes));
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("uploadId").build()));
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.failedFuture(S3Exception.builder().statusCode(503).message("SlowDown").build()))
+                .thenReturn(CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag").build()));
+        when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+
+        final String folder = "";
+        Mono<ServerResponse> serverResponseMono = s3Handler.upload(byteBufferFlux, "file", "large.bin",
+                MediaType.APPLICATION_OCTET_STREAM, bytes.length, folder, ObjectCannedACL.PRIVATE, null);
+
+        StepVerifier.create(serverResponseMono).expectNextMatches(serverResponse -> {
+            assertTrue(serverResponse.statusCode().is2xxSuccessful());
+            return true;
+        }).verifyComplete();
+
+        // 3 parts and a single retry of the failed part
+        verify(s3Client, times(4)).uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class));
+        verify(s3Client, times(0)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void createThumbnailFromUploadStream() throws IOException {
+        LOG.info("the thumbnail is created from the teed upload bytes without reading the photo back");
+
+        when(s3Client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(successfulPutObjectResponse()));
+
+        // the photo in 4KB buffers like a request body
+        final byte[] photo = langurPhoto.getContentAsByteArray();
+        Flux<ByteBuffer> byteBufferFlux = Flux.range(0, (photo.length + 4095) / 4096)
+                .map(i -> ByteBuffer.wrap(photo, i * 4096, Math.min(4096, photo.length - i * 4096)));
+
+        ServerResponse serverResponse = s3Handler.upload(byteBufferFlux, "photo", langurPhoto.getFilename(),
+                MediaType.valueOf("image/jpeg"), photo.length, "", ObjectCannedACL.PRIVATE, new Dimension(100, 100))
+                .block(Duration.ofSeconds(10));
+        assertNotNull(serverResponse);
+        assertTrue(serverResponse.statusCode().is2xxSuccessful());
+        assertTrue(((EntityResponse<String>) serverResponse).entity().contains("thumbnail/"));
+
+        // the photo and its thumbnail are stored and nothing is read back
+        verify(s3Client, times(2)).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+        verify(s3Client, never()).getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class));
+        verify(s3Service, never()).createPresignedUrl(any(Mono.class));
+    }
+
+    @Test
+    public void writeAfterCloseFails() {
+        ThumbnailSource thumbnailSource = ThumbnailSource.create(1024, Path.of(System.getProperty("java.io.tmpdir")));
+        thumbnailSource.write(ByteBuffer.wrap(new byte[10]));
+        thumbnailSource.close();
+
+        assertThrows(IllegalStateException.class, () -> thumbnailSource.write(ByteBuffer.wrap(new byte[10])));
+        assertThrows(IllegalStateException.class, thumbnailSource::openStream);
+    }
+
+    @Test
+    public void rejectUploadWhenThumbnailExecutorIsBusy() throws InterruptedException {
+        LOG.info("a full thumbnail executor answers 503 before the photo is stored");
+
+        final int maxInFlight = s3ClientConfigurationProperties.getThumbnailPoolSize()
+                + s3ClientConfigurationProperties.getThumbnailQueueCapacity();
+        CountDownLatch release = new CountDownLatch(1);
+        try {
+            for (int i = 0; i < maxInFlight; i++) {
+                thumbnailExecutor.execute(() -> release.await(10, TimeUnit.SECONDS)).subscribe();
+            }
+            for (int i = 0; i < 100 && thumbnailExecutor.hasCapacity(); i++) {
+                Thread.sleep(50);
+            }
+            assertFalse(thumbnailExecutor.hasCapacity());
+
+            ServerResponse serverResponse = s3Handler.upload(Flux.just(ByteBuffer.wrap(new byte[100])), "photo",
+                    "photo.jpeg", MediaType.IMAGE_JPEG, 100, "", ObjectCannedACL.PRIVATE, new Dimension(100, 100))
+                    .block(Duration.ofSeconds(10));
+            assertNotNull(serverResponse);
+            assertEquals(HttpStatus.SERVICE_UNAVAILABLE, serverResponse.statusCode());
+            verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+        }
+        finally {
+            release.countDown();
+        }
+    }
+
+    @Test
+    public void uploadPhotoWithThumbnailSizes() throws IOException {
+        LOG.info("upload a photo and create 3 thumbnail sizes from one decode");
+
+        when(s3Client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(successfulPutObjectResponse()));
+
+        Flux<ByteBuffer> byteBufferFlux = Flux.just(ByteBuffer.wrap(langurPhoto.getContentAsByteArray()));
+
+        ServerResponse serverResponse = s3Handler.upload(byteBufferFlux, "photo", langurPhoto.getFilename(),
+                MediaType.valueOf("image/jpeg"), langurPhoto.contentLength(), "", ObjectCannedACL.PRIVATE,
+                new Dimension(100, 100), List.of(new Dimension(100, 100), new Dimension(400, 400), new Dimension(50, 50)))
+                .block(Duration.ofSeconds(10));
+        assertNotNull(serverResponse);
+        assertTrue(serverResponse.statusCode().is2xxSuccessful());
+
+        List<String> thumbnailKeys = ((EntityResponse<List<String>>) serverResponse).entity();
+        LOG.info("thumbnailKeys: {}", thumbnailKeys);
+        assertEquals(3, thumbnailKeys.size());
+        assertTrue(thumbnailKeys.get(0).contains("thumbnail/100x100/"));
+        assertTrue(thumbnailKeys.get(1).contains("thumbnail/400x400/"));
+        assertTrue(thumbnailKeys.get(2).contains("thumbnail/50x50/"));
+
+        // the photo and 3 thumbnails
+        verify(s3Client, times(4)).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+    }
+
+    @Test
+    public void uploadPhotoWithThumbnailJob() throws IOException, InterruptedException {
+        LOG.info("upload returns the file key and the thumbnail is created in the background");
+
+        when(s3Client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(successfulPutObjectResponse()));
+
+        s3ClientConfigurationProperties.setThumbnailAsync(true);
+        try {
+            Flux<ByteBuffer> byteBufferFlux = Flux.just(ByteBuffer.wrap(langurPhoto.getContentAsByteArray()));
+
+            ServerResponse serverResponse = s3Handler.upload(byteBufferFlux, "photo", langurPhoto.getFilename(),
+                    MediaType.valueOf("image/jpeg"), langurPhoto.contentLength(), "", ObjectCannedACL.PRIVATE,
+                    new Dimension(100, 100)).block(Duration.ofSeconds(10));
+            assertNotNull(serverResponse);
+            assertTrue(serverResponse.statusCode().is2xxSuccessful());
+
+            final String fileKey = ((EntityResponse<String>) serverResponse).entity();
+
+            ThumbnailJob.Status status = thumbnailJobQueue.getStatus(fileKey).block();
+            for (int i = 0; i < 100 && status.state() != ThumbnailJob.State.DONE && status.state() != ThumbnailJob.State.FAILED; i++) {
+                Thread.sleep(100);
+                status = thumbnailJobQueue.getStatus(fileKey).block();
+            }
+            LOG.info("thumbnail job status: {}", status);
+            assertEquals(ThumbnailJob.State.DONE, status.state());
+            assertTrue(status.thumbnailKey().contains("thumbnail/"));
+        }
+        finally {
+            s3ClientConfigurationProperties.setThumbnailAsync(false);
+        }
+    }
+
+    @Test
+    public void failedUploadDeletesThumbnailJobSpillFile() throws IOException {
+        LOG.info("the spill file of an upload that fails before its thumbnail job is queued is deleted");
+
+        // read the teed body, then fail the put
+        when(s3Client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class))).thenAnswer(invocation -> {
+            AsyncRequestBody asyncRequestBody = invocation.getArgument(1);
+            return Flux.from(asyncRequestBody)
+                    .then(Mono.<PutObjectResponse>error(new IOException("put failed")))
+                    .toFuture();
+        });
+
+        final String thumbnailSpillDirectory = s3ClientConfigurationProperties.getThumbnailSpillDirectory();
+        final Path spillDirectory = Files.createTempDirectory("thumbnail-spill");
+        s3ClientConfigurationProperties.setThumbnailSpillDirectory(spillDirectory.toString());
+        s3ClientConfigurationProperties.setThumbnailAsync(true);
+        try {
+            Mono<ServerResponse> upload = s3Handler.upload(Flux.just(ByteBuffer.wrap(langurPhoto.getContentAsByteArray())),
+                    "photo", langurPhoto.getFilename(), MediaType.valueOf("image/jpeg"), langurPhoto.contentLength(), "",
+                    ObjectCannedACL.PRIVATE, new Dimension(100, 100));
+
+            ServerResponse serverResponse = upload.block(Duration.ofSeconds(10));
+            assertNotNull(serverResponse);
+            assertEquals(HttpStatus.BAD_REQUEST, serverResponse.statusCode());
+            try (Stream<Path> files = Files.list(spillDirectory)) {
+                assertEquals(0, files.count());
+            }
+        }
+        finally {
+            s3ClientConfigurationProperties.setThumbnailAsync(false);
+            s3ClientConfigurationProperties.setThumbnailSpillDirectory(thumbnailSpillDirectory);
+        }
+    }
+
+    @Test
+    public void renderRenditionOnce() throws IOException {
+        LOG.info("concurrent first requests for a rendition share one render");
+
+        final String key = "digitalocean-s3-lib/photos/2024-06-01T10:15:30.jpeg";
+        final String renditionKey = "digitalocean-s3-lib/photos/thumbnail/200x200/2024-06-01T10:15:30.png";
+        final byte[] photo = langurPhoto.getContentAsByteArray();
+
+        when(s3Client.getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class))).thenAnswer(invocation -> {
+            GetObjectRequest getObjectRequest = invocation.getArgument(0);
+            if (getObjectRequest.key().equals(renditionKey)) {
+                return CompletableFuture.failedFuture(NoSuchKeyException.builder().message("no such key").build());
+            }
+            return CompletableFuture.completedFuture(new ResponsePublisher<>(GetObjectResponse.builder().build(),
+                    SdkPublisher.adapt(Flux.just(ByteBuffer.wrap(photo)))));
+        });
+        when(s3Client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(successfulPutObjectResponse()));
+
+        List<RenditionService.Rendition> renditions = Flux.range(0, 4)
+                .flatMap(i -> renditionService.getRendition(key, new Dimension(200, 200), MediaType.IMAGE_PNG))
+                .collectList()
+                .block(Duration.ofSeconds(10));
+        assertNotNull(renditions);
+        assertEquals(4, renditions.size());
+        for (RenditionService.Rendition rendition : renditions) {
+            assertEquals(renditionKey, rendition.key());
+            assertTrue(rendition.bytes().length > 0);
+        }
+
+        // one read of the missing rendition, one of the photo and one put of the rendition
+        verify(s3Client, times(2)).getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class));
+        ArgumentCaptor<PutObjectRequest> putObjectRequest = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Client, times(1)).putObject(putObjectRequest.capture(), any(AsyncRequestBody.class));
+        // never the acl of the request that rendered it
+        assertEquals(ObjectCannedACL.PRIVATE, putObjectRequest.getValue().acl());
+    }
+
     @Test
     public void getPresignUrl() {
         LOG.info("create presign url");
@@ -229,4 +542,120 @@ public class S3HandlerTest {
         }).verifyComplete();
     }
 
+    @Test
+    public void createPresignedUrls() {
+        LOG.info("presign 200 keys in parallel");
+
+        Map<String, URL> urls = s3Service.createPresignedUrls(Flux.range(0, 200).map(i -> "photos/" + i + ".jpeg"))
+                .collectMap(S3Service.PresignedUrl::key, S3Service.PresignedUrl::url)
+                .block(Duration.ofSeconds(10));
+        assertNotNull(urls);
+        assertEquals(200, urls.size());
+        urls.forEach((key, url) -> assertTrue(url.toString().contains(key), url + " is not for key " + key));
+    }
+
+    @Test
+    public void directMultipartUpload() {
+        LOG.info("presign the parts of a file larger than the multipart threshold and complete the upload");
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("uploadId").build()));
+
+        // 12MB file should be presigned as 3 parts: 5MB, 5MB and 2MB
+        final long contentLength = 12 * 1024 * 1024;
+        DirectUploadService.PresignedUpload presignedUpload = directUploadService.start("file", "files/", "large.bin",
+                MediaType.APPLICATION_OCTET_STREAM, contentLength, ObjectCannedACL.PRIVATE, new Dimension(100, 100))
+                .block(Duration.ofSeconds(10));
+        assertNotNull(presignedUpload);
+        assertEquals(3, presignedUpload.parts().size());
+        assertEquals(10 * 1024 * 1024, presignedUpload.parts().get(2).offset());
+        assertEquals(2 * 1024 * 1024, presignedUpload.parts().get(2).length());
+        for (DirectUploadService.PresignedPart part : presignedUpload.parts()) {
+            assertTrue(part.url().toString().contains("partNumber=" + part.partNumber()), part.url() + " is not for part " + part.partNumber());
+            // signed for directUploadUrlMinutes, not presignDurationInMinutes
+            assertTrue(part.url().toString().contains("X-Amz-Expires="
+                    + s3ClientConfigurationProperties.getDirectUploadUrlMinutes() * 60), part.url().toString());
+        }
+
+        // the client has sent every part to its url
+        when(s3Client.listParts(any(ListPartsRequest.class))).thenReturn(CompletableFuture.completedFuture(
+                ListPartsResponse.builder()
+                        .parts(Part.builder().partNumber(1).eTag("etag1").build(),
+                                Part.builder().partNumber(2).eTag("etag2").build(),
+                                Part.builder().partNumber(3).eTag("etag3").build())
+                        .isTruncated(false)
+                        .build()));
+        when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+
+        final String fileKey = directUploadService.complete(presignedUpload.uploadId()).block(Duration.ofSeconds(10));
+        assertEquals(presignedUpload.fileKey(), fileKey);
+        verify(s3Client, times(1)).completeMultipartUpload(any(CompleteMultipartUploadRequest.class));
+    }
+
+    @Test
+    public void abortDirectUpload() {
+        LOG.info("abort a direct multipart upload so S3 drops its parts");
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("uploadId").build()));
+        when(s3Client.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+
+        DirectUploadService.PresignedUpload presignedUpload = directUploadService.start("file", "files/", "large.bin",
+                MediaType.APPLICATION_OCTET_STREAM, 12 * 1024 * 1024, ObjectCannedACL.PRIVATE, new Dimension(100, 100))
+                .block(Duration.ofSeconds(10));
+        assertNotNull(presignedUpload);
+
+        assertEquals(presignedUpload.fileKey(), directUploadService.abort(presignedUpload.uploadId()).block(Duration.ofSeconds(10)));
+        verify(s3Client, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+
+        // the upload is gone
+        assertThrows(IllegalArgumentException.class,
+                () -> directUploadService.complete(presignedUpload.uploadId()).block(Duration.ofSeconds(10)));
+    }
+
+    @Test
+    public void sweepExpiredDirectUploads() throws IOException {
+        LOG.info("the sweep aborts the direct uploads older than the ttl");
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("uploadId").build()));
+        when(s3Client.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+
+        final String directUploadDirectory = s3ClientConfigurationProperties.getDirectUploadDirectory();
+        final int directUploadTtlMinutes = s3ClientConfigurationProperties.getDirectUploadTtlMinutes();
+        s3ClientConfigurationProperties.setDirectUploadDirectory(Files.createTempDirectory("direct-uploads").toString());
+        try {
+            DirectUploadService.PresignedUpload presignedUpload = directUploadService.start("file", "files/", "large.bin",
+                    MediaType.APPLICATION_OCTET_STREAM, 12 * 1024 * 1024, ObjectCannedACL.PRIVATE, new Dimension(100, 100))
+                    .block(Duration.ofSeconds(10));
+            assertNotNull(presignedUpload);
+
+            // a new upload is kept
+            assertEquals(0, directUploadService.sweep().block(Duration.ofSeconds(10)));
+            verify(s3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+
+            // every upload started before a minute from now has expired
+            s3ClientConfigurationProperties.setDirectUploadTtlMinutes(-1);
+            assertEquals(1, directUploadService.sweep().block(Duration.ofSeconds(10)));
+            verify(s3Client, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+            assertThrows(IllegalArgumentException.class,
+                    () -> directUploadService.complete(presignedUpload.uploadId()).block(Duration.ofSeconds(10)));
+        }
+        finally {
+            s3ClientConfigurationProperties.setDirectUploadDirectory(directUploadDirectory);
+            s3ClientConfigurationProperties.setDirectUploadTtlMinutes(directUploadTtlMinutes);
+        }
+    }
+
+    /**
+     * uploadFile checks the http response of the put
+     */
+    private PutObjectResponse successfulPutObjectResponse() {
+        return (PutObjectResponse) PutObjectResponse.builder()
+                .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                .build();
+    }
 }
@@ -1,11 +1,18 @@
 package cloud.sonam.s3;
 
 import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.DeleteJob;
+import cloud.sonam.s3.file.DeleteJobQueue;
+import cloud.sonam.s3.file.ResumableUpload;
+import cloud.sonam.s3.file.ResumableUploadService;
+import cloud.sonam.s3.file.S3BatchDeleter;
 import cloud.sonam.s3.file.S3FileUploadService;
 import org.junit.Assert;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.junit.jupiter.api.io.TempDir;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,22 +31,42 @@ import org.springframework.test.web.reactive.server.WebTestClient;
 import org.springframework.util.LinkedMultiValueMap;
 import org.springframework.util.MultiValueMap;
 import org.springframework.web.reactive.function.BodyInserters;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.ResponsePublisher;
+import software.amazon.awssdk.core.async.SdkPublisher;
 import software.amazon.awssdk.http.SdkHttpResponse;
 import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.*;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
 import java.net.URL;
 import java.net.URLEncoder;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Duration;
+import java.time.Instant;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.IntStream;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.atMost;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 /**
@@ -71,6 +98,15 @@ public class S3RestServiceMockTest {
     @SpyBean
     private S3FileUploadService s3Service;
 
+    @Autowired
+    private S3BatchDeleter s3BatchDeleter;
+
+    @Autowired
+    private ResumableUploadService resumableUploadService;
+
+    @TempDir
+    private Path deleteJobDirectory;
+
     @Test
     public void uploadVideoFile() throws IOException, InterruptedException {
         LOG.info("video: {}", video);
@@ -240,26 +276,317 @@ public class S3RestServiceMockTest {
 
     @Test
     public void deleteFolder() {
-        LOG.info("delete object by key");
+        LOG.info("delete objects by prefix");
 
         final String prefix = "videoapp/1/video/";
 
-        String keyUrlEncoded = URLEncoder.encode("videoapp/1/video/2022-06-13T11:23:44.893698.mp4", Charset.defaultCharset());
-        LOG.info("keyUrlEncoded: {}", keyUrlEncoded);
+        mockPrefixObjects(prefix);
 
-        ListObjectsResponse listObjectsResponse = Mockito.mock(ListObjectsResponse.class);
-        SdkHttpResponse sdkHttpResponse = Mockito.mock(SdkHttpResponse.class);
-        when(listObjectsResponse.sdkHttpResponse()).thenReturn(sdkHttpResponse);
+        client.delete().uri("/s3/folder?prefix="+prefix)
+                .exchange().expectStatus().isOk()
+                .expectBody(Map.class)
+                .consumeWith(result -> {
+                    LOG.info("delete by prefix response: {}", result.getResponseBody());
+                    assertEquals(1498, ((Number) result.getResponseBody().get("deleted")).intValue());
+                    assertEquals(2, ((Number) result.getResponseBody().get("failed")).intValue());
+                });
+
+        verify(s3Client, times(2)).deleteObjects(Mockito.any(DeleteObjectsRequest.class));
+    }
 
-        when(sdkHttpResponse.isSuccessful()).thenReturn(true);
+    @Test
+    public void deleteFolderInBackground() throws InterruptedException {
+        LOG.info("delete objects by prefix with a background job");
+
+        final String prefix = "videoapp/2/video/";
+        mockPrefixObjects(prefix);
+
+        Map<?, ?> status = client.delete().uri("/s3/folder?prefix=" + prefix + "&async=true")
+                .exchange().expectStatus().isAccepted()
+                .expectBody(Map.class).returnResult().getResponseBody();
+        final String jobId = (String) status.get("jobId");
+
+        for (int i = 0; i < 100 && !"DONE".equals(status.get("state")); i++) {
+            Thread.sleep(100);
+            status = client.get().uri("/s3/folder/job?jobId=" + jobId)
+                    .exchange().expectStatus().isOk()
+                    .expectBody(Map.class).returnResult().getResponseBody();
+        }
+        LOG.info("delete job status: {}", status);
+        assertEquals("DONE", status.get("state"));
+        assertEquals(1498, ((Number) status.get("deleted")).intValue());
+        assertEquals(2, ((Number) status.get("failed")).intValue());
+        assertEquals(prefix + "1499.mp4", status.get("lastKey"));
+    }
 
-        Mockito.when(s3Client.listObjects(Mockito.any(ListObjectsRequest.class)))
-                .thenReturn(CompletableFuture.completedFuture(listObjectsResponse));
+    @Test
+    public void deleteJobResumesAfterLastKey() throws Exception {
+        LOG.info("an unfinished delete job continues after its last deleted key on restart");
+
+        final String prefix = "videoapp/3/video/";
+        mockPrefixObjects(prefix);
+
+        // the job file of a job stopped after the first page
+        Properties properties = new Properties();
+        properties.setProperty("jobId", "resumed-job");
+        properties.setProperty("prefix", prefix);
+        properties.setProperty("state", DeleteJob.State.RUNNING.name());
+        properties.setProperty("deleted", "999");
+        properties.setProperty("failed", "1");
+        properties.setProperty("updated", Instant.now().toString());
+        properties.setProperty("lastKey", prefix + "999.mp4");
+        try (OutputStream outputStream = Files.newOutputStream(deleteJobDirectory.resolve("resumed-job.job"))) {
+            properties.store(outputStream, null);
+        }
+
+        S3ClientConfigurationProperties s3config = new S3ClientConfigurationProperties();
+        s3config.setDeleteJobDirectory(deleteJobDirectory.toString());
+        DeleteJobQueue deleteJobQueue = new DeleteJobQueue(s3BatchDeleter, s3config);
+        try {
+            deleteJobQueue.start();
+
+            DeleteJob.Status status = deleteJobQueue.getStatus("resumed-job").block();
+            for (int i = 0; i < 100 && status.state() != DeleteJob.State.DONE; i++) {
+                Thread.sleep(100);
+                status = deleteJobQueue.getStatus("resumed-job").block();
+            }
+            LOG.info("resumed delete job status: {}", status);
+            assertEquals(DeleteJob.State.DONE, status.state());
+            assertEquals(1498, status.deleted());
+            assertEquals(2, status.failed());
+            assertEquals(prefix + "1499.mp4", status.lastKey());
+        }
+        finally {
+            deleteJobQueue.stop();
+        }
+
+        // only the second page is listed and deleted
+        ArgumentCaptor<ListObjectsV2Request> listObjectsV2Requests = ArgumentCaptor.forClass(ListObjectsV2Request.class);
+        verify(s3Client, times(1)).listObjectsV2(listObjectsV2Requests.capture());
+        assertEquals(prefix, listObjectsV2Requests.getValue().prefix());
+        assertEquals(prefix + "999.mp4", listObjectsV2Requests.getValue().startAfter());
+        verify(s3Client, times(1)).deleteObjects(Mockito.any(DeleteObjectsRequest.class));
+    }
 
-        client.delete().uri("/s3/folder?prefix="+prefix)
+    @Test
+    public void deleteObjectsCoalesced() {
+        LOG.info("concurrent single deletes are sent as DeleteObjects requests");
+
+        Mockito.when(s3Client.deleteObjects(Mockito.any(DeleteObjectsRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(DeleteObjectsResponse.builder()
+                        .errors(S3Error.builder().key("photos/7.jpeg").code("AccessDenied").build())
+                        .build()));
+
+        s3ClientConfigurationProperties.setDeleteCoalescing(true);
+        try {
+            Map<String, String> results = Flux.range(0, 100)
+                    .flatMap(i -> s3Service.deleteObject("photos/" + i + ".jpeg")
+                            .map(result -> Map.entry("photos/" + i + ".jpeg", result)))
+                    .collectMap(Map.Entry::getKey, Map.Entry::getValue)
+                    .block(Duration.ofSeconds(10));
+
+            assertEquals(100, results.size());
+            assertEquals("photos/1.jpeg", results.get("photos/1.jpeg"));
+            assertTrue(results.get("photos/7.jpeg").startsWith("Failed"));
+        }
+        finally {
+            s3ClientConfigurationProperties.setDeleteCoalescing(false);
+        }
+
+        // the deletes fall into one window, or a few on a slow machine
+        verify(s3Client, atMost(5)).deleteObjects(Mockito.any(DeleteObjectsRequest.class));
+        verify(s3Client, never()).deleteObject(Mockito.any(DeleteObjectRequest.class));
+    }
+
+    @Test
+    public void downloadRange() {
+        LOG.info("download a range of an object and check the etag");
+
+        final String key = "videoapp/1/video/2022-06-13T11:23:44.893698.mp4";
+        final String eTag = "\"9b2cf535f27731c974343645a3985328\"";
+
+        Mockito.when(s3Client.getObject(any(GetObjectRequest.class), any(AsyncResponseTransformer.class))).thenAnswer(invocation -> {
+            GetObjectRequest getObjectRequest = invocation.getArgument(0);
+            if (eTag.equals(getObjectRequest.ifNoneMatch())) {
+                return CompletableFuture.failedFuture(S3Exception.builder().statusCode(304).message("Not Modified").build());
+            }
+            assertEquals("bytes=0-9", getObjectRequest.range());
+            return CompletableFuture.completedFuture(new ResponsePublisher<>(GetObjectResponse.builder()
+                    .eTag(eTag)
+                    .contentLength(10L)
+                    .contentType("video/mp4")
+                    .contentRange("bytes 0-9/100")
+                    .build(),
+                    SdkPublisher.adapt(Flux.just(ByteBuffer.wrap("0123".getBytes()), ByteBuffer.wrap("456789".getBytes())))));
+        });
+
+        client.get().uri("/s3/object?key=" + key)
+                .header(HttpHeaders.RANGE, "bytes=0-9")
+                .exchange().expectStatus().isEqualTo(206)
+                .expectHeader().valueEquals(HttpHeaders.CONTENT_RANGE, "bytes 0-9/100")
+                .expectHeader().valueEquals(HttpHeaders.ETAG, eTag)
+                .expectHeader().valueEquals(HttpHeaders.ACCEPT_RANGES, "bytes")
+                .expectHeader().contentLength(10)
+                .expectBody(String.class).isEqualTo("0123456789");
+
+        client.get().uri("/s3/object?key=" + key)
+                .header(HttpHeaders.IF_NONE_MATCH, eTag)
+                .exchange().expectStatus().isNotModified();
+    }
+
+    @Test
+    public void resumableUpload() {
+        LOG.info("start a resumable upload, send the range and complete it");
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("s3UploadId").build()));
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag").build()));
+        when(s3Client.completeMultipartUpload(any(CompleteMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().build()));
+
+        Map<?, ?> status = client.post().uri("/resumable?uploadType=file&fileName=notes.txt&contentLength=10&contentType=text/plain")
+                .exchange().expectStatus().isOk()
+                .expectBody(Map.class).returnResult().getResponseBody();
+        LOG.info("started resumable upload: {}", status);
+        final String uploadId = (String) status.get("uploadId");
+
+        client.put().uri("/resumable?uploadId=" + uploadId)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes 0-9/10")
+                .bodyValue("0123456789".getBytes())
+                .exchange().expectStatus().isOk()
+                .expectBody(Map.class)
+                .consumeWith(result -> assertEquals(10, ((Number) result.getResponseBody().get("receivedBytes")).intValue()));
+
+        client.post().uri("/resumable/complete?uploadId=" + uploadId)
                 .exchange().expectStatus().isOk()
                 .expectBody(String.class)
-                .consumeWith(stringEntityExchangeResult -> LOG.info("presignUrl: {}", stringEntityExchangeResult.getResponseBody()));
+                .consumeWith(result -> LOG.info("completed resumable upload: {}", result.getResponseBody()));
+    }
+
+    @Test
+    public void resumablePartIsStreamed() {
+        LOG.info("a resumable part is streamed to S3 and must be as long as the part");
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("s3UploadId").build()));
+        // read the body like the sdk does
+        when(s3Client.uploadPart(any(UploadPartRequest.class), any(AsyncRequestBody.class))).thenAnswer(invocation -> {
+            AsyncRequestBody asyncRequestBody = invocation.getArgument(1);
+            return Flux.from(asyncRequestBody)
+                    .map(ByteBuffer::remaining)
+                    .reduce(0, Integer::sum)
+                    .map(length -> UploadPartResponse.builder().eTag("etag-" + length).build())
+                    .toFuture();
+        });
+
+        // larger than the 5 TiB S3 limit
+        client.post().uri("/resumable?uploadType=file&fileName=huge.bin&contentLength=" + 6L * 1024 * 1024 * 1024 * 1024)
+                .exchange().expectStatus().isBadRequest();
+
+        Map<?, ?> status = client.post().uri("/resumable?uploadType=file&fileName=notes.txt&contentLength=10&contentType=text/plain")
+                .exchange().expectStatus().isOk()
+                .expectBody(Map.class).returnResult().getResponseBody();
+        final String uploadId = (String) status.get("uploadId");
+
+        client.put().uri("/resumable?uploadId=" + uploadId)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes 0-4/10")
+                .bodyValue("01234".getBytes())
+                .exchange().expectStatus().isBadRequest();
+
+        client.put().uri("/resumable?uploadId=" + uploadId)
+                .header(HttpHeaders.CONTENT_RANGE, "bytes 0-9/10")
+                .bodyValue("0123456789".getBytes())
+                .exchange().expectStatus().isOk()
+                .expectBody(Map.class)
+                .consumeWith(result -> assertEquals(10, ((Number) result.getResponseBody().get("receivedBytes")).intValue()));
+
+        ArgumentCaptor<UploadPartRequest> uploadPartRequests = ArgumentCaptor.forClass(UploadPartRequest.class);
+        verify(s3Client, times(2)).uploadPart(uploadPartRequests.capture(), any(AsyncRequestBody.class));
+        for (UploadPartRequest uploadPartRequest : uploadPartRequests.getAllValues()) {
+            assertEquals(10L, uploadPartRequest.contentLength());
+        }
+    }
+
+    @Test
+    public void abortResumableUpload() {
+        LOG.info("start a resumable upload and abort it");
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("s3UploadId").build()));
+        when(s3Client.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+
+        Map<?, ?> status = client.post().uri("/resumable?uploadType=file&fileName=notes.txt&contentLength=10&contentType=text/plain")
+                .exchange().expectStatus().isOk()
+                .expectBody(Map.class).returnResult().getResponseBody();
+        final String uploadId = (String) status.get("uploadId");
+
+        client.delete().uri("/resumable?uploadId=" + uploadId)
+                .exchange().expectStatus().isOk();
+        verify(s3Client, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+
+        // the upload is gone
+        client.get().uri("/resumable?uploadId=" + uploadId)
+                .exchange().expectStatus().isBadRequest();
+    }
+
+    @Test
+    public void sweepAbandonedResumableUploads() throws IOException {
+        LOG.info("the sweep aborts the resumable uploads that have not received a part within the ttl");
+
+        when(s3Client.createMultipartUpload(any(CreateMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId("s3UploadId").build()));
+        when(s3Client.abortMultipartUpload(any(AbortMultipartUploadRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build()));
+
+        final String resumableUploadDirectory = s3ClientConfigurationProperties.getResumableUploadDirectory();
+        final int resumableUploadTtlMinutes = s3ClientConfigurationProperties.getResumableUploadTtlMinutes();
+        s3ClientConfigurationProperties.setResumableUploadDirectory(Files.createTempDirectory("resumable-uploads").toString());
+        try {
+            ResumableUpload.Status status = resumableUploadService.start("files/", "notes.txt", MediaType.TEXT_PLAIN, 10,
+                    ObjectCannedACL.PRIVATE).block(Duration.ofSeconds(10));
+            assertNotNull(status);
+
+            // a new upload is kept
+            assertEquals(0, resumableUploadService.sweep().block(Duration.ofSeconds(10)));
+            verify(s3Client, never()).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+
+            // every upload last written before a minute from now has expired
+            s3ClientConfigurationProperties.setResumableUploadTtlMinutes(-1);
+            assertEquals(1, resumableUploadService.sweep().block(Duration.ofSeconds(10)));
+            verify(s3Client, times(1)).abortMultipartUpload(any(AbortMultipartUploadRequest.class));
+            client.get().uri("/resumable?uploadId=" + status.uploadId())
+                    .exchange().expectStatus().isBadRequest();
+        }
+        finally {
+            s3ClientConfigurationProperties.setResumableUploadDirectory(resumableUploadDirectory);
+            s3ClientConfigurationProperties.setResumableUploadTtlMinutes(resumableUploadTtlMinutes);
+        }
+    }
 
+    private void mockPrefixObjects(String prefix) {
+        // 2 pages of 1000 and 500 keys, listing after the last key of the first page starts at the second page
+        Mockito.when(s3Client.listObjectsV2(Mockito.any(ListObjectsV2Request.class))).thenAnswer(invocation -> {
+            ListObjectsV2Request listObjectsV2Request = invocation.getArgument(0);
+            final boolean firstPage = listObjectsV2Request.continuationToken() == null
+                    && listObjectsV2Request.startAfter() == null;
+            List<S3Object> contents = IntStream.range(firstPage ? 0 : 1000, firstPage ? 1000 : 1500)
+                    .mapToObj(i -> S3Object.builder().key(prefix + i + ".mp4").build())
+                    .toList();
+            return CompletableFuture.completedFuture(ListObjectsV2Response.builder()
+                    .contents(contents)
+                    .isTruncated(firstPage)
+                    .nextContinuationToken(firstPage ? "page2" : null)
+                    .build());
+        });
+        // one key of each batch can't be deleted
+        Mockito.when(s3Client.deleteObjects(Mockito.any(DeleteObjectsRequest.class))).thenAnswer(invocation -> {
+            DeleteObjectsRequest deleteObjectsRequest = invocation.getArgument(0);
+            return CompletableFuture.completedFuture(DeleteObjectsResponse.builder()
+                    .errors(S3Error.builder().key(deleteObjectsRequest.delete().objects().get(0).key())
+                            .code("AccessDenied").build())
+                    .build());
+        });
     }
 }
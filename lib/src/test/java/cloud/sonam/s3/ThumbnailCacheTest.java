@@ -0,0 +1,93 @@
+package cloud.sonam.s3;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.ThumbnailCache;
+import cloud.sonam.s3.file.ThumbnailSource;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.awt.*;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the memory and disk tiers of the thumbnail cache.
+ */
+public class ThumbnailCacheTest {
+
+    private final S3ClientConfigurationProperties s3config = new S3ClientConfigurationProperties();
+
+    @BeforeEach
+    public void setUp() throws IOException {
+        Path directory = Files.createTempDirectory("thumbnail-cache-test");
+        s3config.setThumbnailCacheEnabled(true);
+        s3config.setThumbnailCacheDirectory(directory.toString());
+        s3config.setThumbnailCacheMemoryBytes(100);
+        s3config.setThumbnailCacheDiskBytes(250);
+    }
+
+    @Test
+    public void sameContentHasSameKey() {
+        ThumbnailSource first = ThumbnailSource.create(1024, Path.of(s3config.getThumbnailCacheDirectory()), true);
+        first.write(ByteBuffer.wrap("photo".getBytes()));
+        ThumbnailSource second = ThumbnailSource.create(1024, Path.of(s3config.getThumbnailCacheDirectory()), true);
+        second.write(ByteBuffer.wrap("pho".getBytes()));
+        second.write(ByteBuffer.wrap("to".getBytes()));
+
+        Dimension dimension = new Dimension(100, 100);
+        assertEquals(ThumbnailCache.getCacheKey(first.getContentHash(), dimension, "jpeg"),
+                ThumbnailCache.getCacheKey(second.getContentHash(), dimension, "jpeg"));
+        assertNotEquals(ThumbnailCache.getCacheKey(first.getContentHash(), dimension, "jpeg"),
+                ThumbnailCache.getCacheKey(first.getContentHash(), new Dimension(200, 200), "jpeg"));
+        first.close();
+        second.close();
+    }
+
+    @Test
+    public void noHashWithoutCache() {
+        // a source for an upload without the cache does not digest the content
+        ThumbnailSource thumbnailSource = ThumbnailSource.create(1024, Path.of(s3config.getThumbnailCacheDirectory()));
+        thumbnailSource.write(ByteBuffer.wrap("photo".getBytes()));
+        assertThrows(IllegalStateException.class, thumbnailSource::getContentHash);
+        thumbnailSource.close();
+    }
+
+    @Test
+    public void evictLeastRecentlyUsed() throws IOException {
+        ThumbnailCache thumbnailCache = new ThumbnailCache(s3config);
+        thumbnailCache.load();
+
+        thumbnailCache.put("a", new byte[100]);
+        thumbnailCache.put("b", new byte[100]);
+        // a is read back from disk and becomes the most recently used
+        assertTrue(thumbnailCache.get("a").isPresent());
+        thumbnailCache.put("c", new byte[100]);
+
+        assertTrue(thumbnailCache.get("a").isPresent());
+        assertTrue(thumbnailCache.get("b").isEmpty());
+        assertTrue(thumbnailCache.get("c").isPresent());
+    }
+
+    @Test
+    public void loadFromDisk() throws IOException {
+        ThumbnailCache thumbnailCache = new ThumbnailCache(s3config);
+        thumbnailCache.load();
+        thumbnailCache.put("a", new byte[]{1, 2, 3});
+        thumbnailCache.putObjectKey("a", "thumbnail/a.jpeg");
+
+        ThumbnailCache restarted = new ThumbnailCache(s3config);
+        restarted.load();
+        ThumbnailCache.CachedThumbnail cachedThumbnail = restarted.get("a").orElseThrow();
+        assertArrayEquals(new byte[]{1, 2, 3}, cachedThumbnail.bytes());
+        // the object key is only kept in memory
+        assertEquals(null, cachedThumbnail.objectKey());
+    }
+}
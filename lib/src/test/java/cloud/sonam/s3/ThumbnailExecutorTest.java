@@ -0,0 +1,172 @@
+package cloud.sonam.s3;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.ThumbnailExecutor;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Tests the limits of the thumbnail executor with jobs that block until they are released.
+ */
+public class ThumbnailExecutorTest {
+
+    private final S3ClientConfigurationProperties s3config = new S3ClientConfigurationProperties();
+
+    @Test
+    public void rejectWhenQueueIsFull() throws InterruptedException {
+        s3config.setThumbnailPoolSize(1);
+        s3config.setThumbnailQueueCapacity(1);
+        ThumbnailExecutor thumbnailExecutor = new ThumbnailExecutor(s3config);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            assertTrue(thumbnailExecutor.hasCapacity());
+            // one job running and one queued
+            thumbnailExecutor.execute(() -> release.await(10, TimeUnit.SECONDS)).subscribe();
+            thumbnailExecutor.execute(() -> release.await(10, TimeUnit.SECONDS)).subscribe();
+            waitFor(() -> thumbnailExecutor.getActiveCount() == 1 && thumbnailExecutor.getQueueSize() == 1);
+
+            assertFalse(thumbnailExecutor.hasCapacity());
+            assertThrows(RejectedExecutionException.class, () -> thumbnailExecutor.execute(() -> true).block());
+            assertEquals(1, thumbnailExecutor.getRejectedCount());
+
+            release.countDown();
+            waitFor(thumbnailExecutor::hasCapacity);
+            assertTrue(thumbnailExecutor.execute(() -> true).block());
+        }
+        finally {
+            release.countDown();
+            thumbnailExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void virtualModeCapsInFlight() throws InterruptedException {
+        s3config.setThumbnailExecutionMode(S3ClientConfigurationProperties.ExecutionMode.VIRTUAL);
+        s3config.setThumbnailMaxInFlight(2);
+        ThumbnailExecutor thumbnailExecutor = new ThumbnailExecutor(s3config);
+        CountDownLatch release = new CountDownLatch(1);
+
+        try {
+            List<Mono<Boolean>> jobs = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                Mono<Boolean> job = thumbnailExecutor.execute(() -> {
+                    release.await(10, TimeUnit.SECONDS);
+                    return Thread.currentThread().isVirtual();
+                }).cache();
+                job.subscribe();
+                jobs.add(job);
+            }
+            waitFor(() -> thumbnailExecutor.getActiveCount() == 2);
+
+            assertFalse(thumbnailExecutor.hasCapacity());
+            assertThrows(RejectedExecutionException.class, () -> thumbnailExecutor.execute(() -> true).block());
+            assertEquals(1, thumbnailExecutor.getRejectedCount());
+
+            release.countDown();
+            for (Mono<Boolean> job : jobs) {
+                assertTrue(job.block());
+            }
+            waitFor(() -> thumbnailExecutor.getCompletedTaskCount() == 2);
+            assertTrue(thumbnailExecutor.hasCapacity());
+        }
+        finally {
+            release.countDown();
+            thumbnailExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void decodePermitsLimitConcurrentDecodes() throws InterruptedException {
+        s3config.setThumbnailPoolSize(4);
+        s3config.setThumbnailDecodeConcurrency(2);
+        ThumbnailExecutor thumbnailExecutor = new ThumbnailExecutor(s3config);
+        AtomicInteger decoding = new AtomicInteger();
+        AtomicInteger maxDecoding = new AtomicInteger();
+
+        try {
+            List<Mono<Boolean>> jobs = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                jobs.add(thumbnailExecutor.execute(() -> thumbnailExecutor.decode(() -> {
+                    maxDecoding.accumulateAndGet(decoding.incrementAndGet(), Math::max);
+                    Thread.sleep(200);
+                    decoding.decrementAndGet();
+                    return true;
+                })));
+            }
+            assertEquals(4, Mono.zip(jobs, results -> results.length).block());
+
+            // four threads ran the jobs but only two decoded at a time
+            assertEquals(2, maxDecoding.get());
+            waitFor(() -> thumbnailExecutor.getCompletedTaskCount() == 4);
+        }
+        finally {
+            thumbnailExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void segmentsTakeDecodePermits() throws InterruptedException {
+        s3config.setThumbnailExecutionMode(S3ClientConfigurationProperties.ExecutionMode.VIRTUAL);
+        s3config.setThumbnailDecodeConcurrency(2);
+        s3config.setVideoSegmentConcurrency(4);
+        ThumbnailExecutor thumbnailExecutor = new ThumbnailExecutor(s3config);
+        AtomicInteger decoding = new AtomicInteger();
+        AtomicInteger maxDecoding = new AtomicInteger();
+
+        try {
+            List<Callable<Boolean>> segments = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                segments.add(() -> {
+                    maxDecoding.accumulateAndGet(decoding.incrementAndGet(), Math::max);
+                    Thread.sleep(200);
+                    decoding.decrementAndGet();
+                    return Thread.currentThread().isVirtual();
+                });
+            }
+            // two jobs that each split their decode into four segments
+            List<Mono<List<Boolean>>> jobs = new ArrayList<>();
+            for (int i = 0; i < 2; i++) {
+                jobs.add(thumbnailExecutor.execute(() -> thumbnailExecutor.decode(() ->
+                        thumbnailExecutor.invokeSegments(segments))));
+            }
+            for (List<Boolean> results : Flux.merge(jobs).collectList().block()) {
+                assertEquals(List.of(true, true, true, true), results);
+            }
+
+            // eight segments but never more than the two decode permits
+            assertEquals(2, maxDecoding.get());
+        }
+        finally {
+            thumbnailExecutor.shutdown();
+        }
+    }
+
+    @Test
+    public void defaultsLeaveThreadsWaitingOnIo() {
+        // the decode permits only limit anything when there are more pool threads than permits
+        assertTrue(s3config.getThumbnailPoolSize() > s3config.getThumbnailDecodeConcurrency());
+    }
+
+    private void waitFor(BooleanSupplier condition) throws InterruptedException {
+        for (int i = 0; i < 100 && !condition.getAsBoolean(); i++) {
+            Thread.sleep(50);
+        }
+        assertTrue(condition.getAsBoolean());
+    }
+}
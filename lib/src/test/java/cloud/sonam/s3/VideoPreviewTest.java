@@ -0,0 +1,245 @@
+package cloud.sonam.s3;
+
+import cloud.sonam.s3.config.S3ClientConfigurationProperties;
+import cloud.sonam.s3.file.GifThumbnail;
+import cloud.sonam.s3.file.PhotoThumbnail;
+import cloud.sonam.s3.file.S3FileUploadService;
+import cloud.sonam.s3.file.ThumbnailCache;
+import cloud.sonam.s3.file.ThumbnailSource;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mockito;
+import org.springframework.http.MediaType;
+import reactor.core.Exceptions;
+import reactor.core.publisher.Mono;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.http.SdkHttpResponse;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CopyObjectRequest;
+import software.amazon.awssdk.services.s3.model.CopyObjectResponse;
+import software.amazon.awssdk.services.s3.model.ObjectCannedACL;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.PutObjectResponse;
+
+import java.awt.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Checks the key extension and content type each video preview format is stored with, and that a cached preview
+ * or photo thumbnail is only used with the settings it was created with.
+ */
+public class VideoPreviewTest {
+
+    private static final LocalDateTime LOCAL_DATE_TIME = LocalDateTime.parse("2024-11-22T08:15:40.314460");
+
+    private final S3ClientConfigurationProperties s3config = new S3ClientConfigurationProperties();
+
+    private final S3AsyncClient s3Client = Mockito.mock(S3AsyncClient.class);
+
+    private final GifThumbnail gifThumbnail = Mockito.mock(GifThumbnail.class);
+
+    private final PhotoThumbnail photoThumbnail = Mockito.mock(PhotoThumbnail.class);
+
+    private ThumbnailCache thumbnailCache;
+
+    private S3FileUploadService s3FileUploadService;
+
+    private ThumbnailSource thumbnailSource;
+
+    private URL presignedUrl;
+
+    private ByteArrayOutputStream preview;
+
+    @TempDir
+    private Path directory;
+
+    @BeforeEach
+    public void setup() throws Exception {
+        s3config.setThumbnailCacheDirectory(directory.resolve("cache").toString());
+        thumbnailCache = new ThumbnailCache(s3config);
+
+        s3FileUploadService = new S3FileUploadService(s3Client, s3config, null, null, gifThumbnail, photoThumbnail,
+                null, thumbnailCache, null, null, null);
+
+        when(s3Client.putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class)))
+                .thenReturn(CompletableFuture.completedFuture((PutObjectResponse) PutObjectResponse.builder()
+                        .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                        .build()));
+
+        preview = new ByteArrayOutputStream();
+        preview.write(new byte[]{1, 2, 3});
+        when(gifThumbnail.getClip(any(URL.class), any(), any())).thenReturn(Mono.just(preview));
+        when(gifThumbnail.getClip(any(ThumbnailSource.class), any(), any())).thenReturn(Mono.just(preview));
+        when(gifThumbnail.getPoster(any(URL.class), any())).thenReturn(Mono.just(preview));
+        when(gifThumbnail.getPoster(any(ThumbnailSource.class), any())).thenReturn(Mono.just(preview));
+        when(gifThumbnail.getByteArrayOutputStream(any(URL.class), any(), any())).thenReturn(Mono.just(preview));
+        when(gifThumbnail.getByteArrayOutputStream(any(ThumbnailSource.class), any(), any())).thenReturn(Mono.just(preview));
+        when(photoThumbnail.getByteArrayOutputStream(any(ThumbnailSource.class), any(), any())).thenReturn(Mono.just(preview));
+
+        thumbnailSource = ThumbnailSource.create(1024, directory, true);
+        thumbnailSource.write(ByteBuffer.wrap(new byte[]{4, 5, 6}));
+        presignedUrl = directory.resolve("dog.mov").toUri().toURL();
+    }
+
+    @AfterEach
+    public void close() {
+        thumbnailSource.close();
+    }
+
+    @Test
+    public void mp4Clip() {
+        assertPreview(S3ClientConfigurationProperties.VideoPreviewFormat.MP4,
+                "videoapp/thumbnail/2024-11-22T08:15:40.314460.mp4", "video/mp4");
+    }
+
+    @Test
+    public void webmClip() {
+        assertPreview(S3ClientConfigurationProperties.VideoPreviewFormat.WEBM,
+                "videoapp/thumbnail/2024-11-22T08:15:40.314460.webm", "video/webm");
+    }
+
+    @Test
+    public void gifIsStoredAsGif() {
+        // a gif preview was stored as image/jpeg before
+        assertPreview(S3ClientConfigurationProperties.VideoPreviewFormat.GIF,
+                "videoapp/thumbnail/2024-11-22T08:15:40.314460.gif", "image/gif");
+    }
+
+    @Test
+    public void posterIsStoredAsJpeg() {
+        assertPreview(S3ClientConfigurationProperties.VideoPreviewFormat.POSTER,
+                "videoapp/thumbnail/2024-11-22T08:15:40.314460.jpeg", "image/jpeg");
+    }
+
+    /**
+     * create the preview from the presigned url and from the upload, both are stored under the same key.
+     */
+    private void assertPreview(S3ClientConfigurationProperties.VideoPreviewFormat previewFormat, String key,
+                               String contentType) {
+        s3config.setVideoPreviewFormat(previewFormat);
+
+        assertEquals(key, s3FileUploadService.createVideoPreview(LOCAL_DATE_TIME, presignedUrl, "videoapp/",
+                ObjectCannedACL.PRIVATE, "dog.mov", MediaType.valueOf("video/quicktime"), new Dimension(100, 100)).block());
+        assertEquals(key, s3FileUploadService.createVideoPreview(LOCAL_DATE_TIME, thumbnailSource, "videoapp/",
+                ObjectCannedACL.PRIVATE, "dog.mov", MediaType.valueOf("video/quicktime"), new Dimension(100, 100)).block());
+
+        ArgumentCaptor<PutObjectRequest> putObjectRequests = ArgumentCaptor.forClass(PutObjectRequest.class);
+        verify(s3Client, times(2)).putObject(putObjectRequests.capture(), any(AsyncRequestBody.class));
+        for (PutObjectRequest putObjectRequest : putObjectRequests.getAllValues()) {
+            assertEquals(key, putObjectRequest.key());
+            assertEquals(contentType, putObjectRequest.contentType());
+        }
+    }
+
+    @Test
+    public void cachedClipFollowsSettings() throws IOException {
+        enableCache();
+        s3config.setVideoPreviewFormat(S3ClientConfigurationProperties.VideoPreviewFormat.MP4);
+
+        createVideoPreview();
+        createVideoPreview();
+        // the second upload of the same video uses the cached clip
+        verify(gifThumbnail, times(1)).getClip(any(ThumbnailSource.class), any(), any());
+
+        s3config.setVideoPreviewBitrate(s3config.getVideoPreviewBitrate() * 2);
+        createVideoPreview();
+        verify(gifThumbnail, times(2)).getClip(any(ThumbnailSource.class), any(), any());
+
+        s3config.setVideoPreviewSeconds(s3config.getVideoPreviewSeconds() + 1);
+        createVideoPreview();
+        verify(gifThumbnail, times(3)).getClip(any(ThumbnailSource.class), any(), any());
+    }
+
+    @Test
+    public void cachedGifFollowsFrameCount() throws IOException {
+        enableCache();
+        s3config.setVideoPreviewFormat(S3ClientConfigurationProperties.VideoPreviewFormat.GIF);
+        s3config.setVideoFrameSelection(S3ClientConfigurationProperties.FrameSelection.KEYFRAME);
+
+        createVideoPreview();
+        createVideoPreview();
+        verify(gifThumbnail, times(1)).getByteArrayOutputStream(any(ThumbnailSource.class), any(), any());
+
+        s3config.setVideoPreviewFrameCount(s3config.getVideoPreviewFrameCount() + 1);
+        createVideoPreview();
+        verify(gifThumbnail, times(2)).getByteArrayOutputStream(any(ThumbnailSource.class), any(), any());
+    }
+
+    @Test
+    public void cachedPhotoThumbnailFollowsResampler() throws IOException {
+        enableCache();
+        s3config.setThumbnailResampler(S3ClientConfigurationProperties.Resampler.GRAPHICS2D);
+
+        createPhotoThumbnail();
+        createPhotoThumbnail();
+        verify(photoThumbnail, times(1)).getByteArrayOutputStream(any(ThumbnailSource.class), any(), any());
+
+        s3config.setThumbnailResampler(S3ClientConfigurationProperties.Resampler.BOX);
+        createPhotoThumbnail();
+        verify(photoThumbnail, times(2)).getByteArrayOutputStream(any(ThumbnailSource.class), any(), any());
+    }
+
+    @Test
+    public void failedPreviewIsNotCached() throws IOException {
+        enableCache();
+        s3config.setVideoPreviewFormat(S3ClientConfigurationProperties.VideoPreviewFormat.MP4);
+
+        // an empty clip and a failed clip fail the upload and are not cached
+        when(gifThumbnail.getClip(any(ThumbnailSource.class), any(), any()))
+                .thenReturn(Mono.just(new ByteArrayOutputStream()))
+                .thenReturn(Mono.error(new IOException("range read failed")))
+                .thenReturn(Mono.just(preview));
+        assertThrows(IllegalStateException.class, this::createVideoPreview);
+        assertThrows(IOException.class, () -> {
+            try {
+                createVideoPreview();
+            }
+            catch (RuntimeException e) {
+                throw Exceptions.unwrap(e);
+            }
+        });
+        verify(s3Client, never()).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+
+        // the next upload of the same video creates the clip again and caches it
+        createVideoPreview();
+        createVideoPreview();
+        verify(gifThumbnail, times(3)).getClip(any(ThumbnailSource.class), any(), any());
+        verify(s3Client, times(1)).putObject(any(PutObjectRequest.class), any(AsyncRequestBody.class));
+    }
+
+    private void enableCache() throws IOException {
+        s3config.setThumbnailCacheEnabled(true);
+        when(s3Client.copyObject(any(CopyObjectRequest.class)))
+                .thenReturn(CompletableFuture.completedFuture((CopyObjectResponse) CopyObjectResponse.builder()
+                        .sdkHttpResponse(SdkHttpResponse.builder().statusCode(200).build())
+                        .build()));
+        thumbnailCache.load();
+    }
+
+    private void createVideoPreview() {
+        s3FileUploadService.createVideoPreview(LOCAL_DATE_TIME, thumbnailSource, "videoapp/", ObjectCannedACL.PRIVATE,
+                "dog.mov", MediaType.valueOf("video/quicktime"), new Dimension(100, 100)).block();
+    }
+
+    private void createPhotoThumbnail() {
+        s3FileUploadService.createPhotoThumbnail(LOCAL_DATE_TIME, thumbnailSource, "photoapp/", ObjectCannedACL.PRIVATE,
+                "langur.jpg", MediaType.IMAGE_JPEG, new Dimension(100, 100)).block();
+    }
+}